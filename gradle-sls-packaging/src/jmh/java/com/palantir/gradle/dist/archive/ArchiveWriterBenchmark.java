@@ -0,0 +1,196 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures how fast {@link SlsTarCopyAction} writes synthetic distributions, the way {@code distTar} and
+ * {@code configTar} do, across compressions, levels and thread counts. Besides archives per second, JMH reports the
+ * uncompressed {@code bytes} per second, and with the {@code gc} profiler the allocation rate and bytes allocated per
+ * archive. The compression cache is disabled, so every run compresses everything.
+ *
+ * <p>Run with {@code ./gradlew :gradle-sls-packaging:jmh}, which writes the results as JSON to
+ * {@code build/reports/jmh}. Parameters can be narrowed down as usual, for example
+ * {@code -Pjmh.includes='ArchiveWriterBenchmark' -Pjmh.benchmarkParameters=compression:zstd}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ArchiveWriterBenchmark {
+    private static final String ROOT = "service-1.0.0/";
+
+    /** Jar sizes in KiB of a typical service with a few dozen dependencies, around 60 MiB in total. */
+    private static final int[] JAR_SIZES_KIB = {
+        4, 8, 12, 16, 20, 24, 32, 40, 48, 56, 64, 72, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384, 448, 512, 640,
+        768, 896, 1024, 1280, 1536, 1792, 2048, 2560, 2816, 3072, 4096, 5120, 6144, 8192, 10240
+    };
+
+    private static final int CONFIG_FILES = 40;
+
+    /** {@code service} is a full distribution with jars, {@code config} only the small files of {@code configTar}. */
+    @Param({"service", "config"})
+    public String distribution;
+
+    @Param({"gzip", "zstd"})
+    public String compression;
+
+    /** {@code fast}, {@code default} or {@code best}, mapped to the levels of each compression. */
+    @Param({"fast", "default"})
+    public String level;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path directory;
+    private File archive;
+    private List<PendingEntry> entries;
+    private long uncompressedSize;
+    private ArchiveSettings settings;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("archive-benchmark");
+        archive = directory.resolve("archive").toFile();
+        entries = new ArrayList<>();
+        Random random = new Random(1);
+        for (int i = 0; i < CONFIG_FILES; i++) {
+            addEntry(random, String.format("var/conf/config-%d.yml", i), text(random, 200 + random.nextInt(4000)));
+        }
+        addEntry(random, "deployment/manifest.yml", text(random, 400));
+        if (distribution.equals("service")) {
+            for (int i = 0; i < JAR_SIZES_KIB.length; i++) {
+                Path jar = directory.resolve(String.format("library-%d.jar", i));
+                writeJar(random, jar, JAR_SIZES_KIB[i] * 1024);
+                addFile(String.format("service/lib/library-%d.jar", i), jar);
+            }
+        }
+
+        ArchiveCompression archiveCompression = ArchiveCompression.fromName(compression);
+        settings = ArchiveSettings.builder()
+                .compression(archiveCompression)
+                .compressionLevel(compressionLevel(archiveCompression))
+                .compressedEntryLevel(1)
+                .longWindow(false)
+                .blockSize(SlsTarTask.DEFAULT_COMPRESSION_BLOCK_SIZE)
+                .threads(threads)
+                .preserveFileTimestamps(false)
+                .manifestFirst(true)
+                .hardLinkDuplicates(false)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(directory, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Benchmark
+    public long writeArchive(UncompressedBytes counter) {
+        // The action reorders the list it is given
+        new SlsTarCopyAction(archive, settings).write(new ArrayList<>(entries));
+        counter.bytes += uncompressedSize;
+        return archive.length();
+    }
+
+    /** Uncompressed bytes written, which JMH reports per second next to archives per second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class UncompressedBytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    private int compressionLevel(ArchiveCompression archiveCompression) {
+        boolean gzip = archiveCompression == ArchiveCompression.GZIP;
+        switch (level) {
+            case "fast":
+                return 1;
+            case "default":
+                return archiveCompression.getDefaultLevel();
+            case "best":
+                return gzip ? 9 : 19;
+            default:
+                throw new IllegalArgumentException("Unknown level: " + level);
+        }
+    }
+
+    private void addEntry(Random random, String path, byte[] content) throws IOException {
+        Path file = directory.resolve(String.format("file-%d", random.nextInt(Integer.MAX_VALUE)));
+        Files.write(file, content);
+        addFile(path, file);
+    }
+
+    private void addFile(String path, Path file) {
+        entries.add(PendingEntry.ofFile(ROOT + path, 0644, 0, file.toFile()));
+        uncompressedSize += file.toFile().length();
+    }
+
+    /** Writes a jar of roughly {@code size} bytes whose classes compress about as well as real ones. */
+    private static void writeJar(Random random, Path jar, int size) throws IOException {
+        try (OutputStream out = Files.newOutputStream(jar);
+                JarOutputStream jarOut = new JarOutputStream(out)) {
+            for (int i = 0; Files.size(jar) < size; i++) {
+                jarOut.putNextEntry(new JarEntry(String.format("com/example/Class%d.class", i)));
+                jarOut.write(text(random, 2 * 1024 + random.nextInt(16 * 1024)));
+                jarOut.closeEntry();
+            }
+        }
+    }
+
+    /** Text drawn from a small vocabulary, which deflates about as well as yaml or class files. */
+    private static byte[] text(Random random, int size) {
+        String[] words = {
+            "service", "config", "java", "lang", "String", "Object", "get", "set", "value", "name", "port", ": ", "\n",
+            "  - ", "true", "false", "1000", "com/palantir", "Ljava/util/List;", "<init>", "()V"
+        };
+        StringBuilder builder = new StringBuilder(size + 32);
+        while (builder.length() < size) {
+            builder.append(words[random.nextInt(words.length)]).append(random.nextInt(8) == 0 ? "\n" : " ");
+        }
+        return builder.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+}
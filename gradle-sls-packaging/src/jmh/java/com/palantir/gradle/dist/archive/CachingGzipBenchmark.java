@@ -0,0 +1,125 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures how long {@link CachingGzipOutputStream} takes to gzip the entries of a service with a few dozen
+ * dependencies: {@code cold} with an empty cache, which compresses every entry, and {@code incremental} after changing
+ * one of the entries, which only compresses that one and copies the others from the cache.
+ *
+ * <p>Run with {@code ./gradlew :gradle-sls-packaging:jmh -Pjmh.includes='CachingGzipBenchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CachingGzipBenchmark {
+    private static final int ENTRIES = 40;
+    private static final int ENTRY_SIZE = 512 * 1024;
+    private static final int CHANGED_ENTRY = 7;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final byte[] HEADER = "header".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"cold", "incremental"})
+    public String cache;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path cacheDirectory;
+    private List<byte[]> entries;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cacheDirectory = Files.createTempDirectory("caching-gzip-benchmark");
+        random = new Random(1);
+        entries = new ArrayList<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            entries.add(sampleData(random));
+        }
+        if (cache.equals("incremental")) {
+            compress();
+        }
+    }
+
+    /** Runs before every archive, which takes tens of milliseconds, long enough for per-invocation setup. */
+    @Setup(Level.Invocation)
+    public void prepareCache() throws IOException {
+        if (cache.equals("cold")) {
+            MoreFiles.deleteDirectoryContents(cacheDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+        } else {
+            entries.set(CHANGED_ENTRY, sampleData(random));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(cacheDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Benchmark
+    public long compress() throws IOException {
+        CachingGzipOutputStream stream = new CachingGzipOutputStream(
+                ByteStreams.nullOutputStream(), cacheDirectory, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, threads);
+        try {
+            for (byte[] entry : entries) {
+                stream.write(HEADER);
+                stream.startSegment(Hashing.sha256().hashBytes(entry));
+                stream.write(entry);
+                stream.endSegment();
+            }
+            stream.write(HEADER);
+        } finally {
+            stream.close();
+        }
+        return stream.cacheHits();
+    }
+
+    /** Text drawn from a small alphabet, which deflates to about half of its size. */
+    private static byte[] sampleData(Random random) {
+        String alphabet = "abcdefghij\n";
+        byte[] data = new byte[ENTRY_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return data;
+    }
+}
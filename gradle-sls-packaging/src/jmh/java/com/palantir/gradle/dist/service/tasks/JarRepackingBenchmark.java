@@ -0,0 +1,210 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time from starting a JVM until its main method has loaded a service's startup classes, with the
+ * third-party jars as a build writes them and as {@link RepackJarsTask} repacks them. The jars hold the classes of
+ * guava, jackson and commons-compress, and the startup classes are a fixed third of them. The load order is recorded
+ * with {@code -verbose:class}, the way a service's would be.
+ *
+ * <p>{@code deflated} is the jars as built, {@code stored} the repacked jars without a load order and {@code ordered}
+ * the repacked jars in load order. The jars are in the page cache after the first run, so this measures the cost of
+ * inflating and of finding entries, not of reading the disk. Run with
+ * {@code ./gradlew :gradle-sls-packaging:jmh -Pjmh.includes='JarRepackingBenchmark'}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 30)
+public class JarRepackingBenchmark {
+    private static final List<String> PACKAGES =
+            ImmutableList.of("com/google/common/", "com/fasterxml/jackson/", "org/apache/commons/compress/");
+
+    @Param({"deflated", "stored", "ordered"})
+    public String jars;
+
+    private Path directory;
+    private List<String> command;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("jar-repacking-benchmark");
+        Path deflated = Files.createDirectories(directory.resolve("deflated"));
+        List<String> classes = new ArrayList<>();
+        for (String prefix : PACKAGES) {
+            classes.addAll(writeLibrary(deflated.resolve(prefix.replace('/', '-') + "library.jar"), prefix));
+        }
+        writeLoader(directory.resolve("loader.jar"));
+
+        // A third of the classes, as a service loads a part of each library at startup
+        Collections.shuffle(classes, new Random(1));
+        Path startupClasses = directory.resolve("startup-classes.txt");
+        Files.write(startupClasses, classes.subList(0, classes.size() / 3), StandardCharsets.UTF_8);
+
+        Path classLoadLog = directory.resolve("class-load.log");
+        new ProcessBuilder(command(deflated, startupClasses, "-verbose:class"))
+                .redirectOutput(classLoadLog.toFile())
+                .start()
+                .waitFor();
+
+        Path stored = Files.createDirectories(directory.resolve("stored"));
+        Path ordered = Files.createDirectories(directory.resolve("ordered"));
+        ClassLoadOrder order = ClassLoadOrder.read(classLoadLog.toFile());
+        for (File jar : deflated.toFile().listFiles()) {
+            RepackJarsTask.repack(jar, stored.resolve(jar.getName()).toFile(), ClassLoadOrder.NONE);
+            RepackJarsTask.repack(jar, ordered.resolve(jar.getName()).toFile(), order);
+        }
+        command = command(directory.resolve(jars), startupClasses);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(directory, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Benchmark
+    public int timeToMainDone() throws IOException, InterruptedException {
+        int exitCode = new ProcessBuilder(command).inheritIO().start().waitFor();
+        if (exitCode != 0) {
+            throw new IllegalStateException("Loading the startup classes failed with exit code " + exitCode);
+        }
+        return exitCode;
+    }
+
+    private List<String> command(Path libraries, Path startupClasses, String... jvmArgs) {
+        List<String> classpath = new ArrayList<>();
+        classpath.add(directory.resolve("loader.jar").toString());
+        for (File jar : libraries.toFile().listFiles()) {
+            classpath.add(jar.toString());
+        }
+        return ImmutableList.<String>builder()
+                .add(Paths.get(System.getProperty("java.home"), "bin", "java").toString())
+                .add(jvmArgs)
+                .add("-cp", String.join(File.pathSeparator, classpath))
+                .add(LoadClasses.class.getName(), startupClasses.toString())
+                .build();
+    }
+
+    /**
+     * Writes the classes of the package, from wherever the benchmark loads them, into a jar deflated at the default
+     * level like the jars of a build, and returns their names.
+     */
+    private static List<String> writeLibrary(Path jar, String prefix) throws IOException {
+        List<String> classes = new ArrayList<>();
+        try (OutputStream out = Files.newOutputStream(jar);
+                JarOutputStream jarOut = new JarOutputStream(out);
+                JarFile source = new JarFile(codeSource(prefix))) {
+            for (JarEntry entry : Collections.list(source.entries())) {
+                String name = entry.getName();
+                if (!name.startsWith(prefix) || entry.isDirectory()) {
+                    continue;
+                }
+                jarOut.putNextEntry(new JarEntry(name));
+                try (InputStream in = source.getInputStream(entry)) {
+                    ByteStreams.copy(in, jarOut);
+                }
+                jarOut.closeEntry();
+                if (name.endsWith(".class") && !name.contains("-")) {
+                    classes.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static File codeSource(String prefix) {
+        Class<?> member = prefix.startsWith("com/google")
+                ? ImmutableList.class
+                : prefix.startsWith("com/fasterxml") ? ObjectMapper.class : TarArchiveEntry.class;
+        try {
+            return Paths.get(member.getProtectionDomain().getCodeSource().getLocation().toURI()).toFile();
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Writes a jar with only {@link LoadClasses}, which needs nothing but the JDK. */
+    private static void writeLoader(Path jar) throws IOException {
+        String name = LoadClasses.class.getName().replace('.', '/') + ".class";
+        try (OutputStream out = Files.newOutputStream(jar);
+                JarOutputStream jarOut = new JarOutputStream(out);
+                InputStream in = JarRepackingBenchmark.class.getClassLoader().getResourceAsStream(name)) {
+            jarOut.putNextEntry(new JarEntry(name));
+            ByteStreams.copy(in, jarOut);
+            jarOut.closeEntry();
+        }
+    }
+
+    /** The main class of the measured JVMs, which loads the classes listed in the given file. */
+    public static final class LoadClasses {
+        public static void main(String[] args) throws IOException {
+            List<String> classes = Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8);
+            int loaded = 0;
+            for (String className : classes) {
+                try {
+                    Class.forName(className, false, LoadClasses.class.getClassLoader());
+                    loaded++;
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // Classes of optional dependencies, which are not on the classpath
+                }
+            }
+            if (loaded < classes.size() / 2) {
+                System.exit(1);
+            }
+        }
+
+        private LoadClasses() {}
+    }
+}
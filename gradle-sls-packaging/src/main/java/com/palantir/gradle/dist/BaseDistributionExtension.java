@@ -19,6 +19,7 @@ package com.palantir.gradle.dist;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Iterables;
+import com.palantir.gradle.dist.archive.ArchiveCompression;
 import com.palantir.logsafe.SafeArg;
 import com.palantir.logsafe.exceptions.SafeRuntimeException;
 import groovy.lang.Closure;
@@ -56,6 +57,14 @@ public class BaseDistributionExtension {
     private final SetProperty<ProductId> ignoredProductDependencies;
     private final ProviderFactory providerFactory;
     private final MapProperty<String, Object> manifestExtensions;
+    private final Property<ArchiveCompression> compression;
+    private final Property<Integer> compressionLevel;
+    private final Property<Boolean> compressionLongWindow;
+    private final Property<Boolean> enableChunkIndex;
+    private final Property<Boolean> enableSeekableArchive;
+    private final Property<Boolean> enableChecksums;
+    private final Property<Boolean> enableSinglePassArchives;
+    private final Property<Boolean> enableHardLinkDuplicates;
     private final String projectName;
     private Configuration productDependenciesConfig;
 
@@ -75,6 +84,22 @@ public class BaseDistributionExtension {
         manifestExtensions =
                 project.getObjects().mapProperty(String.class, Object.class).empty();
 
+        compression = project.getObjects().property(ArchiveCompression.class);
+        compressionLevel = project.getObjects().property(Integer.class);
+        compressionLongWindow = project.getObjects().property(Boolean.class);
+        compression.set(ArchiveCompression.GZIP);
+        compressionLongWindow.set(false);
+        enableChunkIndex = project.getObjects().property(Boolean.class);
+        enableChunkIndex.set(false);
+        enableSeekableArchive = project.getObjects().property(Boolean.class);
+        enableSeekableArchive.set(false);
+        enableChecksums = project.getObjects().property(Boolean.class);
+        enableChecksums.set(false);
+        enableSinglePassArchives = project.getObjects().property(Boolean.class);
+        enableSinglePassArchives.set(false);
+        enableHardLinkDuplicates = project.getObjects().property(Boolean.class);
+        enableHardLinkDuplicates.set(false);
+
         projectName = project.getName();
     }
 
@@ -246,6 +271,102 @@ public class BaseDistributionExtension {
         manifestExtensions.set(extensions);
     }
 
+    public final Provider<ArchiveCompression> getCompression() {
+        return compression;
+    }
+
+    /** Compression of the distribution and config archives, either {@code gzip} (the default) or {@code zstd}. */
+    public final void compression(String compressionName) {
+        compression.set(ArchiveCompression.fromName(compressionName));
+    }
+
+    public final void setCompression(ArchiveCompression compression) {
+        this.compression.set(compression);
+    }
+
+    public final Provider<Integer> getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /** Overrides the compression level, which otherwise defaults to that of the {@code gzip} or {@code zstd} CLI. */
+    public final void compressionLevel(int level) {
+        compressionLevel.set(level);
+    }
+
+    public final Provider<Boolean> getCompressionLongWindow() {
+        return compressionLongWindow;
+    }
+
+    /**
+     * Lets zstd match repeated content up to 128 MiB apart, which helps distributions with many similar jars at the
+     * cost of more memory while compressing. Ignored for gzip.
+     */
+    public final void compressionLongWindow(boolean longWindow) {
+        compressionLongWindow.set(longWindow);
+    }
+
+    public final Provider<Boolean> getEnableChunkIndex() {
+        return enableChunkIndex;
+    }
+
+    /**
+     * Writes a content-defined chunk index of the uncompressed distribution next to it, and publishes it on the
+     * {@code sls} configuration, so that deployments can fetch only the chunks that changed since the last version.
+     */
+    public final void enableChunkIndex(boolean newEnableChunkIndex) {
+        enableChunkIndex.set(newEnableChunkIndex);
+    }
+
+    public final Provider<Boolean> getEnableSeekableArchive() {
+        return enableSeekableArchive;
+    }
+
+    /**
+     * Compresses every file of the distribution into frames of its own, and writes and publishes an index of their
+     * offsets, so that single files such as {@code deployment/manifest.yml} can be read without extracting the rest.
+     */
+    public final void enableSeekableArchive(boolean newEnableSeekableArchive) {
+        enableSeekableArchive.set(newEnableSeekableArchive);
+    }
+
+    public final Provider<Boolean> getEnableChecksums() {
+        return enableChecksums;
+    }
+
+    /**
+     * Adds the SHA-256 of every file to the distribution as {@code deployment/checksums.json}, computed while the
+     * archive is written, and writes and publishes the same checksums next to it.
+     */
+    public final void enableChecksums(boolean newEnableChecksums) {
+        enableChecksums.set(newEnableChecksums);
+    }
+
+    public final Provider<Boolean> getEnableSinglePassArchives() {
+        return enableSinglePassArchives;
+    }
+
+    /**
+     * Writes the config archive of {@code configTar} while {@code distTar} writes the distribution, so that the
+     * {@code deployment} files are read and compressed in the same pass rather than again by a second task.
+     * {@code configTar} then copies the config archive that {@code distTar} wrote, and keeps producing the same file.
+     */
+    public final void enableSinglePassArchives(boolean newEnableSinglePassArchives) {
+        enableSinglePassArchives.set(newEnableSinglePassArchives);
+    }
+
+    public final Provider<Boolean> getEnableHardLinkDuplicates() {
+        return enableHardLinkDuplicates;
+    }
+
+    /**
+     * Writes files of the distribution that are identical to an earlier file as tar hard links to it, so that the
+     * archive and the extracted distribution hold their content once. Extracting with {@code tar} restores every path,
+     * but gradle's {@code tarTree} extracts hard links as empty files.
+     */
+    public final void enableHardLinkDuplicates(boolean newEnableHardLinkDuplicates) {
+        enableHardLinkDuplicates.set(newEnableHardLinkDuplicates);
+    }
+
     public final Configuration getProductDependenciesConfig() {
         return productDependenciesConfig;
     }
@@ -16,16 +16,29 @@
 
 package com.palantir.gradle.dist;
 
+import com.palantir.gradle.dist.archive.ArchiveIndex;
+import com.palantir.gradle.dist.archive.Checksums;
+import com.palantir.gradle.dist.archive.ChunkIndex;
+import com.palantir.gradle.dist.archive.SlsTarTask;
 import com.palantir.logsafe.Preconditions;
 import com.palantir.logsafe.SafeArg;
+import java.io.File;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.ConfigurablePublishArtifact;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.attributes.Attribute;
 import org.gradle.api.attributes.AttributeDisambiguationRule;
 import org.gradle.api.attributes.MultipleCandidatesDetails;
 import org.gradle.api.attributes.Usage;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.TaskProvider;
 import org.gradle.util.GradleVersion;
 
 public class SlsBaseDistPlugin implements Plugin<Project> {
@@ -35,6 +48,33 @@ public class SlsBaseDistPlugin implements Plugin<Project> {
 
     public static final String SLS_DIST_USAGE = "sls-dist";
 
+    /** Lets consumers of the {@link #SLS_CONFIGURATION_NAME} configuration tell gzip and zstd archives apart. */
+    public static final Attribute<String> SLS_COMPRESSION_ATTRIBUTE =
+            Attribute.of("com.palantir.sls.compression", String.class);
+
+    /**
+     * Distinguishes the layer variants of a layered distribution, see {@link #addLayerVariant}, from the full
+     * distribution, whose value is {@link #SLS_FULL_LAYER}.
+     */
+    public static final Attribute<String> SLS_LAYER_ATTRIBUTE = Attribute.of("com.palantir.sls.layer", String.class);
+
+    public static final String SLS_FULL_LAYER = "full";
+
+    /** The {@link #SLS_LAYER_ATTRIBUTE} value of the chunk index variant, see {@link #configureIndexes}. */
+    public static final String SLS_CHUNK_INDEX_VARIANT = "chunk-index";
+
+    /** The {@link #SLS_LAYER_ATTRIBUTE} value of the index of a seekable archive, see {@link #configureIndexes}. */
+    public static final String SLS_ARCHIVE_INDEX_VARIANT = "archive-index";
+
+    /** The {@link #SLS_LAYER_ATTRIBUTE} value of the checksums of the distribution, see {@link #configureIndexes}. */
+    public static final String SLS_CHECKSUMS_VARIANT = "checksums";
+
+    /**
+     * The {@link #SLS_LAYER_ATTRIBUTE} value, and the artifact type, of the extracted distribution, see
+     * {@link #addExplodedVariant}.
+     */
+    public static final String SLS_EXPLODED_VARIANT = "exploded";
+
     public static final GradleVersion MINIMUM_GRADLE = GradleVersion.version("5.6");
 
     @Override
@@ -55,6 +95,96 @@ public class SlsBaseDistPlugin implements Plugin<Project> {
                 .getAttributesSchema()
                 .attribute(Usage.USAGE_ATTRIBUTE, strategy -> strategy.getDisambiguationRules()
                         .add(SlsDisambiguationRule.class));
+        project.getDependencies()
+                .getAttributesSchema()
+                .attribute(SLS_LAYER_ATTRIBUTE, strategy -> strategy.getDisambiguationRules()
+                        .add(SlsLayerDisambiguationRule.class));
+    }
+
+    /**
+     * Publishes part of the distribution as an extra variant of the {@link #SLS_CONFIGURATION_NAME} configuration,
+     * which consumers select by requesting {@link #SLS_LAYER_ATTRIBUTE}. Consumers that do not request a layer keep
+     * getting the full distribution.
+     */
+    public static void addLayerVariant(Project project, String layer, Object artifact, Object builtBy) {
+        addVariant(project, layer, artifact, published -> published.builtBy(builtBy));
+    }
+
+    /**
+     * Publishes a directory with the layout of the extracted distribution as the {@link #SLS_EXPLODED_VARIANT}
+     * variant, with artifact type {@value #SLS_EXPLODED_VARIANT}, so that consumers in the same build that would only
+     * extract the archive get the files without compressing and decompressing them.
+     */
+    public static void addExplodedVariant(Project project, Provider<Directory> directory, Object builtBy) {
+        addVariant(project, SLS_EXPLODED_VARIANT, directory, published -> {
+            published.setType(SLS_EXPLODED_VARIANT);
+            // The name of the root directory ends in the version, which is not an extension
+            published.setExtension("");
+            published.builtBy(builtBy);
+        });
+    }
+
+    private static void addVariant(
+            Project project, String layer, Object artifact, Action<ConfigurablePublishArtifact> configureArtifact) {
+        Configuration slsConf = project.getConfigurations().getByName(SLS_CONFIGURATION_NAME);
+        slsConf.getAttributes().attribute(SLS_LAYER_ATTRIBUTE, SLS_FULL_LAYER);
+        slsConf.getOutgoing().getVariants().create(layer, variant -> {
+            variant.getAttributes().attribute(SLS_LAYER_ATTRIBUTE, layer);
+            variant.artifact(artifact, configureArtifact);
+        });
+    }
+
+    /** Publishes the compression chosen in the {@code distribution} extension on the outgoing configuration. */
+    public static void configureCompressionAttribute(Project project, BaseDistributionExtension extension) {
+        // Attribute values can't be providers before gradle 7.4
+        project.afterEvaluate(p -> p.getConfigurations()
+                .getByName(SLS_CONFIGURATION_NAME)
+                .getAttributes()
+                .attribute(SLS_COMPRESSION_ATTRIBUTE, extension.getCompression().get().getName()));
+    }
+
+    /**
+     * Writes the indexes enabled in the {@code distribution} extension next to the distribution, and publishes them as
+     * variants: a {@link ChunkIndex} as {@code <archive>.chunks.json} ({@link #SLS_CHUNK_INDEX_VARIANT}), for a
+     * seekable archive an {@link ArchiveIndex} as {@code <archive>.index.json} ({@link #SLS_ARCHIVE_INDEX_VARIANT}),
+     * and {@link Checksums} as {@code <archive>.checksums.json} ({@link #SLS_CHECKSUMS_VARIANT}).
+     */
+    public static void configureIndexes(
+            Project project, TaskProvider<SlsTarTask> distTar, BaseDistributionExtension extension) {
+        project.afterEvaluate(p -> {
+            if (extension.getEnableChunkIndex().get()) {
+                addIndex(project, distTar, SLS_CHUNK_INDEX_VARIANT, ".chunks.json", SlsTarTask::getChunkIndexFile);
+            }
+            if (extension.getEnableSeekableArchive().get()) {
+                addIndex(project, distTar, SLS_ARCHIVE_INDEX_VARIANT, ".index.json", SlsTarTask::getArchiveIndexFile);
+            }
+            if (extension.getEnableChecksums().get()) {
+                addIndex(project, distTar, SLS_CHECKSUMS_VARIANT, ".checksums.json", SlsTarTask::getChecksumsFile);
+            }
+        });
+    }
+
+    private static void addIndex(
+            Project project,
+            TaskProvider<SlsTarTask> distTar,
+            String variant,
+            String suffix,
+            Function<SlsTarTask, RegularFileProperty> indexFile) {
+        distTar.configure(task -> indexFile
+                .apply(task)
+                .set(project.getLayout()
+                        .file(task.getArchiveFile().map(archive -> new File(archive.getAsFile().getPath() + suffix)))));
+        addLayerVariant(project, variant, distTar.flatMap(indexFile::apply), distTar);
+    }
+
+    /** Consumers that don't request a layer get the full distribution rather than an ambiguity error. */
+    static final class SlsLayerDisambiguationRule implements AttributeDisambiguationRule<String> {
+        @Override
+        public void execute(MultipleCandidatesDetails<String> details) {
+            if (details.getConsumerValue() == null && details.getCandidateValues().contains(SLS_FULL_LAYER)) {
+                details.closestMatch(SLS_FULL_LAYER);
+            }
+        }
     }
 
     /**
@@ -0,0 +1,71 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.gradle.dist.archive;
+
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/** The compression formats that SLS distribution archives can be written with. */
+public enum ArchiveCompression {
+    GZIP("gzip", "tgz", Deflater.DEFAULT_COMPRESSION),
+    /**
+     * Zstandard decompresses several times faster than gzip, which dominates unpack time on deploy. Compressed with
+     * libzstd's own worker threads, whose output is the same for any number of workers.
+     */
+    ZSTD("zstd", "tzst", 3);
+
+    private final String compressionName;
+    private final String fileExtension;
+    private final int defaultLevel;
+
+    ArchiveCompression(String name, String fileExtension, int defaultLevel) {
+        this.compressionName = name;
+        this.fileExtension = fileExtension;
+        this.defaultLevel = defaultLevel;
+    }
+
+    /** The name used to select this compression in the {@code distribution} extension, e.g. {@code 'zstd'}. */
+    public String getName() {
+        return compressionName;
+    }
+
+    /** The extension of a compressed tar, appended to e.g. {@code sls.} or {@code service.config.}. */
+    public String getFileExtension() {
+        return fileExtension;
+    }
+
+    public int getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    public static ArchiveCompression fromName(String name) {
+        return Arrays.stream(values())
+                .filter(compression -> compression.compressionName.equals(name.toLowerCase(Locale.ROOT)))
+                .findFirst()
+                .orElseThrow(() -> new SafeIllegalArgumentException(
+                        "Unknown compression",
+                        SafeArg.of("compression", name),
+                        SafeArg.of("supported", Arrays.toString(values()))));
+    }
+
+    @Override
+    public String toString() {
+        return compressionName;
+    }
+}
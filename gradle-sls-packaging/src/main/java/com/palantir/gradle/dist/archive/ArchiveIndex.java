@@ -0,0 +1,74 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.immutables.value.Value;
+
+/**
+ * Locates the files of a seekable archive, in which every file is compressed into frames of its own, written next to
+ * it as {@code <archive>.index.json}. See {@link SeekableArchiveReader}.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableArchiveIndex.class)
+@JsonDeserialize(as = ImmutableArchiveIndex.class)
+public interface ArchiveIndex {
+    /** The {@link ArchiveCompression#getName() name} of the compression of the archive. */
+    String compression();
+
+    /** Every file in the archive, in archive order. */
+    List<Entry> entries();
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    final class Builder extends ImmutableArchiveIndex.Builder {}
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableEntry.class)
+    @JsonDeserialize(as = ImmutableEntry.class)
+    interface Entry {
+        /** Path of the file in the archive, including the root directory. */
+        String path();
+
+        /** Compressed offset of the frames holding the tar header and content of the file. */
+        long offset();
+
+        /** Compressed length of those frames. */
+        long length();
+
+        /** Uncompressed size of the file. */
+        long size();
+
+        /**
+         * Path of the earlier file that this file is a hard link to, whose frames hold the content, or null if the
+         * frames of this file hold its content.
+         */
+        @Nullable
+        String linkTarget();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableEntry.Builder {}
+    }
+}
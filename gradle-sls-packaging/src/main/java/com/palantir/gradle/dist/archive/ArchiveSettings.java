@@ -0,0 +1,83 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.palantir.gradle.dist.archive;
+
+import java.io.File;
+import java.util.List;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+/** Everything {@link SlsTarCopyAction} needs to know about how to write an archive. */
+@Value.Immutable
+interface ArchiveSettings {
+    ArchiveCompression compression();
+
+    int compressionLevel();
+
+    /** Gzip level of {@link CompressedContent already compressed} entries, which gain next to nothing from more. */
+    int compressedEntryLevel();
+
+    /** Whether zstd may reference data up to 128 MiB back, which pays off for jar-heavy distributions. */
+    boolean longWindow();
+
+    int blockSize();
+
+    int threads();
+
+    boolean preserveFileTimestamps();
+
+    /** Whether to write entries in {@link EntryOrder} rather than in the order gradle visits them. */
+    boolean manifestFirst();
+
+    /** Whether to write files with the same content as an earlier file as hard links to it. */
+    boolean hardLinkDuplicates();
+
+    /** Where gzip members of large entries are kept between builds, see {@link CachingGzipOutputStream}. */
+    Optional<File> cacheDirectory();
+
+    /** Where to write the {@link ChunkIndex} of the uncompressed tar stream, if anywhere. */
+    Optional<File> chunkIndexFile();
+
+    /**
+     * Where to write the {@link ArchiveIndex}, if anywhere. When set, every file is compressed into frames of its own
+     * so that it can be decompressed on its own, see {@link FramedOutputStream}.
+     */
+    Optional<File> archiveIndexFile();
+
+    /**
+     * Where to write the {@link Checksums} of the files of the archive, if anywhere. When set, they are also written
+     * into the archive as {@link Checksums#PATH}.
+     */
+    Optional<File> checksumsFile();
+
+    /**
+     * Where to also write an archive of only the {@code deployment} directory under the root directory, if anywhere,
+     * with each of its files read once for both archives.
+     */
+    Optional<File> configArchiveFile();
+
+    /**
+     * The archives to split the entries into instead, if any, in which case the archive file gets a
+     * {@link ShardManifest} of them.
+     */
+    List<File> shardFiles();
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    final class Builder extends ImmutableArchiveSettings.Builder {}
+}
@@ -0,0 +1,70 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Splits the entries of an archive into shards of about the same uncompressed size, so that extracting them at the
+ * same time takes about as long as extracting the largest file does at most.
+ */
+final class ArchiveShards {
+    private ArchiveShards() {}
+
+    /**
+     * Gives each file, from the largest to the smallest, to the shard with the fewest bytes so far, which is never
+     * further from an even split than the size of the largest file. Directories all go into the first shard, which
+     * extractors create anyway as the parents of files, and files that are hard links to another go into its shard.
+     * Every shard keeps the entries in their original order.
+     */
+    static List<List<PendingEntry>> split(List<PendingEntry> entries, int count, DuplicateEntries duplicates) {
+        long[] sizes = new long[count];
+        Map<PendingEntry, Integer> shardOf = new IdentityHashMap<>();
+        List<PendingEntry> largestFirst = entries.stream()
+                .filter(entry -> !entry.isDirectory() && duplicates.targetOf(entry) == null)
+                // Sorted by path as well, so that the split does not depend on the order gradle visits files in
+                .sorted(Comparator.comparingLong(PendingEntry::size)
+                        .reversed()
+                        .thenComparing(PendingEntry::path))
+                .collect(Collectors.toList());
+        for (PendingEntry entry : largestFirst) {
+            int smallest = 0;
+            for (int shard = 1; shard < count; shard++) {
+                if (sizes[shard] < sizes[smallest]) {
+                    smallest = shard;
+                }
+            }
+            sizes[smallest] += entry.size();
+            shardOf.put(entry, smallest);
+        }
+
+        List<List<PendingEntry>> shards = new ArrayList<>();
+        for (int shard = 0; shard < count; shard++) {
+            shards.add(new ArrayList<>());
+        }
+        for (PendingEntry entry : entries) {
+            PendingEntry target = duplicates.targetOf(entry);
+            shards.get(shardOf.getOrDefault(target != null ? target : entry, 0)).add(entry);
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * Gzips a stream like {@link ParallelGzipOutputStream}, except that callers can mark segments of the stream, such as
+ * the content of a tar entry, that are compressed into members of their own, optionally at a level of their own. The
+ * compressed segment is stored in a cache directory keyed by the hash of its content, and when the same content is
+ * written again the stored members are copied to the output instead of compressing it again. Without a cache
+ * directory, segments only serve to compress parts of the stream at a different level.
+ *
+ * <p>Gzip members concatenate freely, and a segment always compresses to the same members, so the output only depends
+ * on the input and on where segments start, never on whether they came from the cache.
+ *
+ * <p>Reading a segment from the cache marks it as used, and closing the stream deletes the segments of the cache
+ * directory that no build has used for {@link #MAX_UNUSED_AGE}, so that the cache only keeps the content of recent
+ * builds.
+ */
+final class CachingGzipOutputStream extends OutputStream {
+    // Bump when the way segments are compressed changes, so that stale members are never spliced in
+    private static final String CACHE_FORMAT = "v1";
+
+    /** As long as gradle keeps unused entries of its own caches. */
+    static final Duration MAX_UNUSED_AGE = Duration.ofDays(7);
+
+    private final CountingOutputStream out;
+
+    @Nullable
+    private final Path cacheDirectory;
+
+    private final int level;
+    private final int blockSize;
+    private final int threads;
+
+    @Nullable
+    private final ExecutorService executor;
+
+    /** Compresses whatever is being written, either a run of uncached bytes or a cached segment. */
+    @Nullable
+    private OutputStream current;
+
+    @Nullable
+    private Path segmentCacheFile;
+
+    @Nullable
+    private Path segmentTempFile;
+
+    private long segmentStart = 0;
+    private long lastSegmentSize = 0;
+    private int cacheHits = 0;
+    private int cacheMisses = 0;
+    private boolean inSegment = false;
+    private boolean discarding = false;
+    private boolean wroteMembers = false;
+    private boolean closed = false;
+
+    CachingGzipOutputStream(
+            OutputStream out, @Nullable Path cacheDirectory, int level, int blockSize, int threads) {
+        this.out = new CountingOutputStream(out);
+        this.cacheDirectory = cacheDirectory;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.threads = threads;
+        this.executor = ParallelGzipOutputStream.newExecutor(threads);
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        ensureOpen();
+        if (!discarding) {
+            current().write(value);
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        if (!discarding) {
+            current().write(bytes, offset, length);
+        }
+    }
+
+    /** Starts a segment compressed at the level of the stream, see {@link #startSegment(HashCode, int)}. */
+    boolean startSegment(HashCode contentHash) throws IOException {
+        return startSegment(contentHash, level);
+    }
+
+    /**
+     * Starts a segment whose content hashes to {@code contentHash}, compressed at {@code segmentLevel}. Returns true if
+     * the segment was found in the cache and has already been written, in which case the bytes written until
+     * {@link #endSegment()} are discarded. Otherwise they are compressed into the output, and into the cache unless
+     * there is no cache directory or {@code contentHash} is null.
+     */
+    boolean startSegment(@Nullable HashCode contentHash, int segmentLevel) throws IOException {
+        ensureOpen();
+        Preconditions.checkState(!inSegment, "Segment already started");
+        endRun();
+        inSegment = true;
+        segmentStart = out.getCount();
+
+        if (cacheDirectory == null || contentHash == null) {
+            current = newGzipStream(new SegmentOutputStream(out, null), segmentLevel);
+            return false;
+        }
+
+        Path cacheFile = cacheDirectory.resolve(
+                String.format("%s-%s-%d-%d.gz", CACHE_FORMAT, contentHash, segmentLevel, blockSize));
+        try {
+            Files.copy(cacheFile, out);
+            wroteMembers = true;
+            discarding = true;
+            cacheHits++;
+            markUsed(cacheFile);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Cache miss, compress the segment ourselves
+        }
+
+        cacheMisses++;
+        Files.createDirectories(cacheDirectory);
+        segmentCacheFile = cacheFile;
+        segmentTempFile = Files.createTempFile(cacheDirectory, cacheFile.getFileName().toString(), ".tmp");
+        current = newGzipStream(
+                new SegmentOutputStream(out, new BufferedOutputStream(Files.newOutputStream(segmentTempFile))),
+                segmentLevel);
+        return false;
+    }
+
+    /** Ends the current segment, storing its compressed members in the cache if they were not already there. */
+    void endSegment() throws IOException {
+        ensureOpen();
+        Preconditions.checkState(inSegment, "No segment started");
+        inSegment = false;
+        if (discarding) {
+            discarding = false;
+            lastSegmentSize = out.getCount() - segmentStart;
+            return;
+        }
+
+        current.close();
+        current = null;
+        lastSegmentSize = out.getCount() - segmentStart;
+        if (segmentTempFile == null) {
+            return;
+        }
+        // Several builds may share the cache, so only ever expose complete members under the final name
+        try {
+            Files.move(segmentTempFile, segmentCacheFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Another build cached the same content concurrently, and its members are identical to ours
+            Files.delete(segmentTempFile);
+        }
+        segmentTempFile = null;
+        segmentCacheFile = null;
+    }
+
+    /** Compressed size of the last segment that ended, whether or not it came from the cache. */
+    long lastSegmentSize() {
+        return lastSegmentSize;
+    }
+
+    /** Number of segments that were copied from the cache. */
+    int cacheHits() {
+        return cacheHits;
+    }
+
+    /** Number of segments that were looked up in the cache and compressed, because it did not have them. */
+    int cacheMisses() {
+        return cacheMisses;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (current != null) {
+                current.close();
+            }
+            if (segmentTempFile != null) {
+                // The segment never ended, so its members may be incomplete
+                Files.deleteIfExists(segmentTempFile);
+            }
+            if (!wroteMembers) {
+                // An empty gzip file is not valid, so emit a single empty member
+                out.write(ParallelGzipOutputStream.compress(new byte[0], 0, level));
+            }
+            if (cacheDirectory != null && cacheHits + cacheMisses > 0) {
+                pruneUnused(cacheDirectory, Instant.now().minus(MAX_UNUSED_AGE));
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            out.close();
+        }
+    }
+
+    /** Records that a build used the segment, as the time it was last modified, which nothing else changes. */
+    private static void markUsed(Path cacheFile) throws IOException {
+        try {
+            Files.setLastModifiedTime(cacheFile, FileTime.from(Instant.now()));
+        } catch (NoSuchFileException e) {
+            // Pruned by another build after we copied it, which only means that the next build compresses it again
+        }
+    }
+
+    /**
+     * Deletes the segments, and the temporary files of builds that were killed, that were last used before
+     * {@code cutoff}. Other builds may use the directory at the same time, which is safe: a segment that one of them
+     * is about to copy is a cache miss once deleted, and one that is being copied stays readable until it is closed.
+     */
+    static void pruneUnused(Path cacheDirectory, Instant cutoff) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(cacheDirectory)) {
+            files = list.collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        for (Path file : files) {
+            try {
+                if (Files.isRegularFile(file) && Files.getLastModifiedTime(file).toInstant().isBefore(cutoff)) {
+                    Files.delete(file);
+                }
+            } catch (NoSuchFileException e) {
+                // Pruned by another build
+            }
+        }
+    }
+
+    private OutputStream current() {
+        if (current == null) {
+            current = newGzipStream(new SegmentOutputStream(out, null), level);
+        }
+        return current;
+    }
+
+    /** Compresses whatever was written since the last segment, so that it is not attributed to the next one. */
+    void endRun() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+
+    private OutputStream newGzipStream(OutputStream target, int memberLevel) {
+        wroteMembers = true;
+        return new ParallelGzipOutputStream(target, memberLevel, blockSize, threads, executor);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /** Writes to the archive and optionally to a cache file, and only closes the latter. */
+    private static final class SegmentOutputStream extends OutputStream {
+        private final OutputStream archive;
+
+        @Nullable
+        private final OutputStream cacheFile;
+
+        SegmentOutputStream(OutputStream archive, @Nullable OutputStream cacheFile) {
+            this.archive = archive;
+            this.cacheFile = cacheFile;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            archive.write(value);
+            if (cacheFile != null) {
+                cacheFile.write(value);
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            archive.write(bytes, offset, length);
+            if (cacheFile != null) {
+                cacheFile.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (cacheFile != null) {
+                cacheFile.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.hash.HashCode;
+import com.palantir.gradle.dist.ObjectMappers;
+import java.io.IOException;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.gradle.api.GradleException;
+
+/**
+ * Collects the {@link Checksums} of the files of an archive as they are written, keyed by their path relative to the
+ * root directory that all of them share.
+ */
+final class ChecksumCollector {
+    private static final int MODE = 0644;
+
+    private final Checksums.Builder checksums = Checksums.builder().algorithm(Checksums.ALGORITHM);
+
+    @Nullable
+    private String root;
+
+    private long lastModified = 0;
+
+    void add(PendingEntry entry, HashCode sha256) {
+        int slash = entry.path().indexOf('/');
+        String entryRoot = entry.path().substring(0, slash + 1);
+        if (root == null) {
+            root = entryRoot;
+        } else if (!root.equals(entryRoot)) {
+            throw new GradleException(String.format(
+                    "Checksums need all files to be in one root directory, but found '%s' and '%s'",
+                    root,
+                    entryRoot));
+        }
+        String relativePath = entry.path().substring(slash + 1);
+        if (!relativePath.equals(Checksums.PATH)) {
+            checksums.putFiles(relativePath, sha256.toString());
+            lastModified = Math.max(lastModified, entry.lastModified());
+        }
+    }
+
+    Checksums build() {
+        return checksums.build();
+    }
+
+    /**
+     * The {@link Checksums#PATH checksums file} of the archive, as modified as the most recently modified file, or
+     * empty if the archive has no files.
+     */
+    Optional<PendingEntry> toEntry() throws IOException {
+        if (root == null) {
+            return Optional.empty();
+        }
+        byte[] content = ObjectMappers.jsonMapper.writeValueAsBytes(build());
+        return Optional.of(PendingEntry.ofContent(root + Checksums.PATH, MODE, lastModified, content));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.palantir.gradle.dist.ObjectMappers;
+import com.palantir.logsafe.Preconditions;
+import com.palantir.logsafe.SafeArg;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks an extracted distribution against the {@link Checksums} it carries, hashing files on several threads so that
+ * verifying a distribution of large jars is bound by disk rather than by a single core.
+ */
+public final class ChecksumVerifier {
+    private ChecksumVerifier() {}
+
+    public static Checksums readChecksums(Path distributionDir) throws IOException {
+        return ObjectMappers.jsonMapper.readValue(distributionDir.resolve(Checksums.PATH).toFile(), Checksums.class);
+    }
+
+    /**
+     * Returns the paths, relative to {@code distributionDir}, of the files that are missing or whose content does not
+     * match its checksum, in the order of the checksums. An empty list means the distribution is intact. Files that
+     * have no checksum are not checked.
+     */
+    public static List<String> verify(Path distributionDir, int threads) throws IOException {
+        Checksums checksums = readChecksums(distributionDir);
+        Preconditions.checkArgument(
+                checksums.algorithm().equals(Checksums.ALGORITHM),
+                "Unsupported checksum algorithm",
+                SafeArg.of("algorithm", checksums.algorithm()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("sls-checksums-%d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (Map.Entry<String, String> file : checksums.files().entrySet()) {
+                Path path = distributionDir.resolve(file.getKey());
+                results.add(executor.submit(() -> matches(path, file.getValue())));
+            }
+
+            List<String> failed = new ArrayList<>();
+            int index = 0;
+            for (String file : checksums.files().keySet()) {
+                if (!results.get(index++).get()) {
+                    failed.add(file);
+                }
+            }
+            return failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while verifying checksums", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not verify checksums", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean matches(Path file, String sha256) throws IOException {
+        try {
+            return MoreFiles.asByteSource(file).hash(Hashing.sha256()).toString().equals(sha256);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.Map;
+import org.immutables.value.Value;
+
+/**
+ * SHA-256 digests of the files of a distribution, computed while the archive is written. Stored in the archive as
+ * {@value #PATH} and written next to it as {@code <archive>.checksums.json}. See {@link ChecksumVerifier}.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableChecksums.class)
+@JsonDeserialize(as = ImmutableChecksums.class)
+public interface Checksums {
+    /** Where the checksums are stored, relative to the root directory of the distribution. */
+    String PATH = "deployment/checksums.json";
+
+    String ALGORITHM = "SHA-256";
+
+    String algorithm();
+
+    /**
+     * Hex encoded digest of every file in the archive other than {@value #PATH}, by its path relative to the root
+     * directory of the distribution, in archive order.
+     */
+    Map<String, String> files();
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    final class Builder extends ImmutableChecksums.Builder {}
+}
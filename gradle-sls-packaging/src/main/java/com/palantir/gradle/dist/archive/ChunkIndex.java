@@ -0,0 +1,70 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.List;
+import org.immutables.value.Value;
+
+/**
+ * Content-defined chunks of the uncompressed tar stream of an archive, written next to it as
+ * {@code <archive>.chunks.json}. See {@link ChunkReassembler} for rebuilding the stream from a store of chunks.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableChunkIndex.class)
+@JsonDeserialize(as = ImmutableChunkIndex.class)
+public interface ChunkIndex {
+    /** Identifies how boundaries were chosen. Indexes with different chunking rarely share chunks. */
+    String chunking();
+
+    int minChunkSize();
+
+    int averageChunkSize();
+
+    int maxChunkSize();
+
+    /** Size of the whole uncompressed stream. */
+    long size();
+
+    /** Hash of the whole uncompressed stream. */
+    String sha256();
+
+    /** In stream order, so the offset of each chunk is the sum of the sizes before it. */
+    List<Chunk> chunks();
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    final class Builder extends ImmutableChunkIndex.Builder {}
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableChunk.class)
+    @JsonDeserialize(as = ImmutableChunk.class)
+    interface Chunk {
+        int size();
+
+        String sha256();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableChunk.Builder {}
+    }
+}
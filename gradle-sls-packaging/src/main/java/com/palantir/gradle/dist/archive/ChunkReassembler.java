@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.palantir.gradle.dist.ObjectMappers;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Rebuilds the uncompressed tar stream of a distribution from its {@link ChunkIndex} and a chunk store, which is a
+ * directory holding one file per chunk named by its SHA-256. A deploy agent that already has the previous version
+ * typically:
+ *
+ * <ol>
+ *   <li>{@link #storeChunks stores the chunks} of the previous version, using its index,
+ *   <li>fetches the {@link #missingChunks missing chunks} of the new version, for example from a store populated by
+ *       {@link #storeChunks} on the server,
+ *   <li>and {@link #reassemble reassembles} the new version, which can be extracted as it is written.
+ * </ol>
+ *
+ * <p>Every chunk is checked against its hash, as is the stream as a whole.
+ */
+public final class ChunkReassembler {
+    private ChunkReassembler() {}
+
+    public static ChunkIndex readIndex(Path indexFile) throws IOException {
+        return ObjectMappers.jsonMapper.readValue(indexFile.toFile(), ChunkIndex.class);
+    }
+
+    /** Splits an uncompressed tar stream as described by its index, and adds the chunks the store does not have. */
+    public static void storeChunks(InputStream uncompressed, ChunkIndex index, Path store) throws IOException {
+        Files.createDirectories(store);
+        for (ChunkIndex.Chunk chunk : index.chunks()) {
+            byte[] content = new byte[chunk.size()];
+            try {
+                ByteStreams.readFully(uncompressed, content);
+            } catch (EOFException e) {
+                throw new SafeIllegalStateException(
+                        "Stream is shorter than its chunk index", e, SafeArg.of("size", index.size()));
+            }
+            checkHash(chunk, Hashing.sha256().hashBytes(content));
+
+            Path chunkFile = store.resolve(chunk.sha256());
+            if (!Files.exists(chunkFile)) {
+                Path tempFile = Files.createTempFile(store, chunk.sha256(), ".tmp");
+                Files.write(tempFile, content);
+                try {
+                    Files.move(tempFile, chunkFile, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    Files.delete(tempFile);
+                }
+            }
+        }
+    }
+
+    /** The chunks of the index that are not in the store, each listed once in stream order. */
+    public static List<ChunkIndex.Chunk> missingChunks(ChunkIndex index, Path store) {
+        Set<String> seen = new HashSet<>();
+        return index.chunks().stream()
+                .filter(chunk -> seen.add(chunk.sha256()))
+                .filter(chunk -> !Files.exists(store.resolve(chunk.sha256())))
+                .collect(Collectors.toList());
+    }
+
+    /** Writes the uncompressed tar stream described by the index, which must only use chunks in the store. */
+    public static void reassemble(ChunkIndex index, Path store, OutputStream out) throws IOException {
+        Hasher streamHash = Hashing.sha256().newHasher();
+        for (ChunkIndex.Chunk chunk : index.chunks()) {
+            byte[] content;
+            try {
+                content = Files.readAllBytes(store.resolve(chunk.sha256()));
+            } catch (NoSuchFileException e) {
+                throw new SafeIllegalStateException(
+                        "Chunk store is missing a chunk", e, SafeArg.of("sha256", chunk.sha256()));
+            }
+            checkHash(chunk, Hashing.sha256().hashBytes(content));
+            out.write(content);
+            streamHash.putBytes(content);
+        }
+        String actual = streamHash.hash().toString();
+        if (!actual.equals(index.sha256())) {
+            throw new SafeIllegalStateException(
+                    "Reassembled stream does not match its chunk index",
+                    SafeArg.of("expected", index.sha256()),
+                    SafeArg.of("actual", actual));
+        }
+    }
+
+    private static void checkHash(ChunkIndex.Chunk chunk, HashCode actual) {
+        if (!actual.toString().equals(chunk.sha256())) {
+            throw new SafeIllegalStateException(
+                    "Chunk does not match its hash",
+                    SafeArg.of("expected", chunk.sha256()),
+                    SafeArg.of("actual", actual.toString()));
+        }
+    }
+}
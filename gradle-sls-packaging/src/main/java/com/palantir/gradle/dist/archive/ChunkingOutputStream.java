@@ -0,0 +1,130 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes a stream through while cutting it into content-defined chunks, so that an insertion or deletion only changes
+ * the chunks around it rather than every chunk after it. Boundaries are found with a gear rolling hash over roughly the
+ * last 64 bytes, as in FastCDC, and each chunk is identified by its SHA-256.
+ *
+ * <p>The boundaries only depend on the content, so two versions of a distribution share every chunk outside of the
+ * regions that changed between them.
+ */
+final class ChunkingOutputStream extends OutputStream {
+    static final String CHUNKING = "gear-sha256-v1";
+    static final int MIN_CHUNK_SIZE = 16 * 1024;
+    static final int AVERAGE_CHUNK_SIZE = 64 * 1024;
+    static final int MAX_CHUNK_SIZE = 256 * 1024;
+
+    // The top 16 bits of the gear hash depend on the last 64 bytes, and match with probability 1/AVERAGE_CHUNK_SIZE
+    private static final long BOUNDARY_MASK = 0xFFFFL << 48;
+    private static final long[] GEAR = gearTable();
+
+    private final OutputStream out;
+    private final ChunkIndex.Builder index = ChunkIndex.builder()
+            .chunking(CHUNKING)
+            .minChunkSize(MIN_CHUNK_SIZE)
+            .averageChunkSize(AVERAGE_CHUNK_SIZE)
+            .maxChunkSize(MAX_CHUNK_SIZE);
+    private final Hasher streamHash = Hashing.sha256().newHasher();
+
+    private Hasher chunkHash = Hashing.sha256().newHasher();
+    private long gear = 0;
+    private int chunkSize = 0;
+    private long size = 0;
+    private boolean finished = false;
+
+    ChunkingOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        write(new byte[] {(byte) value}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        Preconditions.checkState(!finished, "Chunk index already finished");
+        out.write(bytes, offset, length);
+        streamHash.putBytes(bytes, offset, length);
+        size += length;
+
+        int chunkStart = offset;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            gear = (gear << 1) + GEAR[bytes[i] & 0xFF];
+            chunkSize++;
+            if ((chunkSize >= MIN_CHUNK_SIZE && (gear & BOUNDARY_MASK) == 0) || chunkSize == MAX_CHUNK_SIZE) {
+                chunkHash.putBytes(bytes, chunkStart, i + 1 - chunkStart);
+                endChunk();
+                chunkStart = i + 1;
+            }
+        }
+        chunkHash.putBytes(bytes, chunkStart, end - chunkStart);
+    }
+
+    /** Ends the last chunk and returns the index of everything written so far. */
+    ChunkIndex finish() {
+        Preconditions.checkState(!finished, "Chunk index already finished");
+        finished = true;
+        if (chunkSize > 0) {
+            endChunk();
+        }
+        return index.size(size).sha256(streamHash.hash().toString()).build();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void endChunk() {
+        index.addChunks(ChunkIndex.Chunk.builder()
+                .size(chunkSize)
+                .sha256(chunkHash.hash().toString())
+                .build());
+        chunkHash = Hashing.sha256().newHasher();
+        chunkSize = 0;
+        gear = 0;
+    }
+
+    /** Fixed forever, as changing it would move every boundary. Generated with splitmix64 from a constant seed. */
+    private static long[] gearTable() {
+        long[] table = new long[256];
+        long state = 0x5EED_C0DE_CAFE_F00DL;
+        for (int i = 0; i < table.length; i++) {
+            state += 0x9E37_79B9_7F4A_7C15L;
+            long value = state;
+            value = (value ^ (value >>> 30)) * 0xBF58_476D_1CE4_E5B9L;
+            value = (value ^ (value >>> 27)) * 0x94D0_49BB_1331_11EBL;
+            table[i] = value ^ (value >>> 31);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Recognizes entries whose content is already compressed, such as jars, for which another round of deflate costs a
+ * lot of CPU for a percent or two of size. Entries are recognized by their extension, and larger entries without a
+ * known extension by the magic bytes at the start of their content.
+ */
+final class CompressedContent {
+    private static final ImmutableSet<String> EXTENSIONS = ImmutableSet.of(
+            "jar", "war", "zip", "gz", "tgz", "zst", "tzst", "xz", "bz2", "png", "jpg", "jpeg", "gif", "woff2");
+
+    // Small files are not worth the extra read, and whatever they are costs next to nothing to deflate
+    private static final long MIN_SAMPLED_SIZE = 4 * 1024;
+
+    private static final ImmutableList<byte[]> MAGIC = ImmutableList.of(
+            new byte[] {0x50, 0x4b, 0x03, 0x04}, // zip and jar
+            new byte[] {0x1f, (byte) 0x8b}, // gzip
+            new byte[] {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd}, // zstd
+            new byte[] {(byte) 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00}, // xz
+            new byte[] {(byte) 0x89, 0x50, 0x4e, 0x47}, // png
+            new byte[] {(byte) 0xff, (byte) 0xd8, (byte) 0xff}); // jpeg
+
+    private CompressedContent() {}
+
+    static boolean isCompressed(PendingEntry entry) throws IOException {
+        if (entry.isDirectory()) {
+            return false;
+        }
+        String extension = Files.getFileExtension(entry.path()).toLowerCase(Locale.ROOT);
+        if (EXTENSIONS.contains(extension)) {
+            return true;
+        }
+        if (!extension.isEmpty() || entry.size() < MIN_SAMPLED_SIZE) {
+            // Any other extension, such as yml, sh or class, is text or code that deflates well
+            return false;
+        }
+        byte[] head = entry.head(6);
+        return MAGIC.stream().anyMatch(magic -> startsWith(head, magic));
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import java.util.Locale;
+
+/**
+ * Sizes and times of the {@link CompressedContent already compressed} entries of an archive and of everything else.
+ * Already compressed entries are measured exactly, as they are compressed into gzip members of their own; the rest of
+ * the archive, including tar headers and directories, is whatever remains of the total.
+ */
+final class CompressionReport {
+    private int compressedEntries = 0;
+    private long compressedSize = 0;
+    private long compressedArchived = 0;
+    private long compressedNanos = 0;
+
+    private int otherEntries = 0;
+    private long otherSize = 0;
+
+    void addCompressed(long size, long archived, long nanos) {
+        compressedEntries++;
+        compressedSize += size;
+        compressedArchived += archived;
+        compressedNanos += nanos;
+    }
+
+    void addOther(long size) {
+        otherEntries++;
+        otherSize += size;
+    }
+
+    /** Describes both classes of entries, given the size of the whole archive and the time it took to write. */
+    String summary(long archiveSize, long totalNanos) {
+        return String.format(
+                Locale.ROOT,
+                "%s; %s",
+                describe("already compressed", compressedEntries, compressedSize, compressedArchived, compressedNanos),
+                describe(
+                        "other",
+                        otherEntries,
+                        otherSize,
+                        archiveSize - compressedArchived,
+                        Math.max(0, totalNanos - compressedNanos)));
+    }
+
+    private static String describe(String name, int entries, long size, long archived, long nanos) {
+        return String.format(
+                Locale.ROOT,
+                "%s: %d files, %.1f MiB to %.1f MiB in %.2f s",
+                name,
+                entries,
+                size / (1024.0 * 1024),
+                archived / (1024.0 * 1024),
+                nanos / 1e9);
+    }
+}
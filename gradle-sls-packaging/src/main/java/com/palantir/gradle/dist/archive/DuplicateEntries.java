@@ -0,0 +1,106 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Finds the files of an archive whose content, mode and timestamp are those of an earlier file, so that the archive
+ * can hold them as hard links to it. A hard link is a header without content, and extracts to the same inode as its
+ * target. Only files whose size another file shares are hashed, so most files are not read an extra time.
+ *
+ * <p>Editing a file in place edits every link to it, so files under {@code deployment}, which are configuration, are
+ * never linked.
+ */
+final class DuplicateEntries {
+    static final DuplicateEntries NONE = new DuplicateEntries(new IdentityHashMap<>(), new IdentityHashMap<>());
+
+    private final Map<PendingEntry, PendingEntry> targets;
+    private final Map<PendingEntry, HashCode> hashes;
+
+    private DuplicateEntries(Map<PendingEntry, PendingEntry> targets, Map<PendingEntry, HashCode> hashes) {
+        this.targets = targets;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Finds the duplicates among {@code entries}, which are in the order they are written, so that the target of a
+     * link is always written before it. Timestamps only have to match if the archive preserves them.
+     */
+    static DuplicateEntries find(List<PendingEntry> entries, boolean preserveFileTimestamps) throws IOException {
+        Map<Long, Integer> sizes = new HashMap<>();
+        for (PendingEntry entry : entries) {
+            if (isLinkable(entry)) {
+                sizes.merge(entry.size(), 1, Integer::sum);
+            }
+        }
+
+        Map<PendingEntry, PendingEntry> targets = new IdentityHashMap<>();
+        Map<PendingEntry, HashCode> hashes = new IdentityHashMap<>();
+        Map<List<Object>, PendingEntry> firsts = new HashMap<>();
+        for (PendingEntry entry : entries) {
+            if (!isLinkable(entry) || sizes.getOrDefault(entry.size(), 0) < 2) {
+                continue;
+            }
+            HashCode hash = hash(entry);
+            hashes.put(entry, hash);
+            List<Object> key = Arrays.asList(
+                    hash, entry.mode(), preserveFileTimestamps ? entry.lastModified() : 0L);
+            PendingEntry first = firsts.putIfAbsent(key, entry);
+            if (first != null) {
+                targets.put(entry, first);
+            }
+        }
+        return new DuplicateEntries(targets, hashes);
+    }
+
+    /** The earlier file with the same content that the entry can link to, or null if there is none. */
+    @Nullable
+    PendingEntry targetOf(PendingEntry entry) {
+        return targets.get(entry);
+    }
+
+    /** The SHA-256 of the content of the entry if it was hashed to look for duplicates, or null. */
+    @Nullable
+    HashCode hashOf(PendingEntry entry) {
+        return hashes.get(entry);
+    }
+
+    int size() {
+        return targets.size();
+    }
+
+    private static boolean isLinkable(PendingEntry entry) {
+        return !entry.isDirectory() && entry.size() > 0 && !SlsTarCopyAction.isConfigEntry(entry);
+    }
+
+    private static HashCode hash(PendingEntry entry) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        entry.copyTo(Funnels.asOutputStream(hasher));
+        return hasher.hash();
+    }
+}
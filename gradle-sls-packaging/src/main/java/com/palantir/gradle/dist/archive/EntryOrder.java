@@ -0,0 +1,85 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders the entries of an SLS archive so that streaming consumers can validate a deployment from the first few
+ * kilobytes: {@code deployment/manifest.yml}, then the launcher configuration, the rest of {@code deployment}, the
+ * scripts in {@code service/bin} and {@code service/monitoring/bin}, everything else, and finally the jars in
+ * {@code service/lib} from smallest to largest. Paths are matched below the root directory of the archive, and entries
+ * of the same kind otherwise keep the order in which gradle visited them.
+ */
+final class EntryOrder {
+    private static final int MANIFEST = 0;
+    private static final int LAUNCHER_CONFIG = 1;
+    private static final int DEPLOYMENT = 2;
+    private static final int SCRIPTS = 3;
+    private static final int OTHER = 4;
+    private static final int JARS = 5;
+
+    private static final Comparator<PendingEntry> ORDER = Comparator.comparingInt(EntryOrder::rank)
+            .thenComparing((first, second) -> rank(first) == JARS ? compareJars(first, second) : 0);
+
+    private EntryOrder() {}
+
+    /** Sorts the entries in place. */
+    static void sort(List<PendingEntry> entries) {
+        // List.sort is stable, so ties keep gradle's order
+        entries.sort(ORDER);
+    }
+
+    private static int rank(PendingEntry entry) {
+        if (entry.isDirectory()) {
+            return OTHER;
+        }
+        String path = belowRoot(entry.path());
+        if (path.equals("deployment/manifest.yml")) {
+            return MANIFEST;
+        }
+        if ((isDirectlyIn(path, "service/bin/") && path.startsWith("service/bin/launcher-") && path.endsWith(".yml"))
+                || path.equals("var/conf/launcher-custom.yml")) {
+            return LAUNCHER_CONFIG;
+        }
+        if (path.startsWith("deployment/")) {
+            return DEPLOYMENT;
+        }
+        if (isDirectlyIn(path, "service/bin/") || isDirectlyIn(path, "service/monitoring/bin/")) {
+            return SCRIPTS;
+        }
+        if (path.startsWith("service/lib/") && path.endsWith(".jar")) {
+            return JARS;
+        }
+        return OTHER;
+    }
+
+    private static int compareJars(PendingEntry first, PendingEntry second) {
+        int bySize = Long.compare(first.size(), second.size());
+        return bySize != 0 ? bySize : first.path().compareTo(second.path());
+    }
+
+    private static boolean isDirectlyIn(String path, String directory) {
+        return path.startsWith(directory) && path.indexOf('/', directory.length()) < 0;
+    }
+
+    private static String belowRoot(String path) {
+        int slash = path.indexOf('/');
+        return slash < 0 ? path : path.substring(slash + 1);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.io.CountingOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Compresses a stream as a sequence of independently decompressible frames, which for gzip are one or more members
+ * and for zstd a single frame. Callers end a frame wherever a reader should be able to start decompressing, and get
+ * back the compressed offset of that point.
+ */
+final class FramedOutputStream extends OutputStream {
+    private final CountingOutputStream out;
+    private final FrameCompressor compressor;
+
+    @Nullable
+    private OutputStream frame;
+
+    private boolean closed = false;
+
+    FramedOutputStream(OutputStream out, FrameCompressor compressor) {
+        this.out = new CountingOutputStream(out);
+        this.compressor = compressor;
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        frame().write(value);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        frame().write(bytes, offset, length);
+    }
+
+    /**
+     * Ends the current frame, if any, and returns the compressed offset at which the next one starts. Bytes written
+     * from here on can be decompressed without reading anything before this offset.
+     */
+    long endFrame() throws IOException {
+        ensureOpen();
+        if (frame != null) {
+            frame.close();
+            frame = null;
+        }
+        return out.getCount();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (frame != null) {
+            frame.flush();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            endFrame();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private OutputStream frame() throws IOException {
+        ensureOpen();
+        if (frame == null) {
+            frame = compressor.open(new FrameSink(out));
+        }
+        return frame;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    interface FrameCompressor {
+        /** Returns a stream that compresses into {@code sink} and writes a complete frame when closed. */
+        OutputStream open(OutputStream sink) throws IOException;
+    }
+
+    /** Passes writes through, but leaves the underlying stream open when the frame is closed. */
+    private static final class FrameSink extends OutputStream {
+        private final OutputStream out;
+
+        FrameSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            out.write(value);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Gzip-compresses a stream by cutting it into fixed size blocks and compressing each block as an independent gzip
+ * member on a pool of threads. Members are written in order, so the output is a standard multi-member gzip file
+ * (RFC 1952, section 2.2) that {@code gzip -d}, {@code tar xzf} and {@link java.util.zip.GZIPInputStream} read
+ * transparently.
+ *
+ * <p>The output only depends on the input, the block size and the compression level, never on the number of threads.
+ */
+final class ParallelGzipOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+    @Nullable
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] block;
+    private int blockLength = 0;
+    private long membersWritten = 0;
+    private boolean closed = false;
+
+    ParallelGzipOutputStream(OutputStream out, int level, int blockSize, int threads) {
+        this(out, level, blockSize, threads, newExecutor(threads), true);
+    }
+
+    /**
+     * Compresses blocks on an executor shared between several streams, which closing this stream leaves running. A
+     * null executor compresses blocks on the writing thread.
+     */
+    ParallelGzipOutputStream(
+            OutputStream out, int level, int blockSize, int threads, @Nullable ExecutorService sharedExecutor) {
+        this(out, level, blockSize, threads, sharedExecutor, false);
+    }
+
+    private ParallelGzipOutputStream(
+            OutputStream out,
+            int level,
+            int blockSize,
+            int threads,
+            @Nullable ExecutorService executor,
+            boolean ownsExecutor) {
+        Preconditions.checkArgument(blockSize > 0, "blockSize must be positive: %s", blockSize);
+        Preconditions.checkArgument(threads > 0, "threads must be positive: %s", threads);
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize];
+        // Keep every thread busy while the head of the queue is being written, without buffering the whole stream
+        this.maxPendingBlocks = threads * 2;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /** Returns null for a single thread, in which case blocks are compressed inline. */
+    @Nullable
+    static ExecutorService newExecutor(int threads) {
+        return threads == 1
+                ? null
+                : Executors.newFixedThreadPool(
+                        threads,
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("sls-gzip-%d")
+                                .setDaemon(true)
+                                .build());
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) value;
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        int position = offset;
+        int remaining = length;
+        while (remaining > 0) {
+            int chunk = Math.min(remaining, blockSize - blockLength);
+            System.arraycopy(bytes, position, block, blockLength, chunk);
+            blockLength += chunk;
+            position += chunk;
+            remaining -= chunk;
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes out every block that has finished compressing. Deliberately does not cut the current block short, so
+     * that the output stays independent of how often callers flush.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeMember(await(pending.poll()));
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            submitBlock();
+            while (!pending.isEmpty()) {
+                writeMember(await(pending.poll()));
+            }
+            if (membersWritten == 0) {
+                // An empty gzip file is not valid, so emit a single empty member
+                writeMember(compress(new byte[0], 0, level));
+            }
+        } finally {
+            if (ownsExecutor && executor != null) {
+                executor.shutdownNow();
+            }
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        if (blockLength == 0) {
+            return;
+        }
+        byte[] data = block;
+        int length = blockLength;
+        block = new byte[blockSize];
+        blockLength = 0;
+
+        if (executor == null) {
+            writeMember(compress(data, length, level));
+            return;
+        }
+
+        pending.add(executor.submit(() -> compress(data, length, level)));
+        while (pending.size() > maxPendingBlocks) {
+            writeMember(await(pending.poll()));
+        }
+    }
+
+    private void writeMember(byte[] member) throws IOException {
+        out.write(member);
+        membersWritten++;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+    }
+
+    static byte[] compress(byte[] data, int length, int level) throws IOException {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+        try (GZIPOutputStream gzip = new LeveledGzipOutputStream(member, level)) {
+            gzip.write(data, 0, length);
+        }
+        return member.toByteArray();
+    }
+
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+}
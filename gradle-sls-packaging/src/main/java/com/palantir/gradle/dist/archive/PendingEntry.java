@@ -0,0 +1,158 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+import org.gradle.api.file.FileCopyDetails;
+
+/**
+ * A file or directory of an archive, captured from gradle's copy details so that entries can be written in a different
+ * order than gradle visits them. Files are read from disk when written, except for filtered files, which have no file
+ * of their own and are kept in memory.
+ */
+final class PendingEntry {
+    private final String path;
+    private final boolean directory;
+    private final int mode;
+    private final long lastModified;
+    private final long size;
+
+    @Nullable
+    private final File file;
+
+    @Nullable
+    private final byte[] content;
+
+    private PendingEntry(
+            String path,
+            boolean directory,
+            int mode,
+            long lastModified,
+            long size,
+            @Nullable File file,
+            @Nullable byte[] content) {
+        this.path = path;
+        this.directory = directory;
+        this.mode = mode;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.file = file;
+        this.content = content;
+    }
+
+    static PendingEntry of(FileCopyDetails details) {
+        String path = details.getRelativePath().getPathString();
+        if (details.isDirectory()) {
+            return new PendingEntry(path, true, details.getMode(), details.getLastModified(), 0, null, null);
+        }
+        File file = sourceFile(details);
+        if (file != null) {
+            return new PendingEntry(
+                    path, false, details.getMode(), details.getLastModified(), details.getSize(), file, null);
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        details.copyTo(buffer);
+        byte[] bytes = buffer.toByteArray();
+        return new PendingEntry(path, false, details.getMode(), details.getLastModified(), bytes.length, null, bytes);
+    }
+
+    /** A file that is read from disk when it is written, for callers that bypass gradle's copy machinery. */
+    static PendingEntry ofFile(String path, int mode, long lastModified, File file) {
+        return new PendingEntry(path, false, mode, lastModified, file.length(), file, null);
+    }
+
+    /** A file that is generated while writing the archive rather than visited by gradle. */
+    static PendingEntry ofContent(String path, int mode, long lastModified, byte[] content) {
+        return new PendingEntry(path, false, mode, lastModified, content.length, null, content);
+    }
+
+    /** Returns an entry with the same content held in memory, so that it can be written more than once. */
+    PendingEntry buffered() throws IOException {
+        if (directory || content != null) {
+            return this;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        copyTo(buffer);
+        return ofContent(path, mode, lastModified, buffer.toByteArray());
+    }
+
+    /** Path in the archive, without a trailing slash for directories. */
+    String path() {
+        return path;
+    }
+
+    boolean isDirectory() {
+        return directory;
+    }
+
+    int mode() {
+        return mode;
+    }
+
+    long lastModified() {
+        return lastModified;
+    }
+
+    long size() {
+        return size;
+    }
+
+    void copyTo(OutputStream out) throws IOException {
+        if (file != null) {
+            Files.copy(file.toPath(), out);
+        } else if (content != null) {
+            out.write(content);
+        }
+    }
+
+    /** Returns up to {@code length} bytes from the start of the content. */
+    byte[] head(int length) throws IOException {
+        if (content != null) {
+            return Arrays.copyOf(content, Math.min(length, content.length));
+        }
+        if (file == null) {
+            return new byte[0];
+        }
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            return ByteStreams.toByteArray(ByteStreams.limit(in, length));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    @Nullable
+    private static File sourceFile(FileCopyDetails details) {
+        try {
+            // Extracts files from archive trees, whose entries can't be opened once gradle has finished visiting them
+            return details.getFile();
+        } catch (UnsupportedOperationException e) {
+            // Filtered files have no file of their own
+            return null;
+        }
+    }
+}
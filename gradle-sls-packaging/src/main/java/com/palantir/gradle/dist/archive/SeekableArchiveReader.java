@@ -0,0 +1,148 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.io.ByteStreams;
+import com.palantir.gradle.dist.ObjectMappers;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+/**
+ * Reads single files out of a seekable archive, using its {@link ArchiveIndex} to seek straight to the frames of the
+ * file and decompressing nothing else. For example, to read the manifest of a distribution without extracting it:
+ *
+ * <pre>{@code
+ * try (SeekableArchiveReader reader = SeekableArchiveReader.open(archive, indexFile)) {
+ *     byte[] manifest = reader.readEntry("my-service-1.0.0/deployment/manifest.yml");
+ * }
+ * }</pre>
+ *
+ * <p>Readers are not thread safe.
+ */
+public final class SeekableArchiveReader implements Closeable {
+    private final SeekableByteChannel channel;
+    private final ArchiveCompression compression;
+    private final Map<String, ArchiveIndex.Entry> entries;
+
+    public SeekableArchiveReader(SeekableByteChannel channel, ArchiveIndex index) {
+        this.channel = channel;
+        this.compression = ArchiveCompression.fromName(index.compression());
+        this.entries = index.entries().stream()
+                .collect(Collectors.toMap(ArchiveIndex.Entry::path, Function.identity(), (first, second) -> second));
+    }
+
+    public static SeekableArchiveReader open(Path archive, Path indexFile) throws IOException {
+        ArchiveIndex index = ObjectMappers.jsonMapper.readValue(indexFile.toFile(), ArchiveIndex.class);
+        return new SeekableArchiveReader(Files.newByteChannel(archive), index);
+    }
+
+    /** Paths of the files in the archive. */
+    public Set<String> paths() {
+        return entries.keySet();
+    }
+
+    /** Returns the content of the file, which must be read before the next call to this reader. */
+    public InputStream openEntry(String path) throws IOException {
+        ArchiveIndex.Entry entry = entries.get(path);
+        if (entry == null) {
+            throw new SafeIllegalArgumentException("Archive has no such file", SafeArg.of("path", path));
+        }
+        // Hard links have no content of their own, the file they link to has
+        String contentPath = entry.linkTarget() != null ? entry.linkTarget() : path;
+        ArchiveIndex.Entry content = entries.getOrDefault(contentPath, entry);
+        // The only seek, from here on the frames are read sequentially
+        channel.position(content.offset());
+        InputStream frames = new FrameInputStream(channel, content.length());
+        TarArchiveInputStream tar = new TarArchiveInputStream(decompress(frames));
+        TarArchiveEntry tarEntry = tar.getNextTarEntry();
+        if (tarEntry == null || !tarEntry.getName().equals(contentPath)) {
+            throw new SafeIllegalStateException(
+                    "Archive index does not match the archive",
+                    SafeArg.of("path", contentPath),
+                    SafeArg.of("found", tarEntry == null ? null : tarEntry.getName()));
+        }
+        return tar;
+    }
+
+    public byte[] readEntry(String path) throws IOException {
+        try (InputStream content = openEntry(path)) {
+            return ByteStreams.toByteArray(content);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private InputStream decompress(InputStream frames) throws IOException {
+        switch (compression) {
+            case GZIP:
+                // Large files span several gzip members
+                return new GzipCompressorInputStream(frames, true);
+            case ZSTD:
+                return new ZstdInputStream(frames);
+        }
+        throw new IllegalArgumentException("Unknown compression: " + compression);
+    }
+
+    /** Reads up to a number of bytes from the channel, which stays open when the stream is closed. */
+    private static final class FrameInputStream extends InputStream {
+        private final SeekableByteChannel channel;
+        private long remaining;
+
+        FrameInputStream(SeekableByteChannel channel, long length) {
+            this.channel = channel;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, remaining)));
+            if (read == -1) {
+                throw new SafeIllegalStateException("Archive is shorter than its index");
+            }
+            remaining -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.palantir.gradle.dist.ObjectMappers;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+
+/**
+ * Extracts the shards of a {@link ShardManifest} into one directory, each shard on a thread of its own, and then checks
+ * that every file of the manifest is there with its size. Decompressing an archive is bound to a single core, so with
+ * storage that keeps up, extracting takes about as long as the largest shard does on its own. For example:
+ *
+ * <pre>{@code
+ * List<String> problems = ShardExtractor.extract(Paths.get("my-service-1.0.0-shards.json"), Paths.get("/opt"), 8);
+ * }</pre>
+ *
+ * <p>It can also be run from the plugin jar and its dependencies, with
+ * {@code java com.palantir.gradle.dist.archive.ShardExtractor <manifest> <directory> [threads]}.
+ */
+public final class ShardExtractor {
+    private ShardExtractor() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: ShardExtractor <shard manifest> <directory> [threads]");
+            System.exit(2);
+        }
+        int threads = args.length == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        List<String> problems = extract(Paths.get(args[0]), Paths.get(args[1]), threads);
+        problems.forEach(System.err::println);
+        System.exit(problems.isEmpty() ? 0 : 1);
+    }
+
+    public static ShardManifest readManifest(Path manifest) throws IOException {
+        return ObjectMappers.jsonMapper.readValue(manifest.toFile(), ShardManifest.class);
+    }
+
+    /**
+     * Extracts the shards, which are next to {@code manifest}, into {@code directory}, and returns the paths of the
+     * files that are missing or have a different size afterwards, in the order of the manifest. An empty list means
+     * the distribution is complete.
+     */
+    public static List<String> extract(Path manifest, Path directory, int threads) throws IOException {
+        ShardManifest shards = readManifest(manifest);
+        ArchiveCompression compression = ArchiveCompression.fromName(shards.compression());
+        Path shardDirectory = manifest.toAbsolutePath().getParent();
+        Path root = Files.createDirectories(directory).toRealPath();
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder()
+                        .setNameFormat("sls-shards-%d")
+                        .setDaemon(true)
+                        .build());
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (ShardManifest.Shard shard : shards.shards()) {
+                results.add(executor.submit(() -> {
+                    extractShard(shardDirectory.resolve(shard.file()), compression, root);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting shards", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not extract shards", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return verify(shards, root);
+    }
+
+    private static List<String> verify(ShardManifest shards, Path root) throws IOException {
+        List<String> problems = new ArrayList<>();
+        for (ShardManifest.Shard shard : shards.shards()) {
+            for (Map.Entry<String, Long> file : shard.files().entrySet()) {
+                Path path = root.resolve(file.getKey());
+                if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) || Files.size(path) != file.getValue()) {
+                    problems.add(file.getKey());
+                }
+            }
+        }
+        return problems;
+    }
+
+    private static void extractShard(Path shard, ArchiveCompression compression, Path root) throws IOException {
+        try (InputStream in = decompress(compression, new BufferedInputStream(Files.newInputStream(shard)));
+                TarArchiveInputStream tar = new TarArchiveInputStream(in)) {
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextTarEntry()) != null) {
+                Path path = resolve(root, entry.getName());
+                if (entry.isDirectory()) {
+                    // Other shards may have created it already, as the parent of one of their files
+                    Files.createDirectories(path);
+                } else if (entry.isLink()) {
+                    // Links go into the same shard as the file they link to, after it
+                    Files.createDirectories(path.getParent());
+                    Files.deleteIfExists(path);
+                    Files.createLink(path, resolve(root, entry.getLinkName()));
+                    continue;
+                } else if (entry.isFile()) {
+                    Files.createDirectories(path.getParent());
+                    Files.copy(tar, path, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    throw new SafeIllegalStateException(
+                            "Shards only contain files, directories and hard links",
+                            SafeArg.of("shard", shard),
+                            SafeArg.of("path", entry.getName()));
+                }
+                setMode(path, entry.getMode());
+                Files.setLastModifiedTime(path, FileTime.fromMillis(entry.getModTime().getTime()));
+            }
+        }
+    }
+
+    /** Resolves a path of the archive, which must not point outside of {@code root}. */
+    private static Path resolve(Path root, String name) {
+        Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root)) {
+            throw new SafeIllegalStateException("Archive entry is outside of the directory", SafeArg.of("path", name));
+        }
+        return path;
+    }
+
+    private static InputStream decompress(ArchiveCompression compression, InputStream input) throws IOException {
+        switch (compression) {
+            case GZIP:
+                // Parallel gzip writes many members
+                return new GzipCompressorInputStream(input, true);
+            case ZSTD:
+                return new ZstdInputStream(input);
+        }
+        throw new IllegalArgumentException("Unknown compression: " + compression);
+    }
+
+    private static void setMode(Path path, int mode) throws IOException {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] all = PosixFilePermission.values();
+        for (int bit = 0; bit < all.length; bit++) {
+            // OWNER_READ is the most significant of the nine permission bits
+            if ((mode & (1 << (all.length - 1 - bit))) != 0) {
+                permissions.add(all[bit]);
+            }
+        }
+        try {
+            Files.setPosixFilePermissions(path, permissions);
+        } catch (UnsupportedOperationException e) {
+            // Not a posix file system, where files keep the permissions they were created with
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.List;
+import java.util.Map;
+import org.immutables.value.Value;
+
+/**
+ * Describes a distribution that is split into independent archives, which {@link ShardExtractor} extracts at the same
+ * time. Each shard is a complete archive of some of the files, so any tar can extract it on its own, and all of them
+ * together into one directory make up the distribution.
+ */
+@Value.Immutable
+@JsonSerialize(as = ImmutableShardManifest.class)
+@JsonDeserialize(as = ImmutableShardManifest.class)
+public interface ShardManifest {
+    /** The {@link ArchiveCompression#getName() name} of the compression of the shards. */
+    String compression();
+
+    List<Shard> shards();
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    final class Builder extends ImmutableShardManifest.Builder {}
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableShard.class)
+    @JsonDeserialize(as = ImmutableShard.class)
+    interface Shard {
+        /** File name of the shard, which is next to the manifest. */
+        String file();
+
+        /** Total uncompressed size of the files of the shard. */
+        long size();
+
+        /** Size of each file of the shard by its path in the archive, including the root directory. */
+        Map<String, Long> files();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableShard.Builder {}
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.palantir.gradle.dist.ObjectMappers;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import javax.annotation.Nullable;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.tasks.WorkResult;
+import org.gradle.api.tasks.WorkResults;
+
+/**
+ * Writes the tar stream in the same way as gradle's own {@code TarCopyAction}, but through a
+ * {@link ParallelGzipOutputStream} or a multi-threaded zstd stream. Gradle exposes no public API for archive copy
+ * actions, so like {@code GradleWorkarounds} we refer to the internal types by their fully qualified names.
+ *
+ * <p>Entries are collected before anything is written, so that they can be written in {@link EntryOrder}.
+ *
+ * <p>Gzip archives compress {@link CompressedContent already compressed} entries, such as jars, at a level of their
+ * own, usually the fastest, and log how long each class of entry took and how much it shrank.
+ *
+ * <p>{@link Checksums} are computed from the bytes as they are written, or from the hash that the compression cache
+ * needs anyway, so every file is read once. They can only be written once every file is, so their file comes last.
+ *
+ * <p>Files under {@code deployment} can also be written into a config archive of their own in the same pass, from a
+ * single read of each file.
+ *
+ * <p>When {@link ArchiveSettings#hardLinkDuplicates()} is set, files with the same content as an earlier file are
+ * written as hard links to it, see {@link DuplicateEntries}.
+ *
+ * <p>When {@link ArchiveSettings#shardFiles()} are set, the entries are split into several archives instead, see
+ * {@link ArchiveShards}, and the archive file gets a {@link ShardManifest} of them.
+ */
+@SuppressWarnings("UnstableApiUsage")
+final class SlsTarCopyAction implements org.gradle.api.internal.file.copy.CopyAction {
+    private static final Logger log = Logging.getLogger(SlsTarCopyAction.class);
+
+    // Matches gradle's TarCopyAction so that archives are byte-for-byte reproducible in the same way
+    private static final long CONSTANT_TIME_FOR_TAR_ENTRIES = 0;
+
+    // Same as the zstd CLI's --long, and within the window that decompressors accept without extra flags
+    private static final int LONG_WINDOW_LOG = 27;
+
+    // Smaller entries compress faster than their cache entry could be looked up, so they are compressed every time
+    private static final long MIN_CACHED_ENTRY_SIZE = 64 * 1024;
+
+    private static final byte[] ZEROS = new byte[64 * 1024];
+
+    // Directory under the root directory whose files also go into the config archive
+    private static final String CONFIG_DIRECTORY = "deployment/";
+
+    private final File tarFile;
+    private final ArchiveSettings settings;
+
+    @Nullable
+    private final ChecksumCollector checksums;
+
+    private DuplicateEntries duplicates = DuplicateEntries.NONE;
+
+    SlsTarCopyAction(File tarFile, ArchiveSettings settings) {
+        this.tarFile = tarFile;
+        this.settings = settings;
+        this.checksums = settings.checksumsFile().isPresent() ? new ChecksumCollector() : null;
+    }
+
+    @Override
+    public WorkResult execute(org.gradle.api.internal.file.copy.CopyActionProcessingStream stream) {
+        List<PendingEntry> entries = new ArrayList<>();
+        stream.process(details -> entries.add(PendingEntry.of(details)));
+        return write(entries);
+    }
+
+    /** Writes the archive, reordering {@code entries} first unless entries should follow the copy specs. */
+    WorkResult write(List<PendingEntry> entries) {
+        if (settings.manifestFirst()) {
+            EntryOrder.sort(entries);
+        }
+        try {
+            duplicates = settings.hardLinkDuplicates()
+                    ? DuplicateEntries.find(entries, settings.preserveFileTimestamps())
+                    : DuplicateEntries.NONE;
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not create tar file '%s'", tarFile), e);
+        }
+        return settings.shardFiles().isEmpty() ? writeArchive(entries) : writeShards(entries);
+    }
+
+    /** Writes the entries in the order they are in, linking the {@link #duplicates}. */
+    private WorkResult writeArchive(List<PendingEntry> entries) {
+        ChunkIndex chunkIndex = null;
+        ArchiveIndex.Builder archiveIndex = settings.archiveIndexFile().isPresent()
+                ? ArchiveIndex.builder().compression(settings.compression().getName())
+                : null;
+        // Shared by the frames of a seekable gzip archive, every other stream manages its own threads
+        ExecutorService frameExecutor = archiveIndex != null && settings.compression() == ArchiveCompression.GZIP
+                ? ParallelGzipOutputStream.newExecutor(settings.threads())
+                : null;
+        CompressionReport report = new CompressionReport();
+        long start = System.nanoTime();
+        try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(tarFile.toPath()));
+                OutputStream compressed = compress(fileOut, frameExecutor);
+                TarArchiveOutputStream configTar = openConfigArchive()) {
+            // Sees the uncompressed stream, so the index is built in the same pass as the archive
+            ChunkingOutputStream chunker =
+                    settings.chunkIndexFile().isPresent() ? new ChunkingOutputStream(compressed) : null;
+            // Closing the compressed stream is enough, as everything up to the end of the archive is already written
+            TarArchiveOutputStream tar = new TarArchiveOutputStream(chunker != null ? chunker : compressed);
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            for (PendingEntry entry : entries) {
+                PendingEntry target = duplicates.targetOf(entry);
+                if (configTar != null && isConfigEntry(entry)) {
+                    // Read once, and write the same bytes into both archives
+                    PendingEntry buffered = entry.buffered();
+                    writeConfigEntry(configTar, buffered);
+                    if (target != null) {
+                        writeLink(tar, compressed, archiveIndex, entry, target);
+                    } else {
+                        writeEntry(tar, compressed, archiveIndex, report, buffered);
+                    }
+                } else if (target != null) {
+                    writeLink(tar, compressed, archiveIndex, entry, target);
+                } else {
+                    writeEntry(tar, compressed, archiveIndex, report, entry);
+                }
+            }
+            if (checksums != null) {
+                Optional<PendingEntry> checksumsEntry = checksums.toEntry();
+                if (checksumsEntry.isPresent()) {
+                    writeEntry(tar, compressed, archiveIndex, report, checksumsEntry.get());
+                }
+            }
+            tar.finish();
+            if (configTar != null) {
+                configTar.finish();
+            }
+            if (chunker != null) {
+                chunkIndex = chunker.finish();
+            }
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not create tar file '%s'", tarFile), e);
+        } finally {
+            if (frameExecutor != null) {
+                frameExecutor.shutdownNow();
+            }
+        }
+        if (settings.compression() == ArchiveCompression.GZIP && archiveIndex == null) {
+            log.info("Compressed {}: {}", tarFile, report.summary(tarFile.length(), System.nanoTime() - start));
+        }
+        if (duplicates.size() > 0) {
+            log.info("Wrote {} duplicate files of {} as hard links", duplicates.size(), tarFile);
+        }
+        if (chunkIndex != null) {
+            writeIndex(settings.chunkIndexFile().get(), chunkIndex);
+        }
+        if (archiveIndex != null) {
+            writeIndex(settings.archiveIndexFile().get(), archiveIndex.build());
+        }
+        if (checksums != null) {
+            writeIndex(settings.checksumsFile().get(), checksums.build());
+        }
+        return WorkResults.didWork(true);
+    }
+
+    /**
+     * Writes the entries into {@link ArchiveSettings#shardFiles() shards} of about the same size, each an archive of
+     * its own with the same settings but without indexes, checksums or a config archive, and a {@link ShardManifest}
+     * of them into the archive file. Duplicates go into the shard of the file they link to, so every shard extracts on
+     * its own.
+     */
+    private WorkResult writeShards(List<PendingEntry> entries) {
+        ArchiveSettings shardSettings = ArchiveSettings.builder()
+                .from(settings)
+                .shardFiles(ImmutableList.of())
+                .chunkIndexFile(Optional.empty())
+                .archiveIndexFile(Optional.empty())
+                .checksumsFile(Optional.empty())
+                .configArchiveFile(Optional.empty())
+                .build();
+        ShardManifest.Builder manifest = ShardManifest.builder().compression(settings.compression().getName());
+        List<List<PendingEntry>> shards = ArchiveShards.split(entries, settings.shardFiles().size(), duplicates);
+        for (int index = 0; index < shards.size(); index++) {
+            File shardFile = settings.shardFiles().get(index);
+            List<PendingEntry> shardEntries = shards.get(index);
+            SlsTarCopyAction shardAction = new SlsTarCopyAction(shardFile, shardSettings);
+            shardAction.duplicates = duplicates;
+            shardAction.writeArchive(shardEntries);
+            ShardManifest.Shard.Builder shard = ShardManifest.Shard.builder().file(shardFile.getName());
+            long size = 0;
+            for (PendingEntry entry : shardEntries) {
+                if (!entry.isDirectory()) {
+                    shard.putFiles(entry.path(), entry.size());
+                    size += entry.size();
+                }
+            }
+            manifest.addShards(shard.size(size).build());
+        }
+        writeIndex(tarFile, manifest.build());
+        return WorkResults.didWork(true);
+    }
+
+    private void writeEntry(
+            TarArchiveOutputStream tar,
+            OutputStream compressed,
+            @Nullable ArchiveIndex.Builder archiveIndex,
+            CompressionReport report,
+            PendingEntry entry) {
+        if (entry.isDirectory()) {
+            writeDirectory(tar, entry);
+        } else if (archiveIndex != null) {
+            writeFramedFile(tar, (FramedOutputStream) compressed, archiveIndex, entry);
+        } else if (compressed instanceof CachingGzipOutputStream) {
+            writeSegmentedFile(tar, (CachingGzipOutputStream) compressed, entry, report);
+        } else {
+            writeFile(tar, entry);
+        }
+    }
+
+    @Nullable
+    private TarArchiveOutputStream openConfigArchive() throws IOException {
+        if (!settings.configArchiveFile().isPresent()) {
+            return null;
+        }
+        OutputStream fileOut =
+                new BufferedOutputStream(Files.newOutputStream(settings.configArchiveFile().get().toPath()));
+        // Config files are few and small, so a single thread compresses them as fast as a pool could start
+        OutputStream compressed = settings.compression() == ArchiveCompression.GZIP
+                ? new ParallelGzipOutputStream(fileOut, settings.compressionLevel(), settings.blockSize(), 1)
+                : zstd(fileOut);
+        TarArchiveOutputStream configTar = new TarArchiveOutputStream(compressed);
+        configTar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        configTar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        return configTar;
+    }
+
+    /** Whether the entry is under {@code deployment} of the root directory, but not the directory itself. */
+    static boolean isConfigEntry(PendingEntry entry) {
+        int rootEnd = entry.path().indexOf('/');
+        return rootEnd > 0 && entry.path().startsWith(CONFIG_DIRECTORY, rootEnd + 1);
+    }
+
+    private void writeConfigEntry(TarArchiveOutputStream configTar, PendingEntry entry) {
+        try {
+            configTar.putArchiveEntry(entry.isDirectory() ? directoryEntry(entry) : fileEntry(entry));
+            entry.copyTo(configTar);
+            configTar.closeArchiveEntry();
+        } catch (IOException e) {
+            throw new GradleException(
+                    String.format("Could not add %s to tar file '%s'", entry, settings.configArchiveFile().get()), e);
+        }
+    }
+
+    private static void writeIndex(File indexFile, Object index) {
+        try {
+            ObjectMappers.jsonMapper.writeValue(indexFile, index);
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not write index '%s'", indexFile), e);
+        }
+    }
+
+    private OutputStream compress(OutputStream out, @Nullable ExecutorService frameExecutor) throws IOException {
+        if (settings.archiveIndexFile().isPresent()) {
+            return new FramedOutputStream(out, frameCompressor(frameExecutor));
+        }
+        switch (settings.compression()) {
+            case GZIP:
+                return new CachingGzipOutputStream(
+                        out,
+                        settings.cacheDirectory().map(File::toPath).orElse(null),
+                        settings.compressionLevel(),
+                        settings.blockSize(),
+                        settings.threads());
+            case ZSTD:
+                return zstd(out);
+        }
+        throw new IllegalArgumentException("Unknown compression: " + settings.compression());
+    }
+
+    private FramedOutputStream.FrameCompressor frameCompressor(@Nullable ExecutorService executor) {
+        switch (settings.compression()) {
+            case GZIP:
+                return sink -> new ParallelGzipOutputStream(
+                        sink, settings.compressionLevel(), settings.blockSize(), settings.threads(), executor);
+            case ZSTD:
+                return this::zstd;
+        }
+        throw new IllegalArgumentException("Unknown compression: " + settings.compression());
+    }
+
+    private OutputStream zstd(OutputStream out) throws IOException {
+        ZstdOutputStream zstd = new ZstdOutputStream(out, settings.compressionLevel());
+        // Any number of workers produces the same frames, unlike single threaded mode (0 workers)
+        zstd.setWorkers(settings.threads());
+        zstd.setChecksum(true);
+        if (settings.longWindow()) {
+            zstd.setLong(LONG_WINDOW_LOG);
+        }
+        return zstd;
+    }
+
+    /** Writes the file into frames of its own, which can be found through the archive index. */
+    private void writeFramedFile(
+            TarArchiveOutputStream tar,
+            FramedOutputStream framed,
+            ArchiveIndex.Builder archiveIndex,
+            PendingEntry entry) {
+        try {
+            long offset = framed.endFrame();
+            writeFile(tar, entry);
+            // Each complete record is passed straight through, so the frames hold all of the entry
+            long end = framed.endFrame();
+            archiveIndex.addEntries(ArchiveIndex.Entry.builder()
+                    .path(entry.path())
+                    .offset(offset)
+                    .length(end - offset)
+                    .size(entry.size())
+                    .build());
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not add %s to tar file '%s'", entry, tarFile), e);
+        }
+    }
+
+    /**
+     * Writes a hard link to an earlier file with the same content, which holds no content of its own. In a seekable
+     * archive it gets frames of its own all the same, and its index entry names the file whose frames hold the content.
+     */
+    private void writeLink(
+            TarArchiveOutputStream tar,
+            OutputStream compressed,
+            @Nullable ArchiveIndex.Builder archiveIndex,
+            PendingEntry entry,
+            PendingEntry target) {
+        try {
+            long offset = archiveIndex != null ? ((FramedOutputStream) compressed).endFrame() : 0;
+            TarArchiveEntry link = new TarArchiveEntry(entry.path(), TarConstants.LF_LINK);
+            link.setLinkName(target.path());
+            link.setModTime(archiveTimeFor(entry));
+            link.setMode(UnixStat.FILE_FLAG | entry.mode());
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+            if (archiveIndex != null) {
+                long end = ((FramedOutputStream) compressed).endFrame();
+                archiveIndex.addEntries(ArchiveIndex.Entry.builder()
+                        .path(entry.path())
+                        .offset(offset)
+                        .length(end - offset)
+                        .size(entry.size())
+                        .linkTarget(target.path())
+                        .build());
+            }
+            if (checksums != null) {
+                checksums.add(entry, duplicates.hashOf(entry));
+            }
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not add %s to tar file '%s'", entry, tarFile), e);
+        }
+    }
+
+    private void writeFile(TarArchiveOutputStream tar, PendingEntry entry) {
+        try {
+            tar.putArchiveEntry(fileEntry(entry));
+            copyContent(entry, tar);
+            tar.closeArchiveEntry();
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not add %s to tar file '%s'", entry, tarFile), e);
+        }
+    }
+
+    /**
+     * Compresses the content and padding of already compressed and of large entries into gzip members of their own,
+     * at {@link ArchiveSettings#compressedEntryLevel()} for the former, and copies those of large entries from the
+     * cache when it has them. The header is compressed along with the preceding entries, so the cache only depends on
+     * the content and is shared between entries with different names, modes or timestamps. Small entries that are not
+     * already compressed are compressed along with their neighbours.
+     */
+    private void writeSegmentedFile(
+            TarArchiveOutputStream tar,
+            CachingGzipOutputStream segments,
+            PendingEntry entry,
+            CompressionReport report) {
+        try {
+            boolean alreadyCompressed = CompressedContent.isCompressed(entry);
+            if (!alreadyCompressed && entry.size() < MIN_CACHED_ENTRY_SIZE) {
+                writeFile(tar, entry);
+                report.addOther(entry.size());
+                return;
+            }
+            // Each complete record is passed straight through, so the header is out before the segment starts
+            tar.putArchiveEntry(fileEntry(entry));
+            segments.endRun();
+            long start = System.nanoTime();
+            HashCode contentHash = settings.cacheDirectory().isPresent() && entry.size() >= MIN_CACHED_ENTRY_SIZE
+                    ? cachedHash(entry)
+                    : null;
+            if (contentHash != null && checksums != null) {
+                checksums.add(entry, contentHash);
+            }
+            int level = alreadyCompressed ? settings.compressedEntryLevel() : settings.compressionLevel();
+            if (segments.startSegment(contentHash, level) && !settings.chunkIndexFile().isPresent()) {
+                // The cached members are already written, only move the tar stream along to the end of the entry
+                for (long remaining = entry.size(); remaining > 0; remaining -= ZEROS.length) {
+                    tar.write(ZEROS, 0, (int) Math.min(remaining, ZEROS.length));
+                }
+            } else if (contentHash != null) {
+                // On a cache hit these bytes are discarded, but the chunk index still needs to see them
+                entry.copyTo(tar);
+            } else {
+                copyContent(entry, tar);
+            }
+            tar.closeArchiveEntry();
+            segments.endSegment();
+            if (alreadyCompressed) {
+                report.addCompressed(entry.size(), segments.lastSegmentSize(), System.nanoTime() - start);
+            } else {
+                report.addOther(entry.size());
+            }
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not add %s to tar file '%s'", entry, tarFile), e);
+        }
+    }
+
+    /** Copies the content of the entry, and when checksums are enabled hashes it along the way. */
+    private void copyContent(PendingEntry entry, OutputStream out) throws IOException {
+        if (checksums == null) {
+            entry.copyTo(out);
+            return;
+        }
+        HashingOutputStream hashing = new HashingOutputStream(Hashing.sha256(), out);
+        entry.copyTo(hashing);
+        checksums.add(entry, hashing.hash());
+    }
+
+    /** Hashes the entry, unless looking for duplicates already did. */
+    private HashCode cachedHash(PendingEntry entry) throws IOException {
+        HashCode hash = duplicates.hashOf(entry);
+        return hash != null ? hash : hash(entry);
+    }
+
+    private static HashCode hash(PendingEntry entry) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        entry.copyTo(Funnels.asOutputStream(hasher));
+        return hasher.hash();
+    }
+
+    private TarArchiveEntry fileEntry(PendingEntry entry) {
+        TarArchiveEntry tarEntry = new TarArchiveEntry(entry.path());
+        tarEntry.setModTime(archiveTimeFor(entry));
+        tarEntry.setSize(entry.size());
+        tarEntry.setMode(UnixStat.FILE_FLAG | entry.mode());
+        return tarEntry;
+    }
+
+    private TarArchiveEntry directoryEntry(PendingEntry entry) {
+        TarArchiveEntry tarEntry = new TarArchiveEntry(entry.path() + '/');
+        tarEntry.setModTime(archiveTimeFor(entry));
+        tarEntry.setMode(UnixStat.DIR_FLAG | entry.mode());
+        return tarEntry;
+    }
+
+    private void writeDirectory(TarArchiveOutputStream tar, PendingEntry entry) {
+        try {
+            tar.putArchiveEntry(directoryEntry(entry));
+            tar.closeArchiveEntry();
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not add %s to tar file '%s'", entry, tarFile), e);
+        }
+    }
+
+    private long archiveTimeFor(PendingEntry entry) {
+        return settings.preserveFileTimestamps() ? entry.lastModified() : CONSTANT_TIME_FOR_TAR_ENTRIES;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive;
+
+import com.google.common.collect.ImmutableList;
+import com.palantir.gradle.dist.BaseDistributionExtension;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.WorkResults;
+import org.gradle.api.tasks.bundling.Compression;
+import org.gradle.api.tasks.bundling.Tar;
+
+/**
+ * A {@link Tar} which compresses its output on multiple threads, either as gzip (see
+ * {@link ParallelGzipOutputStream}) or as zstd depending on {@link #getArchiveCompression()}. Setting the stock
+ * {@link #setCompression tar compression} to anything other than {@link Compression#GZIP} falls back to the stock
+ * {@link Tar} behaviour.
+ */
+public abstract class SlsTarTask extends Tar {
+    /** Large enough that splitting the stream costs well under 0.1% of compression ratio. */
+    public static final int DEFAULT_COMPRESSION_BLOCK_SIZE = 1024 * 1024;
+
+    private static final String COMPRESSION_CACHE_DIR = "sls-compression-cache";
+
+    @SuppressWarnings("PublicConstructorForAbstractClass")
+    public SlsTarTask() {
+        // Set compression in constructor so that task output has the right name from the start.
+        setCompression(Compression.GZIP);
+        getArchiveCompression().convention(ArchiveCompression.GZIP);
+        getArchiveExtension().set(getArchiveCompression().map(ArchiveCompression::getFileExtension));
+        getCompressionLongWindow().convention(false);
+        getCompressedEntryLevel().convention(Deflater.BEST_SPEED);
+        getCompressionThreads().convention(Runtime.getRuntime().availableProcessors());
+        getCompressionBlockSize().convention(DEFAULT_COMPRESSION_BLOCK_SIZE);
+        getManifestFirst().convention(true);
+        getShardExtension().convention(getArchiveCompression().map(ArchiveCompression::getFileExtension));
+        getHardLinkDuplicates().convention(false);
+    }
+
+    @Input
+    public abstract Property<ArchiveCompression> getArchiveCompression();
+
+    /** Compression level, defaults to the {@link ArchiveCompression#getDefaultLevel() default} of the format. */
+    @Input
+    @Optional
+    public abstract Property<Integer> getCompressionLevel();
+
+    /**
+     * Gzip level for entries that are already compressed, such as jars, zips, gzipped files and images. Deflating
+     * them again saves a percent or two at most, so defaults to {@link Deflater#BEST_SPEED}; use
+     * {@link Deflater#NO_COMPRESSION} to store them as they are, or the compression level to treat them like any other
+     * entry. Ignored for zstd, which detects incompressible data by itself, and for seekable archives.
+     */
+    @Input
+    public abstract Property<Integer> getCompressedEntryLevel();
+
+    /** Enables zstd long distance matching. Ignored for gzip. */
+    @Input
+    public abstract Property<Boolean> getCompressionLongWindow();
+
+    /** Number of threads used to compress the archive. Does not affect the archive contents. */
+    @Internal
+    public abstract Property<Integer> getCompressionThreads();
+
+    /** Size in bytes of the uncompressed blocks that are gzipped independently. Ignored for zstd. */
+    @Input
+    public abstract Property<Integer> getCompressionBlockSize();
+
+    /**
+     * Writes {@code deployment/manifest.yml} first, followed by the launcher configuration, the rest of
+     * {@code deployment}, the scripts, everything else, and finally the jars from smallest to largest, so that
+     * streaming consumers can validate a deployment before reading the whole archive. Defaults to true; when false,
+     * entries are written in the order of the copy specs.
+     */
+    @Input
+    public abstract Property<Boolean> getManifestFirst();
+
+    /**
+     * Writes files whose content, mode and timestamp are those of an earlier file as hard links to it, which take a
+     * header rather than a copy of the content in the archive, and extract to a single file on disk. Defaults to
+     * false. Ignored when falling back to the stock {@link Tar} behaviour.
+     */
+    @Input
+    public abstract Property<Boolean> getHardLinkDuplicates();
+
+    /**
+     * Directory in which the gzipped content of large entries is kept, so that later builds copy it instead of
+     * compressing unchanged files again. Caching is disabled when unset, and is not used for zstd.
+     */
+    @Internal
+    public abstract DirectoryProperty getCompressionCacheDirectory();
+
+    /**
+     * Where to write a {@link ChunkIndex} of the uncompressed tar stream, which is built while the archive is written.
+     * No index is written when unset.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getChunkIndexFile();
+
+    /**
+     * Where to write an {@link ArchiveIndex}. When set, the archive is seekable: every file is compressed into frames
+     * of its own, which {@link SeekableArchiveReader} decompresses without reading the rest of the archive. The
+     * archive stays a valid gzip or zstd file, though slightly larger, and the compression cache is not used.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getArchiveIndexFile();
+
+    /**
+     * Where to write the SHA-256 {@link Checksums} of every file, which are computed while the archive is written.
+     * When set, they are also added to the archive as {@value Checksums#PATH} under the root directory, after every
+     * other file, so that {@link ChecksumVerifier} can check an extracted distribution. Nothing is written when unset.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getChecksumsFile();
+
+    /**
+     * Where to also write the files under {@code deployment} of the root directory, as an archive of their own with
+     * the same compression, in the order and with the paths they have in this archive. Each file is read once for both
+     * archives, which is how the config archive of {@code configTar} is written when single pass archives are enabled.
+     * Nothing is written when unset. Ignored when falling back to the stock {@link Tar} behaviour.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getConfigArchiveFile();
+
+    /**
+     * An archive of the same files that another task already wrote, such as the {@link #getConfigArchiveFile() config
+     * archive} of {@code distTar}, which is copied to the archive file instead of archiving the files again. The files
+     * are archived when unset.
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getPrebuiltArchiveFile();
+
+    /**
+     * Splits the files into this many archives of about the same uncompressed size, which can be extracted at the same
+     * time, see {@link ShardExtractor}. They are written next to the archive file, named like it with {@code -1},
+     * {@code -2} and so on before {@link #getShardExtension()}, and the archive file gets a {@link ShardManifest} of
+     * them instead of the files. Indexes, checksums and the config archive are not written for sharded archives, and
+     * nothing is sharded when unset. Ignored when falling back to the stock {@link Tar} behaviour.
+     */
+    @Input
+    @Optional
+    public abstract Property<Integer> getShardCount();
+
+    /** Extension of the shards, defaults to the {@link ArchiveCompression#getFileExtension() compression's}. */
+    @Input
+    public abstract Property<String> getShardExtension();
+
+    /** The shards that the files are split into, or none if {@link #getShardCount()} is unset. */
+    @OutputFiles
+    public final FileCollection getShardFiles() {
+        return getProject().files((Callable<List<File>>) this::shardFiles);
+    }
+
+    /**
+     * Takes the compression settings from the {@code distribution} extension, and caches compressed entries in the
+     * root project so that services sharing dependencies also share their compressed form.
+     */
+    public static void configureCompression(SlsTarTask task, BaseDistributionExtension extension) {
+        task.getArchiveCompression().set(extension.getCompression());
+        task.getCompressionLevel().set(extension.getCompressionLevel());
+        task.getCompressionLongWindow().set(extension.getCompressionLongWindow());
+        configureCompressionCache(task);
+    }
+
+    /** Caches compressed entries in the root project, where every archive of the build shares them. */
+    public static void configureCompressionCache(SlsTarTask task) {
+        task.getCompressionCacheDirectory()
+                .set(task.getProject().getRootProject().getLayout().getBuildDirectory().dir(COMPRESSION_CACHE_DIR));
+    }
+
+    @Override
+    @SuppressWarnings("UnstableApiUsage")
+    protected final org.gradle.api.internal.file.copy.CopyAction createCopyAction() {
+        if (getPrebuiltArchiveFile().isPresent()) {
+            Path prebuilt = getPrebuiltArchiveFile().get().getAsFile().toPath();
+            Path archive = getArchiveFile().get().getAsFile().toPath();
+            return _stream -> {
+                try {
+                    Files.copy(prebuilt, archive, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    throw new GradleException(String.format("Could not copy '%s' to '%s'", prebuilt, archive), e);
+                }
+                return WorkResults.didWork(true);
+            };
+        }
+        if (getCompression() != Compression.GZIP) {
+            return super.createCopyAction();
+        }
+        ArchiveCompression compression = getArchiveCompression().get();
+        return new SlsTarCopyAction(
+                getArchiveFile().get().getAsFile(),
+                ArchiveSettings.builder()
+                        .compression(compression)
+                        .compressionLevel(getCompressionLevel().getOrElse(compression.getDefaultLevel()))
+                        .compressedEntryLevel(getCompressedEntryLevel().get())
+                        .longWindow(getCompressionLongWindow().get())
+                        .blockSize(getCompressionBlockSize().get())
+                        .threads(getCompressionThreads().get())
+                        .preserveFileTimestamps(isPreserveFileTimestamps())
+                        .manifestFirst(getManifestFirst().get())
+                        .hardLinkDuplicates(getHardLinkDuplicates().get())
+                        .cacheDirectory(java.util.Optional.ofNullable(
+                                getCompressionCacheDirectory().getAsFile().getOrNull()))
+                        .chunkIndexFile(java.util.Optional.ofNullable(
+                                getChunkIndexFile().getAsFile().getOrNull()))
+                        .archiveIndexFile(java.util.Optional.ofNullable(
+                                getArchiveIndexFile().getAsFile().getOrNull()))
+                        .checksumsFile(java.util.Optional.ofNullable(
+                                getChecksumsFile().getAsFile().getOrNull()))
+                        .configArchiveFile(java.util.Optional.ofNullable(
+                                getConfigArchiveFile().getAsFile().getOrNull()))
+                        .shardFiles(shardFiles())
+                        .build());
+    }
+
+    private List<File> shardFiles() {
+        if (!getShardCount().isPresent()) {
+            return ImmutableList.of();
+        }
+        int count = getShardCount().get();
+        if (count < 1) {
+            throw new GradleException(
+                    String.format("Archives need at least one shard, but %s has %d", getName(), count));
+        }
+        File archive = getArchiveFile().get().getAsFile();
+        String extension = getArchiveExtension().getOrElse("");
+        String baseName = archive.getName()
+                .substring(0, archive.getName().length() - (extension.isEmpty() ? 0 : extension.length() + 1));
+        return IntStream.rangeClosed(1, count)
+                .mapToObj(index -> new File(
+                        archive.getParentFile(), baseName + "-" + index + "." + getShardExtension().get()))
+                .collect(ImmutableList.toImmutableList());
+    }
+}
@@ -18,6 +18,7 @@ package com.palantir.gradle.dist.asset;
 
 import com.palantir.gradle.dist.ProductDependencyIntrospectionPlugin;
 import com.palantir.gradle.dist.SlsBaseDistPlugin;
+import com.palantir.gradle.dist.archive.SlsTarTask;
 import com.palantir.gradle.dist.service.JavaServiceDistributionPlugin;
 import com.palantir.gradle.dist.tasks.ConfigTarTask;
 import com.palantir.gradle.dist.tasks.CreateManifestTask;
@@ -28,8 +29,6 @@ import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.DuplicatesStrategy;
 import org.gradle.api.tasks.TaskProvider;
-import org.gradle.api.tasks.bundling.Compression;
-import org.gradle.api.tasks.bundling.Tar;
 
 public final class AssetDistributionPlugin implements Plugin<Project> {
     public static final String GROUP_NAME = "Distribution";
@@ -60,14 +59,18 @@ public final class AssetDistributionPlugin implements Plugin<Project> {
         TaskProvider<CreateManifestTask> manifest =
                 CreateManifestTask.createManifestTask(project, distributionExtension);
 
-        TaskProvider<Tar> distTar = project.getTasks().register("distTar", Tar.class, task -> {
+        TaskProvider<SlsTarTask> distTar = project.getTasks().register("distTar", SlsTarTask.class, task -> {
             task.setGroup(AssetDistributionPlugin.GROUP_NAME);
-            task.setDescription("Creates a compressed, gzipped tar file that contains required static assets.");
-            task.setCompression(Compression.GZIP);
+            task.setDescription("Creates a compressed tar file that contains required static assets.");
             task.getArchiveBaseName().set(distributionExtension.getDistributionServiceName());
             task.getArchiveVersion()
                     .set(project.provider(() -> project.getVersion().toString()));
-            task.getArchiveExtension().set("sls.tgz");
+            SlsTarTask.configureCompression(task, distributionExtension);
+            task.getHardLinkDuplicates().set(distributionExtension.getEnableHardLinkDuplicates());
+            task.getArchiveExtension()
+                    .set(distributionExtension
+                            .getCompression()
+                            .map(compression -> "sls." + compression.getFileExtension()));
             task.getDestinationDirectory()
                     .set(project.getLayout().getBuildDirectory().dir("distributions"));
             task.setDuplicatesStrategy(DuplicatesStrategy.FAIL);
@@ -99,9 +102,12 @@ public final class AssetDistributionPlugin implements Plugin<Project> {
                     }));
         }));
 
-        TaskProvider<Tar> configTar = ConfigTarTask.createConfigTarTask(project, distributionExtension);
+        TaskProvider<SlsTarTask> configTar = ConfigTarTask.createConfigTarTask(project, distributionExtension);
         configTar.configure(task -> task.dependsOn(manifest));
 
+        SlsBaseDistPlugin.configureCompressionAttribute(project, distributionExtension);
         project.getArtifacts().add(SlsBaseDistPlugin.SLS_CONFIGURATION_NAME, distTar);
+        SlsBaseDistPlugin.configureIndexes(project, distTar, distributionExtension);
+        ConfigTarTask.configureSinglePass(project, distributionExtension, configTar, distTar);
     }
 }
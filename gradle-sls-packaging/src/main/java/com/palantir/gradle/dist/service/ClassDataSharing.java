@@ -0,0 +1,83 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+import javax.inject.Inject;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+
+/**
+ * How {@code trainClassDataSharing} runs the service to record the classes it loads at startup. The training run uses
+ * the JVM options, classpath and environment of {@code launcher-static.yml}, with the {@link #trainingArgs} in place
+ * of the service's args, from a copy of the installed distribution.
+ */
+public class ClassDataSharing {
+    private final ListProperty<String> trainingArgs;
+    private final DirectoryProperty trainingJavaHome;
+    private final Property<Duration> trainingTimeout;
+
+    @Inject
+    public ClassDataSharing(ObjectFactory objectFactory) {
+        trainingArgs = objectFactory.listProperty(String.class).empty();
+        trainingJavaHome = objectFactory.directoryProperty().fileValue(new File(System.getProperty("java.home")));
+        trainingTimeout = objectFactory.property(Duration.class).value(Duration.ofMinutes(5));
+    }
+
+    public final Provider<List<String>> getTrainingArgs() {
+        return trainingArgs;
+    }
+
+    /**
+     * The args of the training run, which should load the classes that the service loads when it starts and serves
+     * its first requests, and then exit.
+     */
+    public final void trainingArgs(String... newTrainingArgs) {
+        this.trainingArgs.addAll(newTrainingArgs);
+    }
+
+    public final Provider<Directory> getTrainingJavaHome() {
+        return trainingJavaHome;
+    }
+
+    /**
+     * The java runtime of the training run, which defaults to the one running gradle. The JVM only uses an archive
+     * written by the same build of java, so this should be the java runtime that the service runs on. With a
+     * {@link JavaServiceDistributionExtension#jlinkRuntime jlink runtime}, the training runs on that instead.
+     */
+    public final void trainingJavaHome(File newTrainingJavaHome) {
+        this.trainingJavaHome.set(newTrainingJavaHome);
+    }
+
+    public final Provider<Duration> getTrainingTimeout() {
+        return trainingTimeout;
+    }
+
+    /**
+     * How long the training run may take before it is stopped with {@code SIGTERM}, which still writes the archive as
+     * the JVM exits. Defaults to 5 minutes.
+     */
+    public final void trainingTimeout(Duration newTrainingTimeout) {
+        this.trainingTimeout.set(newTrainingTimeout);
+    }
+}
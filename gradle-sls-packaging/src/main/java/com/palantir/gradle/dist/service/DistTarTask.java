@@ -16,10 +16,18 @@
 
 package com.palantir.gradle.dist.service;
 
+import com.google.common.collect.ImmutableList;
+import com.palantir.gradle.dist.service.tasks.LaunchConfigTask;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import javax.annotation.Nullable;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.component.ProjectComponentIdentifier;
 import org.gradle.api.file.DuplicatesStrategy;
-import org.gradle.api.provider.Provider;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.tasks.AbstractCopyTask;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.bundling.Jar;
 import org.gradle.api.tasks.bundling.Tar;
@@ -30,47 +38,199 @@ final class DistTarTask {
             Tar distTarTask,
             JavaServiceDistributionExtension distributionExtension,
             TaskProvider<Jar> jarTask) {
-        Provider<String> serviceName = distributionExtension.getDistributionServiceName();
-        distTarTask.getArchiveBaseName().set(serviceName);
+        distTarTask.getArchiveBaseName().set(distributionExtension.getDistributionServiceName());
+        configureLayers(
+                project, distTarTask, distributionExtension, jarTask, EnumSet.allOf(DistributionLayer.class), null);
+    }
+
+    /** Configures a copy task with the same layout as the distribution tar. */
+    static void configureInstall(
+            Project project,
+            AbstractCopyTask installTask,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask) {
+        configureLayers(
+                project, installTask, distributionExtension, jarTask, EnumSet.allOf(DistributionLayer.class), null);
+    }
+
+    /** Configures a tar with only the files of the given layer of the distribution. */
+    static void configureLayer(
+            Project project,
+            Tar layerTarTask,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask,
+            DistributionLayer layer) {
+        layerTarTask.getArchiveBaseName().set(distributionExtension.getDistributionServiceName());
+        layerTarTask.getArchiveClassifier().set(layer.getName());
+        configureLayers(project, layerTarTask, distributionExtension, jarTask, EnumSet.of(layer), null);
+    }
+
+    /**
+     * Configures a tar with everything but the third-party jars, which are in the {@link LibraryPool} instead, and with
+     * the launcher configuration of {@code thinLaunchConfig}, whose classpath points into the pool.
+     */
+    static void configureThin(
+            Project project,
+            Tar thinTarTask,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask,
+            TaskProvider<LaunchConfigTask> thinLaunchConfig) {
+        thinTarTask.getArchiveBaseName().set(distributionExtension.getDistributionServiceName());
+        thinTarTask.getArchiveClassifier().set(JavaServiceDistributionPlugin.THIN_DISTRIBUTION_VARIANT);
+        configureLayers(
+                project,
+                thinTarTask,
+                distributionExtension,
+                jarTask,
+                EnumSet.of(DistributionLayer.PROJECT, DistributionLayer.APPLICATION),
+                thinLaunchConfig);
+    }
+
+    /**
+     * Configures a copy task with the layout of the distribution, but with the launcher configuration of
+     * {@code trainingLaunchConfig} and without the class data sharing archive that the copy is installed to train.
+     */
+    static void configureTrainingInstall(
+            Project project,
+            AbstractCopyTask installTask,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask,
+            TaskProvider<LaunchConfigTask> trainingLaunchConfig) {
+        configureLayers(
+                project,
+                installTask,
+                distributionExtension,
+                jarTask,
+                EnumSet.allOf(DistributionLayer.class),
+                trainingLaunchConfig);
+    }
+
+    /** Third-party jars of {@code runtimeClasspath}, which thin distributions load from the {@link LibraryPool}. */
+    static FileCollection dependencyJars(Project project) {
+        return project.files(runtimeClasspath(project, DistributionLayer.DEPENDENCIES));
+    }
+
+    /** Jars of the other projects on {@code runtimeClasspath}, which are kept whole by tree shaking. */
+    static FileCollection projectJars(Project project) {
+        return project.files(runtimeClasspath(project, DistributionLayer.PROJECT));
+    }
+
+    /** The jars of the project layer, before they are repacked. */
+    static List<Object> projectLibs(Project project, TaskProvider<Jar> jarTask) {
+        return ImmutableList.of(jarTask, runtimeClasspath(project, DistributionLayer.PROJECT));
+    }
+
+    /** The jars of the dependencies layer, tree shaken and merged if enabled, before they are repacked. */
+    static Object dependencyLibs(Project project, JavaServiceDistributionExtension distributionExtension) {
+        return distributionExtension.getEnableJarMerging().get()
+                ? project.getTasks().named(JavaServiceDistributionPlugin.MERGE_DEPENDENCY_JARS_TASK_NAME)
+                : unmergedDependencyLibs(project, distributionExtension);
+    }
+
+    /** The jars of the dependencies layer, tree shaken if enabled, before they are merged. */
+    static Object unmergedDependencyLibs(Project project, JavaServiceDistributionExtension distributionExtension) {
+        return distributionExtension.getEnableTreeShaking().get()
+                ? project.getTasks().named(JavaServiceDistributionPlugin.SHAKE_DEPENDENCIES_TASK_NAME)
+                : runtimeClasspath(project, DistributionLayer.DEPENDENCIES);
+    }
 
-        Callable<String> archiveRootDir = () -> serviceName.get() + "-" + project.getVersion();
+    static String archiveRootDir(Project project, JavaServiceDistributionExtension distributionExtension) {
+        return distributionExtension.getDistributionServiceName().get() + "-" + project.getVersion();
+    }
+
+    @SuppressWarnings("checkstyle:methodlength")
+    private static void configureLayers(
+            Project project,
+            AbstractCopyTask distTarTask,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask,
+            Set<DistributionLayer> layers,
+            @Nullable TaskProvider<LaunchConfigTask> launchConfig) {
+        Callable<String> archiveRootDir = () -> archiveRootDir(project, distributionExtension);
+        boolean application = layers.contains(DistributionLayer.APPLICATION);
 
         distTarTask.into(archiveRootDir, root -> {
-            root.from("var", t -> {
-                t.into("var");
-                distributionExtension.getExcludeFromVar().get().forEach(t::exclude);
-            });
+            if (application) {
+                root.from("var", t -> {
+                    t.into("var");
+                    distributionExtension.getExcludeFromVar().get().forEach(t::exclude);
+                });
 
-            root.from("service", t -> {
-                t.into("service");
-                t.exclude("bin/*");
-            });
+                root.from("service", t -> {
+                    t.into("service");
+                    t.exclude("bin/*");
+                });
 
-            root.from("service/bin", t -> {
-                t.into("service/bin");
-                t.setFileMode(0755);
-            });
+                root.from("service/bin", t -> {
+                    t.into("service/bin");
+                    t.setFileMode(0755);
+                });
+            }
 
             root.into("service/lib", t -> {
-                t.from(jarTask);
-                t.from(project.getConfigurations().named("runtimeClasspath"));
+                if (layers.containsAll(EnumSet.of(DistributionLayer.PROJECT, DistributionLayer.DEPENDENCIES))
+                        && !transformsLibs(distributionExtension)) {
+                    // The whole classpath, unchanged and in its original order
+                    t.from(jarTask);
+                    t.from(project.getConfigurations().named("runtimeClasspath"));
+                    return;
+                }
+                if (layers.contains(DistributionLayer.PROJECT)) {
+                    t.from(distributionExtension.getEnableJarRepacking().get()
+                            ? project.getTasks().named(JavaServiceDistributionPlugin.REPACK_PROJECT_JARS_TASK_NAME)
+                            : projectLibs(project, jarTask));
+                }
+                if (layers.contains(DistributionLayer.DEPENDENCIES)) {
+                    t.from(distributionExtension.getEnableJarRepacking().get()
+                            ? project.getTasks().named(JavaServiceDistributionPlugin.REPACK_DEPENDENCY_JARS_TASK_NAME)
+                            : dependencyLibs(project, distributionExtension));
+                }
             });
 
-            if (distributionExtension.getEnableManifestClasspath().get()) {
+            if (layers.contains(DistributionLayer.PROJECT)
+                    && distributionExtension.getEnableManifestClasspath().get()) {
                 root.into("service/lib", t -> {
                     t.from(project.getTasks().named("manifestClasspathJar"));
                 });
             }
 
+            if (!application) {
+                return;
+            }
+
+            if (distributionExtension.getEnableJlinkRuntime().get()) {
+                root.into(JlinkRuntime.DIRECTORY, t -> {
+                    t.from(project.getTasks().named(JavaServiceDistributionPlugin.JLINK_RUNTIME_TASK_NAME));
+                });
+            }
+
+            // Only the launcher configuration of createLaunchConfig uses the archive
+            if (launchConfig == null && distributionExtension.getEnableClassDataSharing().get()) {
+                root.into("service/lib", t -> {
+                    t.from(project.getTasks()
+                            .named(JavaServiceDistributionPlugin.TRAIN_CLASS_DATA_SHARING_TASK_NAME));
+                });
+            }
+
             root.into("service/lib/agent", t -> {
                 t.from(project.getConfigurations().named("javaAgent"));
             });
 
             root.into("service/bin", t -> {
                 t.from(project.getLayout().getBuildDirectory().dir("scripts"));
+                if (launchConfig != null) {
+                    t.exclude("launcher-*.yml");
+                }
                 t.setFileMode(0755);
             });
 
+            if (launchConfig != null) {
+                root.into("service/bin", t -> {
+                    t.from(launchConfig);
+                    t.setFileMode(0755);
+                });
+            }
+
             root.into("service/monitoring/bin", t -> {
                 t.from(project.getLayout().getBuildDirectory().dir("monitoring"));
                 t.setFileMode(0755);
@@ -89,5 +249,23 @@ final class DistTarTask {
         });
     }
 
+    /** Whether the jars of {@code service/lib} are tree shaken, merged or repacked rather than copied as they are. */
+    private static boolean transformsLibs(JavaServiceDistributionExtension distributionExtension) {
+        return distributionExtension.getEnableTreeShaking().get()
+                || distributionExtension.getEnableJarMerging().get()
+                || distributionExtension.getEnableJarRepacking().get();
+    }
+
+    /** The part of {@code runtimeClasspath} that belongs to the project or the dependencies layer. */
+    private static Callable<FileCollection> runtimeClasspath(Project project, DistributionLayer layer) {
+        boolean projects = layer == DistributionLayer.PROJECT;
+        return () -> project.getConfigurations()
+                .getByName("runtimeClasspath")
+                .getIncoming()
+                .artifactView(view -> view.componentFilter(
+                        id -> (id instanceof ProjectComponentIdentifier) == projects))
+                .getFiles();
+    }
+
     private DistTarTask() {}
 }
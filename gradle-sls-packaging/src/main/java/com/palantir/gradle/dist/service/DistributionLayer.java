@@ -0,0 +1,48 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service;
+
+import java.util.Locale;
+
+/**
+ * The layers of a layered distribution. Each layer is a tar with the same root directory as the full distribution and
+ * no file appears in more than one layer, so extracting all of them into one directory recreates the full
+ * distribution. Layers are ordered from least to most likely to change between releases.
+ */
+public enum DistributionLayer {
+    /** Third-party jars from {@code runtimeClasspath}. */
+    DEPENDENCIES,
+
+    /** The jar of this project and of other projects in the same build that it depends on. */
+    PROJECT,
+
+    /** Everything else: scripts, launcher configuration, {@code deployment/manifest.yml}, {@code var} and agents. */
+    APPLICATION;
+
+    /** The name used as archive classifier and as value of {@code SlsBaseDistPlugin.SLS_LAYER_ATTRIBUTE}. */
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    String getTaskName() {
+        return "distTar" + name().charAt(0) + getName().substring(1);
+    }
+
+    String getOciTaskName() {
+        return "ociLayer" + name().charAt(0) + getName().substring(1);
+    }
+}
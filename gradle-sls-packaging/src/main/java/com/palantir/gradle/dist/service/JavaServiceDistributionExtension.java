@@ -21,6 +21,8 @@ import com.palantir.gradle.dist.ProductType;
 import com.palantir.gradle.dist.service.gc.GcProfile;
 import groovy.lang.Closure;
 import groovy.lang.DelegatesTo;
+import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -28,6 +30,10 @@ import javax.inject.Inject;
 import org.gradle.api.Action;
 import org.gradle.api.JavaVersion;
 import org.gradle.api.Project;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.plugins.JavaPluginConvention;
 import org.gradle.api.provider.ListProperty;
@@ -43,6 +49,25 @@ public class JavaServiceDistributionExtension extends BaseDistributionExtension
     private final Property<String> javaHome;
     private final Property<Boolean> addJava8GcLogging;
     private final Property<Boolean> enableManifestClasspath;
+    private final Property<Boolean> enableLayers;
+    private final Property<Boolean> enableThinDistribution;
+    private final Property<String> libraryPoolPath;
+    private final DirectoryProperty ociJdk;
+    private final Property<Boolean> enableTreeShaking;
+    private final ListProperty<String> treeShakingKeep;
+    private final Property<Boolean> enableJarMerging;
+    private final Property<Long> jarMergingThreshold;
+    private final Property<Integer> archiveShards;
+    private final Property<Boolean> enableJarRepacking;
+    private final RegularFileProperty classLoadOrder;
+    private final Property<Boolean> enableClassDataSharing;
+    private final ClassDataSharing classDataSharing;
+    private final Property<Boolean> enableJlinkRuntime;
+    private final JlinkRuntime jlinkRuntime;
+    private final Property<Boolean> enableMemoryBudget;
+    private final MemoryBudget memoryBudget;
+    private final Property<Boolean> enableJit;
+    private final JitProfile jit;
     private final Property<GcProfile> gc;
     private final ListProperty<String> args;
     private final ListProperty<String> checkArgs;
@@ -72,6 +97,25 @@ public class JavaServiceDistributionExtension extends BaseDistributionExtension
 
         addJava8GcLogging = objectFactory.property(Boolean.class).value(false);
         enableManifestClasspath = objectFactory.property(Boolean.class).value(false);
+        enableLayers = objectFactory.property(Boolean.class).value(false);
+        enableThinDistribution = objectFactory.property(Boolean.class).value(false);
+        libraryPoolPath = objectFactory.property(String.class).value("../" + LibraryPool.ROOT_DIRECTORY);
+        ociJdk = objectFactory.directoryProperty();
+        enableTreeShaking = objectFactory.property(Boolean.class).value(false);
+        treeShakingKeep = objectFactory.listProperty(String.class).empty();
+        enableJarMerging = objectFactory.property(Boolean.class).value(false);
+        jarMergingThreshold = objectFactory.property(Long.class).value(512L * 1024);
+        archiveShards = objectFactory.property(Integer.class).value(4);
+        enableJarRepacking = objectFactory.property(Boolean.class).value(false);
+        classLoadOrder = objectFactory.fileProperty();
+        enableClassDataSharing = objectFactory.property(Boolean.class).value(false);
+        classDataSharing = objectFactory.newInstance(ClassDataSharing.class);
+        enableJlinkRuntime = objectFactory.property(Boolean.class).value(false);
+        jlinkRuntime = objectFactory.newInstance(JlinkRuntime.class);
+        enableMemoryBudget = objectFactory.property(Boolean.class).value(false);
+        memoryBudget = objectFactory.newInstance(MemoryBudget.class);
+        enableJit = objectFactory.property(Boolean.class).value(false);
+        jit = objectFactory.newInstance(JitProfile.class);
 
         gc = objectFactory
                 .property(GcProfile.class)
@@ -92,7 +136,14 @@ public class JavaServiceDistributionExtension extends BaseDistributionExtension
     }
 
     public final Provider<List<String>> getGcJvmOptions() {
-        return javaVersion.flatMap(version -> getGc().map(gcProfile -> gcProfile.gcJvmOpts(version)));
+        return javaVersion.flatMap(version -> getGc().map(gcProfile -> {
+            GcProfile.checkJavaVersion(gcProfile, version);
+            return gcProfile.gcJvmOpts(version);
+        }));
+    }
+
+    public final Provider<List<String>> getJitJvmOptions() {
+        return javaVersion.map(version -> enableJit.get() ? jit.jvmOpts(version) : Collections.emptyList());
     }
 
     public final void javaVersion(Object version) {
@@ -135,6 +186,210 @@ public class JavaServiceDistributionExtension extends BaseDistributionExtension
         this.enableManifestClasspath.set(newEnableManifestClasspath);
     }
 
+    public final Provider<Boolean> getEnableLayers() {
+        return enableLayers;
+    }
+
+    /**
+     * Additionally publishes the distribution as separate dependency, project and application layers on the
+     * {@code sls} configuration, see {@link DistributionLayer}.
+     */
+    public final void enableLayers(boolean newEnableLayers) {
+        this.enableLayers.set(newEnableLayers);
+    }
+
+    public final Provider<Boolean> getEnableThinDistribution() {
+        return enableThinDistribution;
+    }
+
+    /**
+     * Additionally publishes a thin distribution on the {@code sls} configuration, which leaves out third-party jars
+     * and loads them from the {@link LibraryPool library pool} instead, see {@link #libraryPoolPath}.
+     */
+    public final void enableThinDistribution(boolean newEnableThinDistribution) {
+        this.enableThinDistribution.set(newEnableThinDistribution);
+    }
+
+    public final Provider<String> getLibraryPoolPath() {
+        return libraryPoolPath;
+    }
+
+    /**
+     * Where the thin distribution finds the extracted library pool, either absolute or relative to the root of the
+     * distribution. Defaults to {@code ../library-pool}, so that the pool is extracted next to the services.
+     */
+    public final void libraryPoolPath(String newLibraryPoolPath) {
+        this.libraryPoolPath.set(newLibraryPoolPath);
+    }
+
+    public final Provider<Directory> getOciJdk() {
+        return ociJdk;
+    }
+
+    /**
+     * A JDK or java runtime image that {@code createOciImage} adds as the bottom layer of the image, at
+     * {@code /opt/java}. Without one the image has no java, and needs base layers that provide it.
+     */
+    public final void ociJdk(File newOciJdk) {
+        this.ociJdk.set(newOciJdk);
+    }
+
+    public final Provider<Boolean> getEnableTreeShaking() {
+        return enableTreeShaking;
+    }
+
+    /**
+     * Puts slimmed copies of the third-party jars into {@code service/lib}, without the classes that cannot be reached
+     * from the main class, the java agents, {@code META-INF/services} providers or the {@link #treeShakingKeep keep
+     * rules}, see {@code shakeDependencies}. Classes that are only loaded reflectively by a computed name need a keep
+     * rule.
+     */
+    public final void enableTreeShaking(boolean newEnableTreeShaking) {
+        this.enableTreeShaking.set(newEnableTreeShaking);
+    }
+
+    public final Provider<List<String>> getTreeShakingKeep() {
+        return treeShakingKeep;
+    }
+
+    /**
+     * Classes that tree shaking always keeps, along with what they refer to: either a class name such as
+     * {@code com.example.Plugin}, a package such as {@code com.example.*} or a package and its subpackages such as
+     * {@code com.example.**}.
+     */
+    public final void treeShakingKeep(String... classes) {
+        this.treeShakingKeep.addAll(classes);
+    }
+
+    public final Provider<Boolean> getEnableJarMerging() {
+        return enableJarMerging;
+    }
+
+    /**
+     * Merges the small third-party jars in {@code service/lib} into a few larger ones, so that the classpath of the
+     * launcher configuration is shorter, see {@code mergeDependencyJars}. Jars that could load differently once merged
+     * are left as they are.
+     */
+    public final void enableJarMerging(boolean newEnableJarMerging) {
+        this.enableJarMerging.set(newEnableJarMerging);
+    }
+
+    public final Provider<Long> getJarMergingThreshold() {
+        return jarMergingThreshold;
+    }
+
+    /** The size in bytes from which jars are not merged, defaults to 512 KiB. */
+    public final void jarMergingThreshold(long newJarMergingThreshold) {
+        this.jarMergingThreshold.set(newJarMergingThreshold);
+    }
+
+    public final Provider<Integer> getArchiveShards() {
+        return archiveShards;
+    }
+
+    /**
+     * The number of archives of about the same size that {@code distTarShards} splits the distribution into, so that
+     * they can be extracted at the same time. Defaults to 4.
+     */
+    public final void archiveShards(int newArchiveShards) {
+        this.archiveShards.set(newArchiveShards);
+    }
+
+    public final Provider<Boolean> getEnableJarRepacking() {
+        return enableJarRepacking;
+    }
+
+    /**
+     * Puts copies of the jars into {@code service/lib} whose entries are stored rather than deflated, so that class
+     * loading does not inflate them, ordered by the {@link #classLoadOrder}. The jars are larger on disk, but the
+     * compression of the distribution makes up for most of that.
+     */
+    public final void enableJarRepacking(boolean newEnableJarRepacking) {
+        this.enableJarRepacking.set(newEnableJarRepacking);
+    }
+
+    public final Provider<RegularFile> getClassLoadOrder() {
+        return classLoadOrder;
+    }
+
+    /**
+     * The classes that the service loads at startup, in order, as logged by {@code -Xlog:class+load} or
+     * {@code -verbose:class}, or as a list of class names. Repacked jars put these classes first.
+     */
+    public final void classLoadOrder(File newClassLoadOrder) {
+        this.classLoadOrder.set(newClassLoadOrder);
+    }
+
+    public final Provider<Boolean> getEnableClassDataSharing() {
+        return enableClassDataSharing;
+    }
+
+    public final ClassDataSharing getClassDataSharing() {
+        return classDataSharing;
+    }
+
+    /**
+     * Ships an archive of the classes that the service loads at startup in {@code service/lib}, which
+     * {@code launcher-static.yml} maps into the JVM instead of loading the classes from the jars: a dynamic class data
+     * sharing archive on java 13 and later, or an ahead-of-time cache on java 24 and later. {@code trainClassDataSharing} writes it by running the service as configured here.
+     */
+    public final void classDataSharing(Action<ClassDataSharing> action) {
+        enableClassDataSharing.set(true);
+        action.execute(classDataSharing);
+    }
+
+    public final Provider<Boolean> getEnableJlinkRuntime() {
+        return enableJlinkRuntime;
+    }
+
+    public final JlinkRuntime getJlinkRuntime() {
+        return jlinkRuntime;
+    }
+
+    /**
+     * Ships a java runtime in {@code service/jre} with only the modules that the service needs, which the launchers
+     * use in place of {@link #javaHome}, so that hosts need no JDK of their own, see {@code jlinkRuntime}.
+     */
+    public final void jlinkRuntime(Action<JlinkRuntime> action) {
+        enableJlinkRuntime.set(true);
+        action.execute(jlinkRuntime);
+    }
+
+    public final Provider<Boolean> getEnableMemoryBudget() {
+        return enableMemoryBudget;
+    }
+
+    public final MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Divides the memory limit of the service's container between the heap and the JVM's other memory, and caps each
+     * part with its option in {@code launcher-static.yml}. The build fails if the {@link #defaultJvmOpts} set options
+     * that overcommit the limit, and the manifest has the budget in its {@code memory-budget} extension.
+     */
+    public final void memory(Action<MemoryBudget> action) {
+        enableMemoryBudget.set(true);
+        action.execute(memoryBudget);
+    }
+
+    public final Provider<Boolean> getEnableJit() {
+        return enableJit;
+    }
+
+    public final JitProfile getJit() {
+        return jit;
+    }
+
+    /**
+     * Sets the options of the JIT compilers in {@code launcher-static.yml} from a {@link JitProfile#profile profile}
+     * for long-running services, short-lived daemons or small services, with the settings that override it.
+     */
+    public final void jit(Action<JitProfile> action) {
+        enableJit.set(true);
+        action.execute(jit);
+    }
+
     public final Provider<List<String>> getArgs() {
         return args;
     }
@@ -19,17 +19,29 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
 import com.palantir.gradle.dist.ProductDependencyIntrospectionPlugin;
 import com.palantir.gradle.dist.SlsBaseDistPlugin;
+import com.palantir.gradle.dist.archive.SlsTarTask;
 import com.palantir.gradle.dist.asset.AssetDistributionPlugin;
 import com.palantir.gradle.dist.service.tasks.CreateCheckScriptTask;
 import com.palantir.gradle.dist.service.tasks.CreateInitScriptTask;
+import com.palantir.gradle.dist.service.tasks.CreateLayerManifestTask;
+import com.palantir.gradle.dist.service.tasks.CreateOciImageTask;
+import com.palantir.gradle.dist.service.tasks.InstallDistTask;
+import com.palantir.gradle.dist.service.tasks.JlinkRuntimeTask;
 import com.palantir.gradle.dist.service.tasks.LaunchConfigTask;
 import com.palantir.gradle.dist.service.tasks.LazyCreateStartScriptTask;
+import com.palantir.gradle.dist.service.tasks.MergeJarsTask;
+import com.palantir.gradle.dist.service.tasks.RepackJarsTask;
+import com.palantir.gradle.dist.service.tasks.ShakeDependenciesTask;
+import com.palantir.gradle.dist.service.tasks.TrainClassDataSharingTask;
 import com.palantir.gradle.dist.service.util.MainClassResolver;
 import com.palantir.gradle.dist.tasks.ConfigTarTask;
 import com.palantir.gradle.dist.tasks.CreateManifestTask;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 import org.gradle.api.Action;
 import org.gradle.api.InvalidUserCodeException;
@@ -37,6 +49,7 @@ import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.file.Directory;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RelativePath;
 import org.gradle.api.plugins.JavaPlugin;
@@ -45,7 +58,6 @@ import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Copy;
 import org.gradle.api.tasks.JavaExec;
 import org.gradle.api.tasks.TaskProvider;
-import org.gradle.api.tasks.bundling.Compression;
 import org.gradle.api.tasks.bundling.Jar;
 import org.gradle.api.tasks.bundling.Tar;
 import org.gradle.process.CommandLineArgumentProvider;
@@ -58,6 +70,36 @@ public final class JavaServiceDistributionPlugin implements Plugin<Project> {
     private static final String GO_INIT = "com.palantir.launching:go-init:" + GO_JAVA_VERSION;
     public static final String GROUP_NAME = "Distribution";
 
+    /** The {@link SlsBaseDistPlugin#SLS_LAYER_ATTRIBUTE} value of the layer manifest of a layered distribution. */
+    public static final String LAYER_MANIFEST_VARIANT = "layer-manifest";
+
+    /** The {@link SlsBaseDistPlugin#SLS_LAYER_ATTRIBUTE} value of the thin distribution, see {@link LibraryPool}. */
+    public static final String THIN_DISTRIBUTION_VARIANT = "thin";
+
+    /** Writes the slimmed third-party jars that replace the originals when tree shaking is enabled. */
+    public static final String SHAKE_DEPENDENCIES_TASK_NAME = "shakeDependencies";
+
+    /** Merges the small third-party jars when jar merging is enabled. */
+    public static final String MERGE_DEPENDENCY_JARS_TASK_NAME = "mergeDependencyJars";
+
+    /** Writes the stored, load ordered copies of the project's jars when jar repacking is enabled. */
+    public static final String REPACK_PROJECT_JARS_TASK_NAME = "repackProjectJars";
+
+    /** Writes the stored, load ordered copies of the third-party jars when jar repacking is enabled. */
+    public static final String REPACK_DEPENDENCY_JARS_TASK_NAME = "repackDependencyJars";
+
+    /** Writes the class data sharing archive of {@code service/lib} when class data sharing is enabled. */
+    public static final String TRAIN_CLASS_DATA_SHARING_TASK_NAME = "trainClassDataSharing";
+
+    /** Links the java runtime of {@code service/jre} when a jlink runtime is enabled. */
+    public static final String JLINK_RUNTIME_TASK_NAME = "jlinkRuntime";
+
+    /** Where the distribution is extracted in the OCI image, see {@link #registerOciImage}. */
+    public static final String OCI_SERVICES_DIRECTORY = "/opt/services";
+
+    /** Where the {@link JavaServiceDistributionExtension#ociJdk JDK} is in the OCI image. */
+    public static final String OCI_JDK_DIRECTORY = "/opt/java";
+
     @Override
     @SuppressWarnings({"checkstyle:methodlength", "RawTypes"})
     public void apply(Project project) {
@@ -209,17 +251,7 @@ public final class JavaServiceDistributionPlugin implements Plugin<Project> {
                     task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
                     task.setDescription("Generates launcher-static.yml and launcher-check.yml configurations.");
                     task.dependsOn(manifestClassPathTask);
-
-                    task.getMainClass().set(mainClassName);
-                    task.getServiceName().set(distributionExtension.getDistributionServiceName());
-                    task.getArgs().set(distributionExtension.getArgs());
-                    task.getCheckArgs().set(distributionExtension.getCheckArgs());
-                    task.getGcJvmOptions().set(distributionExtension.getGcJvmOptions());
-                    task.getDefaultJvmOpts().set(distributionExtension.getDefaultJvmOpts());
-                    task.getAddJava8GcLogging().set(distributionExtension.getAddJava8GcLogging());
-                    task.getJavaHome().set(distributionExtension.getJavaHome());
-                    task.getJavaVersion().set(distributionExtension.getJavaVersion());
-                    task.getEnv().set(distributionExtension.getEnv());
+                    configureLaunchConfig(task, distributionExtension, mainClassName);
                 });
 
         TaskProvider<CreateInitScriptTask> initScript = project.getTasks()
@@ -240,7 +272,7 @@ public final class JavaServiceDistributionPlugin implements Plugin<Project> {
         TaskProvider<CreateManifestTask> manifest =
                 CreateManifestTask.createManifestTask(project, distributionExtension);
 
-        TaskProvider<Tar> configTar = ConfigTarTask.createConfigTarTask(project, distributionExtension);
+        TaskProvider<SlsTarTask> configTar = ConfigTarTask.createConfigTarTask(project, distributionExtension);
         configTar.configure(task -> task.dependsOn(manifest));
 
         TaskProvider<JavaExec> runTask = project.getTasks().register("run", JavaExec.class, task -> {
@@ -279,39 +311,554 @@ public final class JavaServiceDistributionPlugin implements Plugin<Project> {
             task.setArgs(distributionExtension.getArgs().get());
         }));
 
-        TaskProvider<Tar> distTar = project.getTasks().register("distTar", Tar.class, task -> {
+        project.getTasks().register(SHAKE_DEPENDENCIES_TASK_NAME, ShakeDependenciesTask.class, task -> {
             task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
-            task.setDescription("Creates a compressed, gzipped tar file that contains required runtime resources.");
-            // Set compression in constructor so that task output has the right name from the start.
-            task.setCompression(Compression.GZIP);
-            task.getArchiveExtension().set("sls.tgz");
-            task.dependsOn(
-                    startScripts,
-                    initScript,
-                    checkScript,
-                    copyLauncherBinaries,
-                    launchConfigTask,
-                    manifest,
-                    manifestClassPathTask,
-                    javaAgentConfiguration);
+            task.setDescription("Removes the classes that the service cannot reach from copies of the "
+                    + "third-party jars.");
+            task.getMainClass().set(mainClassName);
+            task.getJavaVersion().set(distributionExtension.getJavaVersion());
+            task.getProjectClasspath().from(jarTask, DistTarTask.projectJars(project));
+            task.getDependencies().from(DistTarTask.dependencyJars(project));
+            task.getJavaAgents().from(javaAgentConfiguration);
+            task.getKeep().set(distributionExtension.getTreeShakingKeep());
+            task.getOutputDirectory()
+                    .set(project.getLayout().getBuildDirectory().dir("shaken-libs"));
+            task.getReportFile()
+                    .set(project.getLayout().getBuildDirectory().file("reports/tree-shaking.json"));
         });
 
-        project.afterEvaluate(_p -> launchConfigTask.configure(task -> {
-            task.getJavaAgents().setFrom(javaAgentConfiguration);
-            task.getClasspath()
-                    .from(
-                            distributionExtension.getEnableManifestClasspath().get()
-                                    ? manifestClassPathTask.get().getOutputs().getFiles()
-                                    : jarTask.get()
-                                            .getOutputs()
-                                            .getFiles()
-                                            .plus(distributionExtension.getProductDependenciesConfig()));
-        }));
+        TaskProvider<MergeJarsTask> mergeDependencyJars = project.getTasks()
+                .register(MERGE_DEPENDENCY_JARS_TASK_NAME, MergeJarsTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Merges the small third-party jars into a few larger ones.");
+                    task.getJars()
+                            .from((Callable<Object>)
+                                    () -> DistTarTask.unmergedDependencyLibs(project, distributionExtension));
+                    task.getClasspath().from((Callable<Object>) () -> DistTarTask.projectLibs(project, jarTask));
+                    task.getThreshold().set(distributionExtension.getJarMergingThreshold());
+                    task.getOutputDirectory()
+                            .set(project.getLayout().getBuildDirectory().dir("merged-libs"));
+                    task.getMergingFile()
+                            .set(project.getLayout().getBuildDirectory().file("merged-libs.json"));
+                });
+
+        project.getTasks().register(REPACK_PROJECT_JARS_TASK_NAME, RepackJarsTask.class, task -> {
+            task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+            task.setDescription("Rewrites the project's jars with stored entries in class load order.");
+            task.getJars().from((Callable<Object>) () -> DistTarTask.projectLibs(project, jarTask));
+            task.getClassLoadOrder().set(distributionExtension.getClassLoadOrder());
+            task.getOutputDirectory()
+                    .set(project.getLayout().getBuildDirectory().dir("repacked-libs/project"));
+        });
+
+        project.getTasks().register(REPACK_DEPENDENCY_JARS_TASK_NAME, RepackJarsTask.class, task -> {
+            task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+            task.setDescription("Rewrites the third-party jars with stored entries in class load order.");
+            task.getJars().from((Callable<Object>) () -> DistTarTask.dependencyLibs(project, distributionExtension));
+            task.getClassLoadOrder().set(distributionExtension.getClassLoadOrder());
+            task.getOutputDirectory()
+                    .set(project.getLayout().getBuildDirectory().dir("repacked-libs/dependencies"));
+        });
+
+        List<Object> distributionInputs = ImmutableList.of(
+                startScripts,
+                initScript,
+                checkScript,
+                copyLauncherBinaries,
+                launchConfigTask,
+                manifest,
+                manifestClassPathTask,
+                javaAgentConfiguration);
+
+        TaskProvider<SlsTarTask> distTar = project.getTasks().register("distTar", SlsTarTask.class, task -> {
+            task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+            task.setDescription("Creates a compressed tar file that contains required runtime resources.");
+            configureDistTar(task, distributionExtension);
+            task.getHardLinkDuplicates().set(distributionExtension.getEnableHardLinkDuplicates());
+            task.dependsOn(distributionInputs);
+        });
+
+        TaskProvider<LaunchConfigTask> trainingLaunchConfig = project.getTasks()
+                .register("createTrainingLaunchConfig", LaunchConfigTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Generates launcher configurations without the class data sharing archive, "
+                            + "for the training run that writes it.");
+                    task.dependsOn(manifestClassPathTask);
+                    configureLaunchConfig(task, distributionExtension, mainClassName);
+                    task.getStaticLauncher()
+                            .set(project.getLayout()
+                                    .getBuildDirectory()
+                                    .file("class-data-sharing/scripts/launcher-static.yml"));
+                    task.getCheckLauncher()
+                            .set(project.getLayout()
+                                    .getBuildDirectory()
+                                    .file("class-data-sharing/scripts/launcher-check.yml"));
+                });
+
+        project.afterEvaluate(_p -> {
+            List<TaskProvider<LaunchConfigTask>> launchConfigs =
+                    ImmutableList.of(launchConfigTask, trainingLaunchConfig);
+            for (TaskProvider<LaunchConfigTask> launchConfig : launchConfigs) {
+                launchConfig.configure(task -> {
+                    task.getJavaAgents().setFrom(javaAgentConfiguration);
+                    if (distributionExtension.getEnableJarMerging().get()) {
+                        task.getJarMerging().set(mergeDependencyJars.flatMap(MergeJarsTask::getMergingFile));
+                    }
+                    task.getClasspath()
+                            .from(
+                                    distributionExtension.getEnableManifestClasspath().get()
+                                            ? manifestClassPathTask.get().getOutputs().getFiles()
+                                            : jarTask.get()
+                                                    .getOutputs()
+                                                    .getFiles()
+                                                    .plus(distributionExtension.getProductDependenciesConfig()));
+                });
+            }
+        });
 
         project.afterEvaluate(_proj -> distTar.configure(task -> {
             DistTarTask.configure(project, task, distributionExtension, jarTask);
         }));
 
+        TaskProvider<InstallDistTask> installDist = project.getTasks()
+                .register("installDist", InstallDistTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Installs the distribution, hard linking files where possible.");
+                    task.getDestinationDirectory()
+                            .set(project.getLayout().getBuildDirectory().dir("install"));
+                    task.dependsOn(distributionInputs);
+                });
+
+        project.afterEvaluate(_proj -> installDist.configure(task -> {
+            DistTarTask.configureInstall(project, task, distributionExtension, jarTask);
+        }));
+
+        // Consumers that would extract distTar get an installed distribution instead. It is a copy rather than the
+        // hard links of installDist, so that consumers which modify it can not modify the build outputs.
+        TaskProvider<InstallDistTask> installExplodedDist = project.getTasks()
+                .register("installExplodedDist", InstallDistTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Installs a copy of the distribution for consumers of the exploded variant.");
+                    task.getDestinationDirectory()
+                            .set(project.getLayout().getBuildDirectory().dir("exploded"));
+                    task.getHardLinks().set(false);
+                    task.dependsOn(distributionInputs);
+                });
+
+        project.afterEvaluate(_proj -> installExplodedDist.configure(task -> {
+            DistTarTask.configureInstall(project, task, distributionExtension, jarTask);
+        }));
+
+        project.afterEvaluate(_proj -> SlsBaseDistPlugin.addExplodedVariant(
+                project,
+                installExplodedDist.flatMap(task -> task.getDestinationDirectory()
+                        .dir(DistTarTask.archiveRootDir(project, distributionExtension))),
+                installExplodedDist));
+
+        SlsBaseDistPlugin.configureCompressionAttribute(project, distributionExtension);
         project.getArtifacts().add(SlsBaseDistPlugin.SLS_CONFIGURATION_NAME, distTar);
+        SlsBaseDistPlugin.configureIndexes(project, distTar, distributionExtension);
+        ConfigTarTask.configureSinglePass(project, distributionExtension, configTar, distTar);
+
+        registerLayers(project, distributionExtension, jarTask, distributionInputs);
+        registerThinDistribution(project, distributionExtension, jarTask, mainClassName, distributionInputs);
+        registerShardedDistribution(project, distributionExtension, jarTask, distributionInputs);
+        TaskProvider<JlinkRuntimeTask> jlinkRuntime = registerJlinkRuntime(project, distributionExtension, jarTask);
+        registerClassDataSharing(
+                project,
+                distributionExtension,
+                jarTask,
+                distributionInputs,
+                launchConfigTask,
+                trainingLaunchConfig,
+                jlinkRuntime);
+        registerMemoryBudget(project, distributionExtension);
+        registerOciImage(project, distributionExtension, jarTask, distributionInputs);
+    }
+
+    private static void configureLaunchConfig(
+            LaunchConfigTask task,
+            JavaServiceDistributionExtension distributionExtension,
+            Provider<String> mainClassName) {
+        task.getMainClass().set(mainClassName);
+        task.getServiceName().set(distributionExtension.getDistributionServiceName());
+        task.getArgs().set(distributionExtension.getArgs());
+        task.getCheckArgs().set(distributionExtension.getCheckArgs());
+        task.getGcJvmOptions().set(distributionExtension.getGcJvmOptions());
+        task.getJitJvmOptions().set(distributionExtension.getJitJvmOptions());
+        task.getDefaultJvmOpts().set(distributionExtension.getDefaultJvmOpts());
+        task.getAddJava8GcLogging().set(distributionExtension.getAddJava8GcLogging());
+        task.getJavaHome().set(distributionExtension.getJavaHome());
+        task.getJavaVersion().set(distributionExtension.getJavaVersion());
+        task.getEnv().set(distributionExtension.getEnv());
+    }
+
+    private static void configureDistTar(SlsTarTask task, JavaServiceDistributionExtension distributionExtension) {
+        SlsTarTask.configureCompression(task, distributionExtension);
+        task.getArchiveExtension()
+                .set(distributionExtension
+                        .getCompression()
+                        .map(compression -> "sls." + compression.getFileExtension()));
+    }
+
+    /**
+     * Registers a tar for each {@link DistributionLayer} and a manifest describing how they compose, and publishes
+     * them as variants of the {@code sls} configuration when layers are enabled.
+     */
+    private static void registerLayers(
+            Project project,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask,
+            List<Object> distributionInputs) {
+        TaskProvider<CreateLayerManifestTask> layerManifest = project.getTasks()
+                .register("createLayerManifest", CreateLayerManifestTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Describes how the layer tar files compose into the distribution.");
+                    task.getRootDirectory()
+                            .set(project.provider(() -> DistTarTask.archiveRootDir(project, distributionExtension)));
+                    task.getManifestFile()
+                            .set(project.getLayout()
+                                    .getBuildDirectory()
+                                    .file(task.getRootDirectory()
+                                            .map(rootDirectory -> "distributions/" + rootDirectory + ".layers.json")));
+                });
+
+        for (DistributionLayer layer : DistributionLayer.values()) {
+            TaskProvider<SlsTarTask> layerTar = project.getTasks()
+                    .register(layer.getTaskName(), SlsTarTask.class, task -> {
+                        task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                        task.setDescription(String.format(
+                                "Creates a compressed tar file of the %s layer of the distribution.", layer.getName()));
+                        configureDistTar(task, distributionExtension);
+                        task.dependsOn(distributionInputs);
+                    });
+
+            project.afterEvaluate(_proj -> layerTar.configure(task -> {
+                DistTarTask.configureLayer(project, task, distributionExtension, jarTask, layer);
+            }));
+
+            layerManifest.configure(task -> {
+                task.layer(layer).set(layerTar.flatMap(SlsTarTask::getArchiveFile));
+                task.dependsOn(layerTar);
+            });
+        }
+
+        project.afterEvaluate(_proj -> {
+            if (!distributionExtension.getEnableLayers().get()) {
+                return;
+            }
+            for (DistributionLayer layer : DistributionLayer.values()) {
+                TaskProvider<Task> layerTar = project.getTasks().named(layer.getTaskName());
+                SlsBaseDistPlugin.addLayerVariant(project, layer.getName(), layerTar, layerTar);
+            }
+            SlsBaseDistPlugin.addLayerVariant(
+                    project,
+                    LAYER_MANIFEST_VARIANT,
+                    layerManifest.flatMap(CreateLayerManifestTask::getManifestFile),
+                    layerManifest);
+        });
+    }
+
+    /**
+     * Registers a distribution without the third-party jars, whose launcher configuration loads them from the
+     * {@link LibraryPool} instead, and publishes it as a variant of the {@code sls} configuration when enabled.
+     */
+    private static void registerThinDistribution(
+            Project project,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask,
+            Provider<String> mainClassName,
+            List<Object> distributionInputs) {
+        TaskProvider<LaunchConfigTask> thinLaunchConfig = project.getTasks()
+                .register("createThinLaunchConfig", LaunchConfigTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Generates launcher configurations that load third-party jars from the "
+                            + "library pool.");
+                    configureLaunchConfig(task, distributionExtension, mainClassName);
+                    task.getLibraryPoolPath().set(distributionExtension.getLibraryPoolPath());
+                    task.getStaticLauncher()
+                            .set(project.getLayout().getBuildDirectory().file("thin-scripts/launcher-static.yml"));
+                    task.getCheckLauncher()
+                            .set(project.getLayout().getBuildDirectory().file("thin-scripts/launcher-check.yml"));
+                });
+
+        TaskProvider<SlsTarTask> thinTar = project.getTasks().register("distTarThin", SlsTarTask.class, task -> {
+            task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+            task.setDescription("Creates a compressed tar file of the distribution without third-party jars, which "
+                    + "are loaded from the library pool.");
+            configureDistTar(task, distributionExtension);
+            task.dependsOn(distributionInputs, thinLaunchConfig);
+        });
+
+        project.afterEvaluate(_proj -> {
+            thinLaunchConfig.configure(task -> {
+                task.getJavaAgents().from(project.getConfigurations().getByName("javaAgent"));
+                task.getClasspath()
+                        .from(jarTask.get().getOutputs().getFiles())
+                        .from(distributionExtension.getProductDependenciesConfig());
+                task.getLibraryPoolJars().from(DistTarTask.dependencyJars(project));
+            });
+            thinTar.configure(task ->
+                    DistTarTask.configureThin(project, task, distributionExtension, jarTask, thinLaunchConfig));
+            if (distributionExtension.getEnableThinDistribution().get()) {
+                SlsBaseDistPlugin.addLayerVariant(project, THIN_DISTRIBUTION_VARIANT, thinTar, thinTar);
+            }
+        });
+    }
+
+    /**
+     * Registers {@code distTarShards}, which splits the distribution into archives that can be extracted at the same
+     * time, and writes a {@link com.palantir.gradle.dist.archive.ShardManifest} of them next to them.
+     */
+    private static void registerShardedDistribution(
+            Project project,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask,
+            List<Object> distributionInputs) {
+        TaskProvider<SlsTarTask> shardsTar = project.getTasks().register("distTarShards", SlsTarTask.class, task -> {
+            task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+            task.setDescription("Creates compressed tar files that together contain the distribution, and a manifest "
+                    + "of them, for extracting them at the same time.");
+            SlsTarTask.configureCompression(task, distributionExtension);
+            task.getArchiveClassifier().set("shards");
+            task.getArchiveExtension().set("json");
+            task.getShardCount().set(distributionExtension.getArchiveShards());
+            task.getShardExtension()
+                    .set(distributionExtension
+                            .getCompression()
+                            .map(compression -> "sls." + compression.getFileExtension()));
+            task.getHardLinkDuplicates().set(distributionExtension.getEnableHardLinkDuplicates());
+            task.dependsOn(distributionInputs);
+        });
+
+        project.afterEvaluate(_proj -> shardsTar.configure(task -> {
+            DistTarTask.configure(project, task, distributionExtension, jarTask);
+        }));
+    }
+
+    /**
+     * Registers {@code jlinkRuntime}, which links the java runtime that the distribution ships in
+     * {@code service/jre}, and points the {@code javaHome} of every launcher configuration at it when enabled.
+     */
+    private static TaskProvider<JlinkRuntimeTask> registerJlinkRuntime(
+            Project project, JavaServiceDistributionExtension distributionExtension, TaskProvider<Jar> jarTask) {
+        JlinkRuntime jlinkRuntime = distributionExtension.getJlinkRuntime();
+        TaskProvider<JlinkRuntimeTask> jlink = project.getTasks()
+                .register(JLINK_RUNTIME_TASK_NAME, JlinkRuntimeTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Links a java runtime with the modules that the service needs.");
+                    task.getClasspath()
+                            .from((Callable<Object>) () -> DistTarTask.projectLibs(project, jarTask))
+                            .from((Callable<Object>) () -> DistTarTask.dependencyLibs(project, distributionExtension))
+                            .from(project.getConfigurations().named("javaAgent"));
+                    task.getAddModules().set(jlinkRuntime.getAddModules());
+                    task.getJdk().set(jlinkRuntime.getJdk());
+                    task.getJavaVersion().set(distributionExtension.getJavaVersion());
+                    task.getRuntimeDirectory()
+                            .set(project.getLayout().getBuildDirectory().dir("jlink/jre"));
+                });
+
+        project.afterEvaluate(_proj -> {
+            if (distributionExtension.getEnableJlinkRuntime().get()) {
+                project.getTasks()
+                        .withType(LaunchConfigTask.class)
+                        .configureEach(task -> task.getJavaHome().set(JlinkRuntime.DIRECTORY));
+            }
+        });
+        return jlink;
+    }
+
+    /**
+     * Gives the launcher configurations the memory budget when there is one, and writes the budget with the parts that
+     * the GC, JIT and default JVM options set explicitly to the {@code memory-budget} extension of the manifest.
+     */
+    private static void registerMemoryBudget(Project project, JavaServiceDistributionExtension distributionExtension) {
+        project.afterEvaluate(_proj -> {
+            if (!distributionExtension.getEnableMemoryBudget().get()) {
+                return;
+            }
+            MemoryBudget memoryBudget = distributionExtension.getMemoryBudget();
+            if (!memoryBudget.getContainerLimit().isPresent()) {
+                throw new InvalidUserCodeException(
+                        "The memory budget needs the memory limit of the container, set distribution.memory"
+                                + ".containerLimit");
+            }
+            project.getTasks()
+                    .withType(LaunchConfigTask.class)
+                    .configureEach(task -> task.getMemoryBudget().set(memoryBudget.getBudget()));
+            distributionExtension
+                    .getManifestExtensions()
+                    .put("memory-budget", memoryBudget.getBudget().map(budget -> budget.withExplicitOptions(
+                            ImmutableList.<String>builder()
+                                    .addAll(distributionExtension.getGcJvmOptions().get())
+                                    .addAll(distributionExtension.getJitJvmOptions().get())
+                                    .addAll(distributionExtension.getDefaultJvmOpts().get())
+                                    .build())));
+        });
+    }
+
+    /**
+     * Registers {@code trainClassDataSharing}, which installs the distribution with the launcher configuration of
+     * {@code trainingLaunchConfig} and runs it to write the class data sharing archive, and wires the archive into
+     * {@code launchConfig} when class data sharing is enabled. The training copy of the distribution cannot include
+     * the launcher configuration of {@code launchConfig}, which depends on the archive.
+     */
+    private static void registerClassDataSharing(
+            Project project,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask,
+            List<Object> distributionInputs,
+            TaskProvider<LaunchConfigTask> launchConfig,
+            TaskProvider<LaunchConfigTask> trainingLaunchConfig,
+            TaskProvider<JlinkRuntimeTask> jlinkRuntime) {
+        ClassDataSharing classDataSharing = distributionExtension.getClassDataSharing();
+        // With a jlink runtime, the service runs on that, and the archive is only used with the runtime that wrote it
+        Provider<Directory> trainingJavaHome = distributionExtension
+                .getEnableJlinkRuntime()
+                .flatMap(jlink -> jlink
+                        ? jlinkRuntime.flatMap(JlinkRuntimeTask::getRuntimeDirectory)
+                        : classDataSharing.getTrainingJavaHome());
+        Provider<Directory> trainingJdk = distributionExtension
+                .getEnableJlinkRuntime()
+                .flatMap(jlink -> jlink
+                        ? distributionExtension.getJlinkRuntime().getJdk()
+                        : classDataSharing.getTrainingJavaHome());
+        TaskProvider<InstallDistTask> trainingInstall = project.getTasks()
+                .register("installTrainingDist", InstallDistTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Installs the distribution that trainClassDataSharing runs.");
+                    task.getDestinationDirectory()
+                            .set(project.getLayout().getBuildDirectory().dir("class-data-sharing/install"));
+                    task.dependsOn(distributionInputs.stream()
+                            .filter(input -> input != launchConfig)
+                            .collect(Collectors.toList()));
+                    task.dependsOn(trainingLaunchConfig);
+                });
+
+        TaskProvider<TrainClassDataSharingTask> train = project.getTasks()
+                .register(TRAIN_CLASS_DATA_SHARING_TASK_NAME, TrainClassDataSharingTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Runs the service to write an archive of the classes it loads at startup.");
+                    task.dependsOn(trainingInstall);
+                    task.getInstallation()
+                            .set(trainingInstall.flatMap(install -> install.getDestinationDirectory()
+                                    .dir(project.provider(
+                                            () -> DistTarTask.archiveRootDir(project, distributionExtension)))));
+                    task.getTrainingArgs().set(classDataSharing.getTrainingArgs());
+                    task.getJavaHome().set(trainingJavaHome);
+                    task.getJavaVersion().set(distributionExtension.getJavaVersion());
+                    task.getTrainingTimeout().set(classDataSharing.getTrainingTimeout());
+                    task.getArchiveFile()
+                            .set(project.getLayout()
+                                    .getBuildDirectory()
+                                    .file(trainingJdk.map(javaHome -> "class-data-sharing/"
+                                            + distributionExtension.getDistributionServiceName().get()
+                                            + "."
+                                            + TrainClassDataSharingTask.archiveExtension(javaHome.getAsFile()))));
+                });
+
+        project.afterEvaluate(_proj -> {
+            trainingInstall.configure(task -> DistTarTask.configureTrainingInstall(
+                    project, task, distributionExtension, jarTask, trainingLaunchConfig));
+            if (distributionExtension.getEnableClassDataSharing().get()) {
+                launchConfig.configure(task -> task.getClassDataSharingArchive()
+                        .set(train.flatMap(TrainClassDataSharingTask::getArchiveFile)));
+            }
+        });
+    }
+
+    /**
+     * Registers an OCI image layout with a layer for the JDK, if there is one, and for each {@link DistributionLayer},
+     * and a tar of the layout. The layer tars are written without file timestamps and in a fixed order, so unchanged
+     * layers are byte for byte the same between builds and keep their digest.
+     */
+    private static void registerOciImage(
+            Project project,
+            JavaServiceDistributionExtension distributionExtension,
+            TaskProvider<Jar> jarTask,
+            List<Object> distributionInputs) {
+        TaskProvider<SlsTarTask> jdkLayer = project.getTasks().register("ociLayerJdk", SlsTarTask.class, task -> {
+            task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+            task.setDescription("Creates the JDK layer of the OCI image.");
+            configureOciLayer(project, task, distributionExtension, "jdk");
+            task.into(OCI_JDK_DIRECTORY.substring(1));
+        });
+
+        TaskProvider<CreateOciImageTask> image = project.getTasks()
+                .register("createOciImage", CreateOciImageTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Creates an OCI image layout of the distribution, without a docker daemon.");
+                    task.getTag().set(project.provider(() -> project.getVersion().toString()));
+                    task.getImageDirectory()
+                            .set(project.getLayout().getBuildDirectory().dir("oci-image"));
+                });
+
+        List<TaskProvider<SlsTarTask>> layerTars = new ArrayList<>();
+        for (DistributionLayer layer : DistributionLayer.values()) {
+            TaskProvider<SlsTarTask> layerTar = project.getTasks()
+                    .register(layer.getOciTaskName(), SlsTarTask.class, task -> {
+                        task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                        task.setDescription(String.format("Creates the %s layer of the OCI image.", layer.getName()));
+                        task.dependsOn(distributionInputs);
+                        task.into(OCI_SERVICES_DIRECTORY.substring(1));
+                    });
+
+            project.afterEvaluate(_proj -> layerTar.configure(task -> {
+                DistTarTask.configureLayer(project, task, distributionExtension, jarTask, layer);
+                configureOciLayer(project, task, distributionExtension, layer.getName());
+            }));
+            layerTars.add(layerTar);
+        }
+
+        project.afterEvaluate(_proj -> {
+            String rootDirectory =
+                    OCI_SERVICES_DIRECTORY + "/" + DistTarTask.archiveRootDir(project, distributionExtension);
+            boolean hasJdk = distributionExtension.getOciJdk().isPresent();
+            if (hasJdk) {
+                jdkLayer.configure(task -> task.from(distributionExtension.getOciJdk()));
+            }
+            image.configure(task -> {
+                if (hasJdk) {
+                    task.getLayers().from(jdkLayer);
+                    task.getEnvironment().put("JAVA_HOME", OCI_JDK_DIRECTORY);
+                    // The default javaHome of the launcher configuration for java 9 and later
+                    task.getEnvironment()
+                            .put(
+                                    "JAVA_" + distributionExtension.getJavaVersion().get().getMajorVersion() + "_HOME",
+                                    OCI_JDK_DIRECTORY);
+                }
+                layerTars.forEach(layerTar -> task.getLayers().from(layerTar));
+                task.getWorkingDirectory().set(rootDirectory);
+                // go-java-launcher is a static binary, so unlike init.sh it needs no shell in the image
+                task.getEntrypoint()
+                        .set(task.getArchitecture()
+                                .map(architecture -> ImmutableList.of(
+                                        rootDirectory + "/service/bin/linux-" + architecture + "/go-java-launcher",
+                                        "service/bin/launcher-static.yml",
+                                        "var/conf/launcher-custom.yml")));
+            });
+        });
+
+        project.getTasks().register("ociImageTar", Tar.class, task -> {
+            task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+            task.setDescription("Creates a tar file of the OCI image layout.");
+            task.from(image);
+            task.getArchiveBaseName().set(distributionExtension.getDistributionServiceName());
+            task.getArchiveExtension().set("oci.tar");
+            task.getDestinationDirectory()
+                    .set(project.getLayout().getBuildDirectory().dir("distributions"));
+            task.setPreserveFileTimestamps(false);
+            task.setReproducibleFileOrder(true);
+        });
+    }
+
+    private static void configureOciLayer(
+            Project project, SlsTarTask task, JavaServiceDistributionExtension distributionExtension, String name) {
+        configureDistTar(task, distributionExtension);
+        task.getArchiveBaseName().set(distributionExtension.getDistributionServiceName());
+        task.getArchiveClassifier().set("oci-" + name);
+        task.getDestinationDirectory().set(project.getLayout().getBuildDirectory().dir("oci-layers"));
+        task.setPreserveFileTimestamps(false);
+        task.setReproducibleFileOrder(true);
     }
 }
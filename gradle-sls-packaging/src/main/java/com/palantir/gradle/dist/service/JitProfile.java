@@ -0,0 +1,240 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import org.gradle.api.GradleException;
+import org.gradle.api.JavaVersion;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+
+/**
+ * How the JIT compilers of {@code launcher-static.yml} trade startup and footprint against peak performance: a
+ * {@link #profile} of defaults, which the other settings override one by one.
+ *
+ * <ul>
+ *   <li>{@code peak} for long-running services: a 512m code cache, and a heap that is touched at startup so that
+ *       it is not paged in while serving.
+ *   <li>{@code startup} for short-lived daemons and batch jobs: only the C1 compiler, whose code is ready sooner, in
+ *       a 64m code cache that is not flushed.
+ *   <li>{@code footprint} for small services: two compiler threads and a 128m code cache.
+ * </ul>
+ */
+public class JitProfile {
+    private static final long MIB = 1024 * 1024;
+    private static final long MAX_CODE_CACHE_SIZE = 2048 * MIB;
+
+    private static final ImmutableMap<String, Defaults> PROFILES = ImmutableMap.of(
+            "peak", new Defaults("512m", null, null, true, true),
+            "startup", new Defaults("64m", 1, null, false, false),
+            "footprint", new Defaults("128m", null, 2, true, false));
+
+    private final Property<String> profile;
+    private final Property<String> reservedCodeCacheSize;
+    private final Property<Integer> tieredStopAtLevel;
+    private final Property<Integer> compilerCount;
+    private final Property<String> nonMethodCodeHeapSize;
+    private final Property<String> profiledCodeHeapSize;
+    private final Property<String> nonProfiledCodeHeapSize;
+    private final Property<Boolean> codeCacheFlushing;
+    private final Property<Boolean> alwaysPreTouch;
+
+    @Inject
+    public JitProfile(ObjectFactory objectFactory) {
+        profile = objectFactory.property(String.class).value("peak");
+        reservedCodeCacheSize = objectFactory.property(String.class);
+        tieredStopAtLevel = objectFactory.property(Integer.class);
+        compilerCount = objectFactory.property(Integer.class);
+        nonMethodCodeHeapSize = objectFactory.property(String.class);
+        profiledCodeHeapSize = objectFactory.property(String.class);
+        nonProfiledCodeHeapSize = objectFactory.property(String.class);
+        codeCacheFlushing = objectFactory.property(Boolean.class);
+        alwaysPreTouch = objectFactory.property(Boolean.class);
+    }
+
+    public final Provider<String> getProfile() {
+        return profile;
+    }
+
+    /** The defaults of the other settings: {@code peak}, {@code startup} or {@code footprint}. Defaults to peak. */
+    public final void profile(String newProfile) {
+        this.profile.set(newProfile);
+    }
+
+    /** The size of the code cache, {@code -XX:ReservedCodeCacheSize}, at most 2g. */
+    public final void reservedCodeCacheSize(String newReservedCodeCacheSize) {
+        this.reservedCodeCacheSize.set(newReservedCodeCacheSize);
+    }
+
+    /** The highest tier of compilation, {@code -XX:TieredStopAtLevel}: 1 to 3 for C1 only, or 4 for C2. */
+    public final void tieredStopAtLevel(int newTieredStopAtLevel) {
+        this.tieredStopAtLevel.set(newTieredStopAtLevel);
+    }
+
+    /** The number of compiler threads, {@code -XX:CICompilerCount}, at least 2 unless only C1 compiles. */
+    public final void compilerCount(int newCompilerCount) {
+        this.compilerCount.set(newCompilerCount);
+    }
+
+    /**
+     * The size of the code heap of the JVM's own code, such as the interpreter, with the segmented code cache of java 9
+     * and later. The three code heap sizes are set together, and the code cache defaults to their sum.
+     */
+    public final void nonMethodCodeHeapSize(String newNonMethodCodeHeapSize) {
+        this.nonMethodCodeHeapSize.set(newNonMethodCodeHeapSize);
+    }
+
+    /** The size of the code heap of methods compiled by C1 with profiling, see {@link #nonMethodCodeHeapSize}. */
+    public final void profiledCodeHeapSize(String newProfiledCodeHeapSize) {
+        this.profiledCodeHeapSize.set(newProfiledCodeHeapSize);
+    }
+
+    /** The size of the code heap of fully optimized methods, see {@link #nonMethodCodeHeapSize}. */
+    public final void nonProfiledCodeHeapSize(String newNonProfiledCodeHeapSize) {
+        this.nonProfiledCodeHeapSize.set(newNonProfiledCodeHeapSize);
+    }
+
+    /** Whether the JVM flushes cold compiled methods from a filling code cache, {@code -XX:+UseCodeCacheFlushing}. */
+    public final void codeCacheFlushing(boolean newCodeCacheFlushing) {
+        this.codeCacheFlushing.set(newCodeCacheFlushing);
+    }
+
+    /**
+     * Whether the JVM touches every page of the heap at startup, {@code -XX:+AlwaysPreTouch}, which makes startup
+     * slower by the time to page in {@code -Xms} and commits that much memory, as a
+     * {@link JavaServiceDistributionExtension#memory memory budget} expects.
+     */
+    public final void alwaysPreTouch(boolean newAlwaysPreTouch) {
+        this.alwaysPreTouch.set(newAlwaysPreTouch);
+    }
+
+    /** The options of the profile and the settings that override it, which fail on values java cannot take. */
+    public final List<String> jvmOpts(JavaVersion javaVersion) {
+        Defaults defaults = PROFILES.get(profile.get());
+        if (defaults == null) {
+            throw new GradleException(String.format(
+                    "The jit profile must be one of %s, but is '%s'", PROFILES.keySet(), profile.get()));
+        }
+        ImmutableList.Builder<String> options = ImmutableList.builder();
+
+        Integer level = tieredStopAtLevel.isPresent() ? tieredStopAtLevel.get() : defaults.tieredStopAtLevel;
+        if (level != null) {
+            if (level < 0 || level > 4) {
+                throw new GradleException("The tiered stop level must be from 0 to 4, but is " + level);
+            }
+            options.add("-XX:TieredStopAtLevel=" + level);
+        }
+        Integer compilers = compilerCount.isPresent() ? compilerCount.get() : defaults.compilerCount;
+        if (compilers != null) {
+            int minimum = level != null && level < 4 ? 1 : 2;
+            if (compilers < minimum) {
+                throw new GradleException(String.format(
+                        "The compiler count must be at least %d%s, but is %d",
+                        minimum, minimum == 2 ? " when C2 compiles" : "", compilers));
+            }
+            options.add("-XX:CICompilerCount=" + compilers);
+        }
+
+        Map<String, String> codeHeapSizes = codeHeapSizes();
+        long codeCacheSize;
+        if (reservedCodeCacheSize.isPresent()) {
+            codeCacheSize = MemoryBudget.parseSize(reservedCodeCacheSize.get());
+        } else if (!codeHeapSizes.isEmpty()) {
+            codeCacheSize = codeHeapSizes.values().stream().mapToLong(MemoryBudget::parseSize).sum();
+        } else {
+            codeCacheSize = MemoryBudget.parseSize(defaults.reservedCodeCacheSize);
+        }
+        if (codeCacheSize > MAX_CODE_CACHE_SIZE) {
+            throw new GradleException(String.format(
+                    "The code cache must be at most 2g, but is %dm", codeCacheSize / MIB));
+        }
+        options.add("-XX:ReservedCodeCacheSize="
+                + (codeCacheSize % MIB == 0 ? codeCacheSize / MIB + "m" : codeCacheSize / 1024 + "k"));
+        if (!codeHeapSizes.isEmpty()) {
+            // The segmented code cache is from java 9: https://openjdk.org/jeps/197
+            if (javaVersion.compareTo(JavaVersion.VERSION_1_9) < 0) {
+                throw new GradleException("The code heap sizes need the segmented code cache of java 9 or later, "
+                        + "but the distribution runs on java " + javaVersion.getMajorVersion());
+            }
+            long codeHeapsSize = codeHeapSizes.values().stream().mapToLong(MemoryBudget::parseSize).sum();
+            if (codeHeapsSize > codeCacheSize) {
+                throw new GradleException(String.format(
+                        "The code heap sizes %s add up to more than the code cache of %dm",
+                        codeHeapSizes, codeCacheSize / MIB));
+            }
+            options.add("-XX:+SegmentedCodeCache");
+            codeHeapSizes.forEach((flag, size) -> options.add("-XX:" + flag + "=" + size));
+        }
+
+        boolean flushing = codeCacheFlushing.getOrElse(defaults.codeCacheFlushing);
+        options.add(flushing ? "-XX:+UseCodeCacheFlushing" : "-XX:-UseCodeCacheFlushing");
+        boolean preTouch = alwaysPreTouch.getOrElse(defaults.alwaysPreTouch);
+        options.add(preTouch ? "-XX:+AlwaysPreTouch" : "-XX:-AlwaysPreTouch");
+        return options.build();
+    }
+
+    /** The options of the code heap sizes, which are all set or none. */
+    private Map<String, String> codeHeapSizes() {
+        if (!nonMethodCodeHeapSize.isPresent()
+                && !profiledCodeHeapSize.isPresent()
+                && !nonProfiledCodeHeapSize.isPresent()) {
+            return ImmutableMap.of();
+        }
+        if (!nonMethodCodeHeapSize.isPresent()
+                || !profiledCodeHeapSize.isPresent()
+                || !nonProfiledCodeHeapSize.isPresent()) {
+            throw new GradleException("The code heap sizes must be set together: nonMethodCodeHeapSize, "
+                    + "profiledCodeHeapSize and nonProfiledCodeHeapSize");
+        }
+        return ImmutableMap.of(
+                "NonNMethodCodeHeapSize", nonMethodCodeHeapSize.get(),
+                "ProfiledCodeHeapSize", profiledCodeHeapSize.get(),
+                "NonProfiledCodeHeapSize", nonProfiledCodeHeapSize.get());
+    }
+
+    private static final class Defaults {
+        private final String reservedCodeCacheSize;
+
+        @Nullable
+        private final Integer tieredStopAtLevel;
+
+        @Nullable
+        private final Integer compilerCount;
+
+        private final boolean codeCacheFlushing;
+        private final boolean alwaysPreTouch;
+
+        Defaults(
+                String reservedCodeCacheSize,
+                @Nullable Integer tieredStopAtLevel,
+                @Nullable Integer compilerCount,
+                boolean codeCacheFlushing,
+                boolean alwaysPreTouch) {
+            this.reservedCodeCacheSize = reservedCodeCacheSize;
+            this.tieredStopAtLevel = tieredStopAtLevel;
+            this.compilerCount = compilerCount;
+            this.codeCacheFlushing = codeCacheFlushing;
+            this.alwaysPreTouch = alwaysPreTouch;
+        }
+    }
+}
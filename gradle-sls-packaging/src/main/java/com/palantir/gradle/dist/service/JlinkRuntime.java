@@ -0,0 +1,69 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service;
+
+import java.io.File;
+import java.util.List;
+import javax.inject.Inject;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Provider;
+
+/**
+ * How {@code jlinkRuntime} links the java runtime that the distribution ships in {@code service/jre}: from the modules
+ * of the {@link #jdk}, with the modules that the jars of {@code service/lib} refer to and the
+ * {@link #addModules added modules}.
+ */
+public class JlinkRuntime {
+    /** Where the distribution has the runtime, relative to its root directory. */
+    public static final String DIRECTORY = "service/jre";
+
+    private final DirectoryProperty jdk;
+    private final ListProperty<String> addModules;
+
+    @Inject
+    public JlinkRuntime(ObjectFactory objectFactory) {
+        jdk = objectFactory.directoryProperty().fileValue(new File(System.getProperty("java.home")));
+        addModules = objectFactory.listProperty(String.class).empty();
+    }
+
+    public final Provider<Directory> getJdk() {
+        return jdk;
+    }
+
+    /**
+     * The JDK whose modules are linked, which defaults to the one running gradle. Its version must be the
+     * {@code javaVersion} of the distribution.
+     */
+    public final void jdk(File newJdk) {
+        this.jdk.set(newJdk);
+    }
+
+    public final Provider<List<String>> getAddModules() {
+        return addModules;
+    }
+
+    /**
+     * Modules to link that the jars do not refer to directly, such as {@code jdk.crypto.ec} for elliptic curve TLS,
+     * {@code jdk.localedata} for locales other than english, or {@code jdk.jfr} for flight recordings.
+     */
+    public final void addModules(String... modules) {
+        this.addModules.addAll(modules);
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import org.gradle.api.GradleException;
+
+/**
+ * A content-addressed archive of the third-party jars of every service distribution in a build, which thin
+ * distributions load their dependencies from. Each jar is stored as {@code library-pool/<sha256>/<file name>}, so pools
+ * of different versions extract into the same directory without conflicts, and a jar shared by many services is only
+ * stored once.
+ */
+public final class LibraryPool {
+    /** The root directory of the library pool archive. */
+    public static final String ROOT_DIRECTORY = "library-pool";
+
+    private LibraryPool() {}
+
+    /** Path of the jar relative to {@link #ROOT_DIRECTORY}. */
+    public static String pathOf(File jar) {
+        try {
+            return Files.asByteSource(jar).hash(Hashing.sha256()) + "/" + jar.getName();
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not hash '%s'", jar), e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service;
+
+import com.palantir.gradle.dist.archive.SlsTarTask;
+import org.gradle.api.InvalidUserCodeException;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.file.DuplicatesStrategy;
+import org.gradle.api.tasks.TaskProvider;
+
+/**
+ * Applied to the root project, packages the third-party jars of every Java service distribution in the build into one
+ * {@link LibraryPool} archive, and publishes it on the {@value #LIBRARY_POOL_CONFIGURATION_NAME} configuration.
+ */
+public final class LibraryPoolPlugin implements Plugin<Project> {
+    public static final String LIBRARY_POOL_CONFIGURATION_NAME = "libraryPool";
+
+    @Override
+    public void apply(Project project) {
+        if (project != project.getRootProject()) {
+            throw new InvalidUserCodeException(
+                    "The 'com.palantir.sls-library-pool' plugin must be applied to the root project.");
+        }
+
+        TaskProvider<SlsTarTask> libraryPoolTar = project.getTasks()
+                .register("libraryPoolTar", SlsTarTask.class, task -> {
+                    task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
+                    task.setDescription("Creates a compressed tar file of the third-party jars of every service "
+                            + "distribution, stored by their SHA-256.");
+                    task.getArchiveBaseName().set(LibraryPool.ROOT_DIRECTORY);
+                    // Services share most of their jars, and a path is only ever used for identical content
+                    task.setDuplicatesStrategy(DuplicatesStrategy.EXCLUDE);
+                    SlsTarTask.configureCompressionCache(task);
+                });
+
+        project.allprojects(service -> service.getPlugins()
+                .withType(JavaServiceDistributionPlugin.class, _plugin -> libraryPoolTar.configure(task ->
+                        task.into(LibraryPool.ROOT_DIRECTORY, spec -> {
+                            spec.from(DistTarTask.dependencyJars(service));
+                            spec.eachFile(details -> details.setPath(
+                                    LibraryPool.ROOT_DIRECTORY + "/" + LibraryPool.pathOf(details.getFile())));
+                        }))));
+
+        Configuration libraryPool = project.getConfigurations().create(LIBRARY_POOL_CONFIGURATION_NAME, conf -> {
+            conf.setCanBeResolved(false);
+            conf.setCanBeConsumed(true);
+        });
+        project.getArtifacts().add(libraryPool.getName(), libraryPoolTar);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableList;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.inject.Inject;
+import org.gradle.api.GradleException;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.immutables.value.Value;
+
+/**
+ * How the memory limit of the service's container is divided between the parts of the JVM that use memory: the heap,
+ * direct buffers, metaspace, the code cache, thread stacks, and native memory for everything else, such as the
+ * garbage collector, the JIT compilers and malloc. The launchers cap each part with its JVM option, so that together
+ * they stay within the limit, see {@link Budget}.
+ */
+public class MemoryBudget {
+    private static final long MIB = 1024 * 1024;
+    private static final Pattern SIZE = Pattern.compile("(\\d+)([kmgt]?)");
+
+    private final Property<String> containerLimit;
+    private final Property<Double> heapFraction;
+    private final Property<String> directMemory;
+    private final Property<String> metaspace;
+    private final Property<String> codeCache;
+    private final Property<Integer> threads;
+    private final Property<String> threadStackSize;
+    private final Property<String> nativeOverhead;
+    private final Property<Integer> mallocArenaMax;
+
+    @Inject
+    public MemoryBudget(ObjectFactory objectFactory) {
+        containerLimit = objectFactory.property(String.class);
+        heapFraction = objectFactory.property(Double.class).value(0.5);
+        directMemory = objectFactory.property(String.class);
+        metaspace = objectFactory.property(String.class).value("256m");
+        codeCache = objectFactory.property(String.class).value("240m");
+        threads = objectFactory.property(Integer.class).value(200);
+        threadStackSize = objectFactory.property(String.class).value("1m");
+        nativeOverhead = objectFactory.property(String.class);
+        mallocArenaMax = objectFactory.property(Integer.class).value(2);
+    }
+
+    public final Provider<String> getContainerLimit() {
+        return containerLimit;
+    }
+
+    /** The memory limit of the container, in the size syntax of JVM options such as {@code 8g} or {@code 512m}. */
+    public final void containerLimit(String newContainerLimit) {
+        this.containerLimit.set(newContainerLimit);
+    }
+
+    /**
+     * The fraction of the container limit that is heap, {@code -Xmx} and {@code -Xms}, strictly between 0 and 1.
+     * Defaults to 0.5.
+     */
+    public final void heapFraction(double newHeapFraction) {
+        if (!(newHeapFraction > 0 && newHeapFraction < 1)) {
+            throw new GradleException(String.format(
+                    "The heap fraction must be greater than 0 and less than 1, but was %s", newHeapFraction));
+        }
+        this.heapFraction.set(newHeapFraction);
+    }
+
+    /** The limit of direct buffers, {@code -XX:MaxDirectMemorySize}. Defaults to a tenth of the container limit. */
+    public final void directMemory(String newDirectMemory) {
+        this.directMemory.set(newDirectMemory);
+    }
+
+    /** The limit of class metadata, {@code -XX:MaxMetaspaceSize}. Defaults to 256m. */
+    public final void metaspace(String newMetaspace) {
+        this.metaspace.set(newMetaspace);
+    }
+
+    /** The size of the code cache of the JIT compilers, {@code -XX:ReservedCodeCacheSize}. Defaults to 240m. */
+    public final void codeCache(String newCodeCache) {
+        this.codeCache.set(newCodeCache);
+    }
+
+    /** The number of threads to budget stacks for. Defaults to 200. */
+    public final void threads(int newThreads) {
+        this.threads.set(newThreads);
+    }
+
+    /** The stack size of each thread, {@code -Xss}. Defaults to 1m. */
+    public final void threadStackSize(String newThreadStackSize) {
+        this.threadStackSize.set(newThreadStackSize);
+    }
+
+    /**
+     * The native memory to leave for everything else, such as the garbage collector, the JIT compilers, malloc and
+     * memory mapped files. Defaults to a tenth of the container limit.
+     */
+    public final void nativeOverhead(String newNativeOverhead) {
+        this.nativeOverhead.set(newNativeOverhead);
+    }
+
+    /** The {@code MALLOC_ARENA_MAX} of the environment, which bounds how far glibc malloc fragments. Defaults to 2. */
+    public final void mallocArenaMax(int newMallocArenaMax) {
+        this.mallocArenaMax.set(newMallocArenaMax);
+    }
+
+    /** The budget in bytes, which is absent until there is a {@link #containerLimit}. */
+    public final Provider<Budget> getBudget() {
+        return containerLimit.map(limit -> {
+            long containerLimitBytes = parseSize(limit);
+            long tenth = containerLimitBytes / 10;
+            return Budget.builder()
+                    .containerLimit(containerLimitBytes)
+                    .heap((long) (containerLimitBytes * heapFraction.get()))
+                    .directMemory(directMemory.isPresent() ? parseSize(directMemory.get()) : tenth)
+                    .metaspace(parseSize(metaspace.get()))
+                    .codeCache(parseSize(codeCache.get()))
+                    .threads(threads.get())
+                    .threadStackSize(parseSize(threadStackSize.get()))
+                    .nativeOverhead(nativeOverhead.isPresent() ? parseSize(nativeOverhead.get()) : tenth)
+                    .mallocArenaMax(mallocArenaMax.get())
+                    .build();
+        });
+    }
+
+    /** The bytes of a size such as {@code 8g}, {@code 512M} or {@code 1024}, as JVM options take them. */
+    public static long parseSize(String size) {
+        Matcher matcher = SIZE.matcher(size.trim().toLowerCase(Locale.ROOT));
+        if (!matcher.matches()) {
+            throw new GradleException(String.format("'%s' is not a size such as 8g, 512m or 1024k", size));
+        }
+        long value = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2)) {
+            case "k":
+                return value * 1024;
+            case "m":
+                return value * MIB;
+            case "g":
+                return value * 1024 * MIB;
+            case "t":
+                return value * 1024 * 1024 * MIB;
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * The bytes of each part of a {@link MemoryBudget}, which is written to the {@code memory-budget} extension of the
+     * manifest for schedulers, with the JVM options that cap them.
+     */
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableBudget.class)
+    @JsonDeserialize(as = ImmutableBudget.class)
+    public interface Budget extends Serializable {
+        @JsonProperty("container-limit")
+        long containerLimit();
+
+        @JsonProperty("heap")
+        long heap();
+
+        @JsonProperty("direct-memory")
+        long directMemory();
+
+        @JsonProperty("metaspace")
+        long metaspace();
+
+        @JsonProperty("code-cache")
+        long codeCache();
+
+        @JsonProperty("threads")
+        int threads();
+
+        @JsonProperty("thread-stack-size")
+        long threadStackSize();
+
+        @JsonProperty("native-overhead")
+        long nativeOverhead();
+
+        @JsonProperty("malloc-arena-max")
+        int mallocArenaMax();
+
+        /** The memory that the JVM may use in total, which must fit into the {@link #containerLimit}. */
+        @Value.Derived
+        @JsonProperty("committed")
+        default long committed() {
+            return heap() + directMemory() + metaspace() + codeCache() + threads() * threadStackSize()
+                    + nativeOverhead();
+        }
+
+        /** The options that cap each part, in megabytes, rounded down. */
+        default List<String> jvmOpts() {
+            return ImmutableList.of(
+                    "-Xmx" + heap() / MIB + "m",
+                    "-Xms" + heap() / MIB + "m",
+                    "-XX:MaxDirectMemorySize=" + directMemory() / MIB + "m",
+                    "-XX:MaxMetaspaceSize=" + metaspace() / MIB + "m",
+                    "-XX:ReservedCodeCacheSize=" + codeCache() / MIB + "m",
+                    "-Xss" + threadStackSize() / 1024 + "k");
+        }
+
+        /** This budget with the parts that later options of {@code jvmOpts} set explicitly, as the JVM applies them. */
+        default Budget withExplicitOptions(List<String> jvmOpts) {
+            Builder budget = builder().from(this);
+            for (String option : jvmOpts) {
+                if (option.startsWith("-Xmx")) {
+                    budget.heap(parseSize(option.substring("-Xmx".length())));
+                } else if (option.startsWith("-XX:MaxDirectMemorySize=")) {
+                    budget.directMemory(parseSize(option.substring("-XX:MaxDirectMemorySize=".length())));
+                } else if (option.startsWith("-XX:MaxMetaspaceSize=")) {
+                    budget.metaspace(parseSize(option.substring("-XX:MaxMetaspaceSize=".length())));
+                } else if (option.startsWith("-XX:ReservedCodeCacheSize=")) {
+                    budget.codeCache(parseSize(option.substring("-XX:ReservedCodeCacheSize=".length())));
+                } else if (option.startsWith("-Xss")) {
+                    budget.threadStackSize(parseSize(option.substring("-Xss".length())));
+                } else if (option.startsWith("-XX:ThreadStackSize=")) {
+                    // In kilobytes
+                    budget.threadStackSize(1024 * parseSize(option.substring("-XX:ThreadStackSize=".length())));
+                }
+            }
+            return budget.build();
+        }
+
+        /** Fails if the parts of the budget add up to more than the container limit. */
+        default void check(String source) {
+            if (committed() <= containerLimit()) {
+                return;
+            }
+            throw new GradleException(String.format(
+                    "The memory budget of %s overcommits the container limit of %dm by %dm: heap %dm, direct memory "
+                            + "%dm, metaspace %dm, code cache %dm, %d thread stacks of %dk and native overhead %dm. "
+                            + "Lower these in distribution.memory or in the explicit options.",
+                    source,
+                    containerLimit() / MIB,
+                    (committed() - containerLimit() + MIB - 1) / MIB,
+                    heap() / MIB,
+                    directMemory() / MIB,
+                    metaspace() / MIB,
+                    codeCache() / MIB,
+                    threads(),
+                    threadStackSize() / 1024,
+                    nativeOverhead() / MIB));
+        }
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableBudget.Builder {}
+    }
+}
@@ -19,23 +19,64 @@ package com.palantir.gradle.dist.service.gc;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.palantir.gradle.dist.service.MemoryBudget;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.gradle.api.GradleException;
 import org.gradle.api.JavaVersion;
 
 public interface GcProfile extends Serializable {
     long serialVersionUID = 1L;
 
     @VisibleForTesting
-    ImmutableMap<String, Class<? extends GcProfile>> PROFILE_NAMES = ImmutableMap.of(
-            "throughput", GcProfile.Throughput.class,
-            "response-time", GcProfile.ResponseTime.class,
-            "hybrid", GcProfile.Hybrid.class,
-            "dangerous-no-profile", GcProfile.NoProfile.class);
+    ImmutableMap<String, Class<? extends GcProfile>> PROFILE_NAMES =
+            ImmutableMap.<String, Class<? extends GcProfile>>builder()
+                    .put("throughput", GcProfile.Throughput.class)
+                    .put("response-time", GcProfile.ResponseTime.class)
+                    .put("hybrid", GcProfile.Hybrid.class)
+                    .put("g1", GcProfile.G1.class)
+                    .put("zgc", GcProfile.Zgc.class)
+                    .put("shenandoah", GcProfile.Shenandoah.class)
+                    .put("dangerous-no-profile", GcProfile.NoProfile.class)
+                    .build();
 
     List<String> gcJvmOpts(JavaVersion javaVersion);
 
+    /** The major version of the first java whose JVM has the collector of this profile. */
+    default int minimumJavaVersion() {
+        return 8;
+    }
+
+    /** Fails if the distribution's java version is older than the {@link #minimumJavaVersion()} of the profile. */
+    static void checkJavaVersion(GcProfile profile, JavaVersion javaVersion) {
+        if (javaVersion.compareTo(JavaVersion.toVersion(profile.minimumJavaVersion())) >= 0) {
+            return;
+        }
+        String name = PROFILE_NAMES.entrySet().stream()
+                .filter(entry -> entry.getValue().isInstance(profile))
+                .map(Map.Entry::getKey)
+                .findFirst()
+                .orElseGet(() -> profile.getClass().getName());
+        throw new GradleException(String.format(
+                "The gc profile '%s' needs java %d or later, but the distribution runs on java %s",
+                name, profile.minimumJavaVersion(), javaVersion.getMajorVersion()));
+    }
+
+    /**
+     * Whether {@code javaVersion} is known to be java {@code majorVersion} or later. Gradle lumps the versions after
+     * the last one it knows together as {@link JavaVersion#VERSION_HIGHER}, which is not known to be any of them.
+     */
+    static boolean isAtLeast(JavaVersion javaVersion, int majorVersion) {
+        JavaVersion version = JavaVersion.toVersion(majorVersion);
+        boolean known = version != JavaVersion.VERSION_HIGHER
+                || majorVersion == Integer.parseInt(JavaVersion.VERSION_HIGHER.getMajorVersion());
+        return known && javaVersion.compareTo(version) >= 0;
+    }
+
     class Throughput implements GcProfile {
         @Override
         public final List<String> gcJvmOpts(JavaVersion _javaVersion) {
@@ -96,6 +137,176 @@ public interface GcProfile extends Serializable {
         }
     }
 
+    /**
+     * G1 with a pause time target, a fixed initiating heap occupancy and a region size, which {@link Hybrid} leaves to
+     * the JVM.
+     */
+    class G1 implements GcProfile {
+        private static final long MIN_REGION_SIZE = 1024 * 1024;
+
+        @Nullable
+        private Integer maxGcPauseMillis;
+
+        @Nullable
+        private Integer initiatingHeapOccupancyPercent;
+
+        @Nullable
+        private String regionSize;
+
+        @Override
+        public final List<String> gcJvmOpts(JavaVersion javaVersion) {
+            ImmutableList.Builder<String> options = ImmutableList.<String>builder().add("-XX:+UseG1GC");
+            if (maxGcPauseMillis != null) {
+                options.add("-XX:MaxGCPauseMillis=" + maxGcPauseMillis);
+            }
+            if (initiatingHeapOccupancyPercent != null) {
+                options.add("-XX:InitiatingHeapOccupancyPercent=" + initiatingHeapOccupancyPercent);
+                // From java 9 the JVM adapts the occupancy and only starts from this one:
+                // https://bugs.openjdk.org/browse/JDK-8136677
+                if (javaVersion.compareTo(JavaVersion.VERSION_1_9) >= 0) {
+                    options.add("-XX:-G1UseAdaptiveIHOP");
+                }
+            }
+            if (regionSize != null) {
+                // Regions larger than 32m are supported from java 18: https://bugs.openjdk.org/browse/JDK-8275056
+                long maxRegionSize = (isAtLeast(javaVersion, 18) ? 512 : 32) * MIN_REGION_SIZE;
+                long bytes = MemoryBudget.parseSize(regionSize);
+                if (bytes < MIN_REGION_SIZE || bytes > maxRegionSize || Long.bitCount(bytes) != 1) {
+                    throw new GradleException(String.format(
+                            "The G1 region size must be a power of two from 1m to %dm, but is '%s'",
+                            maxRegionSize / MIN_REGION_SIZE, regionSize));
+                }
+                options.add("-XX:G1HeapRegionSize=" + regionSize);
+            }
+            return options.build();
+        }
+
+        /** The pause time that G1 aims for, {@code -XX:MaxGCPauseMillis}. The JVM defaults it to 200. */
+        public final void maxGcPauseMillis(int millis) {
+            this.maxGcPauseMillis = millis;
+        }
+
+        /** The heap occupancy that starts a concurrent marking cycle, which also turns off adaptive IHOP. */
+        public final void initiatingHeapOccupancyPercent(int percent) {
+            this.initiatingHeapOccupancyPercent = percent;
+        }
+
+        /** The size of G1's heap regions, {@code -XX:G1HeapRegionSize}, such as {@code 16m}. */
+        public final void regionSize(String size) {
+            this.regionSize = size;
+        }
+    }
+
+    /** Generational ZGC, https://openjdk.org/jeps/439. */
+    class Zgc implements GcProfile {
+        @Nullable
+        private Double allocationSpikeTolerance;
+
+        @Nullable
+        private String softMaxHeapSize;
+
+        @Override
+        public final int minimumJavaVersion() {
+            return 21;
+        }
+
+        @Override
+        public final List<String> gcJvmOpts(JavaVersion javaVersion) {
+            ImmutableList.Builder<String> options = ImmutableList.<String>builder().add("-XX:+UseZGC");
+            // Generational ZGC is the default from java 23 and the only mode from java 24: https://openjdk.org/jeps/490
+            if (!isAtLeast(javaVersion, 23)) {
+                options.add("-XX:+ZGenerational");
+            }
+            if (allocationSpikeTolerance != null) {
+                options.add("-XX:ZAllocationSpikeTolerance=" + allocationSpikeTolerance);
+            }
+            if (softMaxHeapSize != null) {
+                options.add("-XX:SoftMaxHeapSize=" + softMaxHeapSize);
+            }
+            return options.build();
+        }
+
+        /**
+         * How far ZGC expects the allocation rate to spike above its average when it decides to start a cycle,
+         * {@code -XX:ZAllocationSpikeTolerance}. The JVM defaults it to 2.
+         */
+        public final void allocationSpikeTolerance(double tolerance) {
+            this.allocationSpikeTolerance = tolerance;
+        }
+
+        /** The heap size that ZGC tries to stay below unless it would stall, {@code -XX:SoftMaxHeapSize}. */
+        public final void softMaxHeapSize(String size) {
+            this.softMaxHeapSize = size;
+        }
+    }
+
+    /** Shenandoah, https://openjdk.org/jeps/379, which not all builds of the JDK include. */
+    class Shenandoah implements GcProfile {
+        private static final ImmutableSet<String> MODES = ImmutableSet.of("satb", "iu");
+        private static final ImmutableSet<String> HEURISTICS = ImmutableSet.of("adaptive", "static", "compact");
+
+        @Nullable
+        private String mode;
+
+        @Nullable
+        private String heuristics;
+
+        @Override
+        public final int minimumJavaVersion() {
+            return 12;
+        }
+
+        @Override
+        public final List<String> gcJvmOpts(JavaVersion javaVersion) {
+            ImmutableList.Builder<String> options = ImmutableList.builder();
+            // Shenandoah is experimental until java 15: https://openjdk.org/jeps/379
+            boolean experimental = javaVersion.compareTo(JavaVersion.toVersion("15")) < 0 || "iu".equals(mode);
+            if (experimental) {
+                options.add("-XX:+UnlockExperimentalVMOptions");
+            }
+            options.add("-XX:+UseShenandoahGC");
+            if (mode != null) {
+                if (!MODES.contains(mode)) {
+                    throw new GradleException(
+                            String.format("The Shenandoah mode must be one of %s, but is '%s'", MODES, mode));
+                }
+                // The satb and iu modes are from java 14 and iu was removed in java 23:
+                // https://bugs.openjdk.org/browse/JDK-8315044
+                if (javaVersion.compareTo(JavaVersion.toVersion("14")) < 0
+                        || ("iu".equals(mode) && isAtLeast(javaVersion, 23))) {
+                    throw new GradleException(String.format(
+                            "The Shenandoah mode '%s' is not supported on java %s",
+                            mode, javaVersion.getMajorVersion()));
+                }
+                options.add("-XX:ShenandoahGCMode=" + mode);
+            }
+            if (heuristics != null) {
+                if (!HEURISTICS.contains(heuristics)) {
+                    throw new GradleException(String.format(
+                            "The Shenandoah heuristics must be one of %s, but is '%s'", HEURISTICS, heuristics));
+                }
+                options.add("-XX:ShenandoahGCHeuristics=" + heuristics);
+            }
+            return options.add("-XX:+ExplicitGCInvokesConcurrent").build();
+        }
+
+        /**
+         * How Shenandoah keeps track of the objects that change while it marks, {@code -XX:ShenandoahGCMode}: the
+         * default {@code satb}, or the experimental {@code iu}.
+         */
+        public final void mode(String newMode) {
+            this.mode = newMode;
+        }
+
+        /**
+         * How Shenandoah decides when to start a cycle, {@code -XX:ShenandoahGCHeuristics}: the default
+         * {@code adaptive}, {@code static} at a fixed occupancy, or {@code compact} to keep the footprint small.
+         */
+        public final void heuristics(String newHeuristics) {
+            this.heuristics = newHeuristics;
+        }
+    }
+
     /**
      * This GC profile does not apply any JVM flags which allows services to override GC settings without needing to
      * unset preconfigured flags.
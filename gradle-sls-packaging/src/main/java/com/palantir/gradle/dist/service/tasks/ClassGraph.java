@@ -0,0 +1,295 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.ByteStreams;
+import com.palantir.gradle.dist.ObjectMappers;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * The classes of a classpath and the references between them, see {@link ClassReferences}. Classes are read from
+ * their jar or directory when they are first reached, so unreachable classes are never parsed. When a classpath has
+ * the same class more than once, the first one wins, as with the JVM.
+ *
+ * <p>A multi-release jar may load a {@code META-INF/versions/N} class instead of its base version on java N and later,
+ * and those classes may refer to classes that only exist for those versions. Since the JVM that runs the service picks
+ * the version, every version up to the java version of the service counts as the class: a class reaches what any of
+ * its versions refers to, and a class that only exists in versioned form is still on the classpath.
+ */
+final class ClassGraph implements Closeable {
+    private static final String SERVICES = "META-INF/services/";
+
+    // Classes of multi-release jars for later java versions, which the JVM may load instead of the base version
+    private static final Pattern VERSIONED_CLASS = Pattern.compile("META-INF/versions/(\\d+)/(.+)\\.class");
+
+    private final List<ZipFile> zipFiles = new ArrayList<>();
+    private final int javaVersion;
+    private final Map<String, ClassSource> classes = new HashMap<>();
+    private final ListMultimap<String, ClassSource> versionedClasses = ArrayListMultimap.create();
+    private final Map<File, Set<String>> classesByFile = new HashMap<>();
+    private final SetMultimap<String, String> serviceProviders = HashMultimap.create();
+    private final Set<String> reflectedClasses = new HashSet<>();
+
+    private ClassGraph(int javaVersion) {
+        this.javaVersion = javaVersion;
+    }
+
+    /**
+     * Indexes the classes, service providers and reflection configuration of the jars and directories, for a service
+     * that runs on the given major java version.
+     */
+    static ClassGraph open(Iterable<File> classpath, int javaVersion) throws IOException {
+        ClassGraph graph = new ClassGraph(javaVersion);
+        try {
+            for (File file : classpath) {
+                if (file.isDirectory()) {
+                    graph.indexDirectory(file);
+                } else if (file.isFile()) {
+                    graph.indexJar(file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            graph.close();
+            throw e;
+        }
+        return graph;
+    }
+
+    /** Internal names of the classes of the given jar or directory, also those that another file shadows. */
+    Set<String> classesOf(File file) {
+        return classesByFile.getOrDefault(file, Collections.emptySet());
+    }
+
+    Set<String> allClasses() {
+        Set<String> all = new HashSet<>(classes.keySet());
+        all.addAll(versionedClasses.keySet());
+        return Collections.unmodifiableSet(all);
+    }
+
+    /**
+     * Classes named in GraalVM style {@code META-INF/native-image/**}{@code /reflect-config.json} files, which
+     * libraries ship for the classes they load reflectively.
+     */
+    Set<String> reflectedClasses() {
+        return Collections.unmodifiableSet(reflectedClasses);
+    }
+
+    /**
+     * Returns the internal names of the classes reachable from {@code roots}, including the roots that are on the
+     * classpath. Reaching a service interface reaches its {@code META-INF/services} providers, and providers of
+     * services that are not on the classpath, such as those of the JDK, are always reached.
+     */
+    Set<String> reachableFrom(Set<String> roots) throws IOException {
+        Set<String> reachable = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(roots);
+        for (String service : serviceProviders.keySet()) {
+            if (!contains(service)) {
+                pending.addAll(serviceProviders.get(service));
+            }
+        }
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (!contains(name) || !reachable.add(name)) {
+                continue;
+            }
+            for (ClassSource source : sourcesOf(name)) {
+                for (String reference : ClassReferences.of(source.read())) {
+                    if (!reachable.contains(reference)) {
+                        pending.push(reference);
+                    }
+                }
+            }
+            pending.addAll(serviceProviders.get(name));
+        }
+        return reachable;
+    }
+
+    /**
+     * Returns the internal names of the classes that the classes of the classpath may refer to, or that it provides
+     * services of, but that are not on the classpath, such as those of the JDK.
+     */
+    Set<String> externalReferences() throws IOException {
+        Set<String> external = new HashSet<>();
+        for (ClassSource source : Iterables.concat(classes.values(), versionedClasses.values())) {
+            for (String reference : ClassReferences.of(source.read())) {
+                if (!contains(reference)) {
+                    external.add(reference);
+                }
+            }
+        }
+        for (String service : serviceProviders.keySet()) {
+            if (!contains(service)) {
+                external.add(service);
+            }
+        }
+        return external;
+    }
+
+    /** The class that a jar entry or relative path of a directory holds, or null if it is not a class file. */
+    @Nullable
+    static String classNameOf(String path) {
+        if (!path.endsWith(".class")) {
+            return null;
+        }
+        Matcher versioned = VERSIONED_CLASS.matcher(path);
+        if (versioned.matches()) {
+            return versioned.group(2);
+        }
+        return path.substring(0, path.length() - ".class".length());
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ZipFile zipFile : zipFiles) {
+            try {
+                zipFile.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private boolean contains(String name) {
+        return classes.containsKey(name) || versionedClasses.containsKey(name);
+    }
+
+    private List<ClassSource> sourcesOf(String name) {
+        ClassSource base = classes.get(name);
+        return base == null
+                ? versionedClasses.get(name)
+                : ImmutableList.<ClassSource>builder()
+                        .add(base)
+                        .addAll(versionedClasses.get(name))
+                        .build();
+    }
+
+    private void indexJar(File jar) throws IOException {
+        ZipFile zipFile = new ZipFile(jar);
+        zipFiles.add(zipFile);
+        boolean multiRelease = isMultiRelease(zipFile);
+        Set<String> names = new HashSet<>();
+        for (ZipEntry entry : Collections.list(zipFile.entries())) {
+            String path = entry.getName();
+            String className = classNameOf(path);
+            if (className != null) {
+                names.add(className);
+                Matcher versioned = VERSIONED_CLASS.matcher(path);
+                if (!versioned.matches()) {
+                    classes.putIfAbsent(className, () -> read(zipFile, entry));
+                } else if (multiRelease && Integer.parseInt(versioned.group(1)) <= javaVersion) {
+                    versionedClasses.put(className, () -> read(zipFile, entry));
+                }
+            } else if (path.startsWith(SERVICES) && !entry.isDirectory()) {
+                addServiceProviders(path.substring(SERVICES.length()), read(zipFile, entry));
+            } else if (path.startsWith("META-INF/native-image/") && path.endsWith("/reflect-config.json")) {
+                addReflectedClasses(read(zipFile, entry));
+            }
+        }
+        classesByFile.put(jar, names);
+    }
+
+    private void indexDirectory(File directory) throws IOException {
+        Path root = directory.toPath();
+        Set<String> names = new HashSet<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+                String className = classNameOf(path);
+                if (className != null) {
+                    names.add(className);
+                    classes.putIfAbsent(className, () -> Files.readAllBytes(file));
+                } else if (path.startsWith(SERVICES)) {
+                    addServiceProviders(path.substring(SERVICES.length()), Files.readAllBytes(file));
+                }
+            }
+        }
+        classesByFile.put(directory, names);
+    }
+
+    private void addServiceProviders(String service, byte[] providers) {
+        for (String line : new String(providers, StandardCharsets.UTF_8).split("\n")) {
+            int comment = line.indexOf('#');
+            String provider = (comment < 0 ? line : line.substring(0, comment)).trim();
+            if (!provider.isEmpty()) {
+                serviceProviders.put(service.replace('.', '/'), provider.replace('.', '/'));
+            }
+        }
+    }
+
+    private void addReflectedClasses(byte[] reflectConfig) throws IOException {
+        for (JsonNode type : ObjectMappers.jsonMapper.readTree(reflectConfig)) {
+            JsonNode name = type.get("name");
+            if (name != null && name.isTextual()) {
+                reflectedClasses.add(name.asText().replace('.', '/'));
+            }
+        }
+    }
+
+    private static boolean isMultiRelease(ZipFile zipFile) throws IOException {
+        ZipEntry manifest = zipFile.getEntry("META-INF/MANIFEST.MF");
+        if (manifest == null) {
+            return false;
+        }
+        try (InputStream in = zipFile.getInputStream(manifest)) {
+            return Boolean.parseBoolean(new Manifest(in).getMainAttributes().getValue("Multi-Release"));
+        }
+    }
+
+    private static byte[] read(ZipFile zipFile, ZipEntry entry) throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return ByteStreams.toByteArray(in);
+        }
+    }
+
+    private interface ClassSource {
+        byte[] read() throws IOException;
+    }
+}
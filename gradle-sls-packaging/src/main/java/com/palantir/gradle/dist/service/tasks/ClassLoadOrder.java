@@ -0,0 +1,70 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The order in which a JVM loaded classes, read from the output of {@code -verbose:class} or
+ * {@code -Xlog:class+load}, or from a plain list of class names.
+ */
+final class ClassLoadOrder {
+    static final ClassLoadOrder NONE = new ClassLoadOrder(new HashMap<>());
+
+    private static final Pattern LOADED_CLASS = Pattern.compile(
+            // java 8 -verbose:class, e.g. [Loaded java.lang.Object from /usr/lib/jvm/java-8/jre/lib/rt.jar]
+            "\\[Loaded ([\\w$.]+) from .*"
+                    // java 9+ unified logging, e.g. [0.010s][info][class,load] java.lang.Object source: jrt:/java.base
+                    + "|.*\\[class,load\\s*] ([\\w$.]+) source: .*"
+                    + "|\\s*([\\w$.]+)\\s*");
+
+    private final Map<String, Integer> positions;
+
+    private ClassLoadOrder(Map<String, Integer> positions) {
+        this.positions = positions;
+    }
+
+    static ClassLoadOrder read(File file) throws IOException {
+        Map<String, Integer> positions = new HashMap<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            Matcher matcher = LOADED_CLASS.matcher(line);
+            if (matcher.matches()) {
+                String className = matcher.group(1) != null
+                        ? matcher.group(1)
+                        : matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+                positions.putIfAbsent(className.replace('.', '/'), positions.size());
+            }
+        }
+        return new ClassLoadOrder(positions);
+    }
+
+    /** The position of the class in the load order, or {@link Integer#MAX_VALUE} if it was not loaded. */
+    int position(String internalName) {
+        return positions.getOrDefault(internalName, Integer.MAX_VALUE);
+    }
+
+    int size() {
+        return positions.size();
+    }
+}
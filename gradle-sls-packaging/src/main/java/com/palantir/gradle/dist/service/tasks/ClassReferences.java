@@ -0,0 +1,146 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the classes that a class file may refer to, from its constant pool alone. Every class constant counts, as does
+ * every class named in a descriptor or generic signature anywhere in the pool, which covers field and method types and
+ * annotations. String constants that look like class names count as well, so that most {@code Class.forName} calls on
+ * literals are followed. This overestimates the references, which only means that fewer classes are removed.
+ */
+final class ClassReferences {
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int FLOAT = 4;
+    private static final int LONG = 5;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int INTERFACE_METHOD_REF = 11;
+    private static final int NAME_AND_TYPE = 12;
+    private static final int METHOD_HANDLE = 15;
+    private static final int METHOD_TYPE = 16;
+    private static final int DYNAMIC = 17;
+    private static final int INVOKE_DYNAMIC = 18;
+    private static final int MODULE = 19;
+    private static final int PACKAGE = 20;
+
+    // Object types in descriptors and signatures, such as Ljava/lang/String; or Ljava/util/List<...>;
+    private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w$/]+)[;<]");
+
+    private static final Pattern DOTTED_CLASS_NAME = Pattern.compile("[\\w$]+(\\.[\\w$]+)+");
+
+    private ClassReferences() {}
+
+    /** Internal names, such as {@code java/lang/String}, of the classes that the class file may refer to. */
+    static Set<String> of(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+        int count = in.readUnsignedShort();
+        String[] utf8 = new String[count];
+        int[] classNames = new int[count];
+        int[] strings = new int[count];
+        int classCount = 0;
+        int stringCount = 0;
+        for (int index = 1; index < count; index++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case UTF8:
+                    utf8[index] = in.readUTF();
+                    break;
+                case CLASS:
+                    classNames[classCount++] = in.readUnsignedShort();
+                    break;
+                case STRING:
+                    strings[stringCount++] = in.readUnsignedShort();
+                    break;
+                case METHOD_TYPE:
+                case MODULE:
+                case PACKAGE:
+                    in.skipBytes(2);
+                    break;
+                case METHOD_HANDLE:
+                    in.skipBytes(3);
+                    break;
+                case INTEGER:
+                case FLOAT:
+                case FIELD_REF:
+                case METHOD_REF:
+                case INTERFACE_METHOD_REF:
+                case NAME_AND_TYPE:
+                case DYNAMIC:
+                case INVOKE_DYNAMIC:
+                    in.skipBytes(4);
+                    break;
+                case LONG:
+                case DOUBLE:
+                    in.skipBytes(8);
+                    // Takes up two entries of the pool
+                    index++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+
+        Set<String> references = new HashSet<>();
+        for (int i = 0; i < classCount; i++) {
+            String name = utf8[classNames[i]];
+            // Array classes are named by their descriptor
+            if (name.startsWith("[")) {
+                addDescriptorClasses(name, references);
+            } else {
+                references.add(name);
+            }
+        }
+        for (String value : utf8) {
+            if (value != null && value.indexOf(';') > 0) {
+                addDescriptorClasses(value, references);
+            }
+        }
+        for (int i = 0; i < stringCount; i++) {
+            String value = utf8[strings[i]];
+            if (DOTTED_CLASS_NAME.matcher(value).matches()) {
+                references.add(value.replace('.', '/'));
+            }
+        }
+        return references;
+    }
+
+    private static void addDescriptorClasses(String descriptor, Set<String> references) {
+        Matcher matcher = DESCRIPTOR_CLASS.matcher(descriptor);
+        while (matcher.find()) {
+            references.add(matcher.group(1));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.palantir.gradle.dist.ObjectMappers;
+import com.palantir.gradle.dist.service.DistributionLayer;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.immutables.value.Value;
+
+/**
+ * Describes how the layer archives of a layered distribution compose into the full distribution, so that deployment
+ * tooling can tell from the checksums which layers it already has.
+ */
+public abstract class CreateLayerManifestTask extends DefaultTask {
+    /** The directory at the root of every layer, and of the full distribution. */
+    @Input
+    public abstract Property<String> getRootDirectory();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract RegularFileProperty getDependenciesLayer();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract RegularFileProperty getProjectLayer();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract RegularFileProperty getApplicationLayer();
+
+    @OutputFile
+    public abstract RegularFileProperty getManifestFile();
+
+    /** The archive of the given layer. */
+    public final RegularFileProperty layer(DistributionLayer layer) {
+        switch (layer) {
+            case DEPENDENCIES:
+                return getDependenciesLayer();
+            case PROJECT:
+                return getProjectLayer();
+            case APPLICATION:
+                return getApplicationLayer();
+        }
+        throw new IllegalArgumentException("Unknown layer: " + layer);
+    }
+
+    @TaskAction
+    final void createLayerManifest() throws IOException {
+        LayerManifest.Builder manifest =
+                LayerManifest.builder().manifestVersion("1.0").rootDirectory(getRootDirectory().get());
+        for (DistributionLayer layer : DistributionLayer.values()) {
+            File archive = layer(layer).getAsFile().get();
+            manifest.addLayers(Layer.builder()
+                    .name(layer.getName())
+                    .file(archive.getName())
+                    .size(archive.length())
+                    .sha256(Files.asByteSource(archive).hash(Hashing.sha256()).toString())
+                    .build());
+        }
+        ObjectMappers.jsonMapper.writeValue(getManifestFile().getAsFile().get(), manifest.build());
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableLayerManifest.class)
+    @JsonDeserialize(as = ImmutableLayerManifest.class)
+    public interface LayerManifest {
+        String manifestVersion();
+
+        String rootDirectory();
+
+        /** In extraction order. Every layer extracts into the same directory and no two layers share a file. */
+        List<Layer> layers();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableLayerManifest.Builder {}
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableLayer.class)
+    @JsonDeserialize(as = ImmutableLayer.class)
+    public interface Layer {
+        String name();
+
+        String file();
+
+        long size();
+
+        String sha256();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableLayer.Builder {}
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Assembles layer archives into an OCI image layout directory, which {@code podman}, {@code skopeo} or {@code crane}
+ * can push or load without a docker daemon. Each layer archive becomes a layer of its own, as it is, so building the
+ * image compresses nothing and unchanged layers keep their digest.
+ */
+public abstract class CreateOciImageTask extends DefaultTask {
+    @SuppressWarnings("PublicConstructorForAbstractClass")
+    public CreateOciImageTask() {
+        getArchitecture().convention("amd64");
+    }
+
+    /** Layers of a base image, for example exported with {@code crane export}, which go below {@link #getLayers()}. */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getBaseLayers();
+
+    /** Plain, gzipped or zstd compressed tar files, from the bottom of the file system up. */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getLayers();
+
+    /** The {@code GOARCH} style architecture of the image, defaults to {@code amd64}. */
+    @Input
+    public abstract Property<String> getArchitecture();
+
+    @Input
+    public abstract ListProperty<String> getEntrypoint();
+
+    @Input
+    public abstract Property<String> getWorkingDirectory();
+
+    @Input
+    public abstract MapProperty<String, String> getEnvironment();
+
+    /** The name that {@code index.json} gives the image, usually the version. */
+    @Input
+    public abstract Property<String> getTag();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getImageDirectory();
+
+    @TaskAction
+    final void createImage() throws IOException {
+        File imageDirectory = getImageDirectory().getAsFile().get();
+        // Blobs of earlier builds would otherwise pile up
+        getProject().delete(imageDirectory);
+        OciImageLayout layout = new OciImageLayout(imageDirectory.toPath());
+
+        List<OciImageLayout.Descriptor> layers = new ArrayList<>();
+        List<String> diffIds = new ArrayList<>();
+        for (File archive : Iterables.concat(getBaseLayers(), getLayers())) {
+            OciImageLayout.LayerBlob layer = layout.addLayer(archive);
+            layers.add(layer.descriptor());
+            diffIds.add(layer.diffId());
+        }
+
+        OciImageLayout.Descriptor config = layout.addJson(
+                OciImageLayout.CONFIG_MEDIA_TYPE,
+                OciImageLayout.ImageConfig.builder()
+                        .architecture(getArchitecture().get())
+                        .os("linux")
+                        .config(OciImageLayout.ContainerConfig.builder()
+                                .env(getEnvironment().get().entrySet().stream()
+                                        .map(entry -> entry.getKey() + "=" + entry.getValue())
+                                        .collect(Collectors.toList()))
+                                .entrypoint(getEntrypoint().get())
+                                .workingDir(getWorkingDirectory().get())
+                                .build())
+                        .rootfs(OciImageLayout.RootFs.builder()
+                                .type("layers")
+                                .diffIds(diffIds)
+                                .build())
+                        .build());
+
+        OciImageLayout.Descriptor manifest = layout.addJson(
+                OciImageLayout.MANIFEST_MEDIA_TYPE,
+                OciImageLayout.Manifest.builder()
+                        .schemaVersion(2)
+                        .mediaType(OciImageLayout.MANIFEST_MEDIA_TYPE)
+                        .config(config)
+                        .layers(layers)
+                        .build());
+
+        layout.writeIndex(ImmutableList.of(OciImageLayout.Descriptor.builder()
+                .from(manifest)
+                .annotations(ImmutableMap.of(OciImageLayout.REF_NAME_ANNOTATION, getTag().get()))
+                .build()));
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileCopyDetails;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.tasks.WorkResult;
+import org.gradle.api.tasks.WorkResults;
+
+/**
+ * Syncs the copied files into a directory, hard linking the build outputs of the project and only touching files that
+ * changed. Like {@code SlsTarCopyAction}, this implements gradle's internal copy action API.
+ */
+@SuppressWarnings("UnstableApiUsage")
+final class HardLinkCopyAction implements org.gradle.api.internal.file.copy.CopyAction {
+    private static final Logger log = Logging.getLogger(HardLinkCopyAction.class);
+
+    private final Path destination;
+    private final Path buildDir;
+    private final boolean hardLinks;
+
+    private int linked = 0;
+    private int copied = 0;
+    private int unchanged = 0;
+
+    HardLinkCopyAction(Path destination, Path buildDir, boolean hardLinks) {
+        this.destination = destination.toAbsolutePath().normalize();
+        this.buildDir = buildDir.toAbsolutePath().normalize();
+        this.hardLinks = hardLinks;
+    }
+
+    @Override
+    public WorkResult execute(org.gradle.api.internal.file.copy.CopyActionProcessingStream stream) {
+        Set<Path> installed = new HashSet<>();
+        installed.add(destination);
+        stream.process(details -> {
+            Path target = destination.resolve(details.getRelativePath().getPathString());
+            // Parent directories are not necessarily visited, but must survive the removal of stale files
+            Path path = target;
+            while (installed.add(path)) {
+                path = path.getParent();
+            }
+            try {
+                if (details.isDirectory()) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.createDirectories(target.getParent());
+                    install(details, target);
+                }
+            } catch (IOException e) {
+                throw new GradleException(String.format("Could not install %s to '%s'", details, target), e);
+            }
+        });
+
+        int removed;
+        try {
+            removed = removeStale(installed);
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not remove stale files from '%s'", destination), e);
+        }
+        log.info(
+                "Installed distribution into {}: {} linked, {} copied, {} unchanged, {} removed",
+                destination,
+                linked,
+                copied,
+                unchanged,
+                removed);
+        return WorkResults.didWork(linked + copied + removed > 0);
+    }
+
+    private void install(FileCopyDetails details, Path target) throws IOException {
+        Path source = sourceFile(details);
+        if (source == null) {
+            installContent(details, target);
+        } else if (!isLinkable(source, details) || !tryLink(source, target)) {
+            installCopy(source, details, target);
+        }
+    }
+
+    private boolean tryLink(Path source, Path target) throws IOException {
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && Files.isSameFile(source, target)) {
+            unchanged++;
+            return true;
+        }
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+            linked++;
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Typically because the build directory is on another file system
+            log.debug("Could not hard link {} to {}, copying it instead", target, source, e);
+            return false;
+        }
+    }
+
+    private void installCopy(Path source, FileCopyDetails details, Path target) throws IOException {
+        if (Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)
+                && !Files.isSameFile(source, target)
+                && Files.size(target) == Files.size(source)
+                && Files.getLastModifiedTime(target).equals(Files.getLastModifiedTime(source))
+                && hasMode(target, details.getMode())) {
+            unchanged++;
+            return;
+        }
+        // Never write through an existing hard link, which would modify its source
+        Files.deleteIfExists(target);
+        Files.copy(source, target);
+        Files.setLastModifiedTime(target, Files.getLastModifiedTime(source));
+        setMode(target, details.getMode());
+        copied++;
+    }
+
+    /** Installs content that only exists in the copy, for example because it is filtered. */
+    private void installContent(FileCopyDetails details, Path target) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        details.copyTo(content);
+        byte[] bytes = content.toByteArray();
+        if (Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)
+                && Arrays.equals(Files.readAllBytes(target), bytes)
+                && hasMode(target, details.getMode())) {
+            unchanged++;
+            return;
+        }
+        Files.deleteIfExists(target);
+        Files.write(target, bytes);
+        setMode(target, details.getMode());
+        copied++;
+    }
+
+    /**
+     * Only the build outputs of the project are linked, which its tasks replace when they run again. Everything else is
+     * copied, so that writing to the installation can never modify the project sources, or the gradle cache which is
+     * shared by every build on the machine.
+     */
+    private boolean isLinkable(Path source, FileCopyDetails details) throws IOException {
+        Path path = source.toAbsolutePath().normalize();
+        return hardLinks && path.startsWith(buildDir) && hasMode(path, details.getMode());
+    }
+
+    @Nullable
+    private static Path sourceFile(FileCopyDetails details) {
+        try {
+            File file = details.getFile();
+            return file.isFile() ? file.toPath() : null;
+        } catch (UnsupportedOperationException e) {
+            // Filtered files have no file of their own
+            return null;
+        }
+    }
+
+    private int removeStale(Set<Path> installed) throws IOException {
+        List<Path> stale;
+        try (Stream<Path> paths = Files.walk(destination)) {
+            stale = paths.filter(path -> !installed.contains(path))
+                    // Children sort after their parents, so this deletes the content of directories first
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        for (Path path : stale) {
+            Files.delete(path);
+        }
+        return stale.size();
+    }
+
+    private static boolean hasMode(Path path, int mode) throws IOException {
+        try {
+            return toMode(Files.getPosixFilePermissions(path)) == (mode & 0777);
+        } catch (UnsupportedOperationException e) {
+            // File systems without posix permissions have no modes to disagree on
+            return true;
+        }
+    }
+
+    private static void setMode(Path path, int mode) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path, toPermissions(mode));
+        } catch (UnsupportedOperationException e) {
+            // Not representable on this file system
+        }
+    }
+
+    // PosixFilePermission is declared from OWNER_READ (0400) down to OTHERS_EXECUTE (0001)
+    private static int toMode(Set<PosixFilePermission> permissions) {
+        int mode = 0;
+        for (PosixFilePermission permission : permissions) {
+            mode |= 1 << (8 - permission.ordinal());
+        }
+        return mode;
+    }
+
+    private static Set<PosixFilePermission> toPermissions(int mode) {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (PosixFilePermission permission : PosixFilePermission.values()) {
+            if ((mode & (1 << (8 - permission.ordinal()))) != 0) {
+                permissions.add(permission);
+            }
+        }
+        return permissions;
+    }
+}
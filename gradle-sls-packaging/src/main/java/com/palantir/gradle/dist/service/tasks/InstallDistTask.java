@@ -0,0 +1,58 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.AbstractCopyTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputDirectory;
+
+/**
+ * Installs the distribution into a directory in the same layout as {@code distTar}, without a round trip through an
+ * archive. The build outputs of the project, such as its jar, are hard linked rather than copied where the file
+ * system allows, and files that did not change since the last install are left alone, so reinstalling after changing
+ * one jar only touches that jar. Anything else in the directory is removed, as with {@code Sync}.
+ *
+ * <p>Hard linked files share their content with the build outputs, so they must not be modified in place. Everything
+ * else, such as {@code var/conf} from the project sources and the jars from the gradle cache, is copied.
+ */
+public abstract class InstallDistTask extends AbstractCopyTask {
+    @SuppressWarnings("PublicConstructorForAbstractClass")
+    public InstallDistTask() {
+        getHardLinks().convention(true);
+    }
+
+    @OutputDirectory
+    public abstract DirectoryProperty getDestinationDirectory();
+
+    /**
+     * Whether build outputs are hard linked. Defaults to true; when false, every file is copied, so that the installed
+     * distribution can be modified without affecting the build.
+     */
+    @Input
+    public abstract Property<Boolean> getHardLinks();
+
+    @Override
+    @SuppressWarnings("UnstableApiUsage")
+    protected final org.gradle.api.internal.file.copy.CopyAction createCopyAction() {
+        return new HardLinkCopyAction(
+                getDestinationDirectory().get().getAsFile().toPath(),
+                getProject().getBuildDir().toPath(),
+                getHardLinks().get());
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import org.gradle.api.GradleException;
+
+/** Reads the {@code release} file of a java runtime, which JDKs and the runtime images that jlink writes both have. */
+final class JavaRelease {
+    private JavaRelease() {}
+
+    /** The major version of the java runtime at {@code javaHome}, such as 8 or 17. */
+    static int majorVersion(File javaHome) {
+        String version = release(javaHome).getProperty("JAVA_VERSION");
+        if (version == null) {
+            throw new GradleException(String.format("Could not find the JAVA_VERSION of '%s'", javaHome));
+        }
+        // 1.8.0_292, 11.0.12, 24
+        String[] parts = version.split("[._+-]");
+        return Integer.parseInt(parts[0].equals("1") ? parts[1] : parts[0]);
+    }
+
+    /** The most precise version of the java runtime at {@code javaHome}, which jlink images only have as a version. */
+    static String runtimeVersion(File javaHome) {
+        Properties release = release(javaHome);
+        return release.getProperty("JAVA_RUNTIME_VERSION", release.getProperty("JAVA_VERSION", "unknown"));
+    }
+
+    private static Properties release(File javaHome) {
+        Properties release = new Properties();
+        try (InputStream stream = new FileInputStream(new File(javaHome, "release"))) {
+            release.load(stream);
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not read the release file of '%s'", javaHome), e);
+        }
+        // The values are quoted, as in JAVA_VERSION="11.0.12"
+        release.replaceAll((_key, value) -> ((String) value).replace("\"", ""));
+        return release;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.JavaVersion;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.process.ExecOperations;
+
+/**
+ * Links a java runtime image with only the modules that the service needs, from the modules of a {@link #getJdk() JDK}:
+ * those with the packages of the classes that the {@link #getClasspath() classpath} refers to, and the
+ * {@link #getAddModules() added modules}. Like {@code jdeps}, this reads the constant pools of the classes, but unlike
+ * it, it does not fail on jars with a {@code module-info} that requires modules which are not on the classpath.
+ *
+ * <p>The image is stripped of debug information, header files and man pages, its modules are compressed, and it gets
+ * a class data sharing archive of the classes the JVM loads to start, as JDKs have.
+ */
+public abstract class JlinkRuntimeTask extends DefaultTask {
+    private static final int FIRST_SUPPORTED_VERSION = 11;
+
+    // The launchers export sun.management from it on java 16 and later, see LaunchConfigTask
+    private static final ImmutableList<String> alwaysLinkedModules = ImmutableList.of("java.management");
+
+    /** The jars of {@code service/lib} and the java agents. */
+    @Classpath
+    public abstract ConfigurableFileCollection getClasspath();
+
+    @Input
+    public abstract ListProperty<String> getAddModules();
+
+    @Internal
+    public abstract DirectoryProperty getJdk();
+
+    /** The java version of the distribution, which the JDK must have. */
+    @Input
+    public abstract Property<JavaVersion> getJavaVersion();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getRuntimeDirectory();
+
+    @Inject
+    protected abstract ExecOperations getExecOperations();
+
+    /** The version of the JDK, so that another build of java links again. */
+    @Input
+    public final String getJdkVersion() {
+        return JavaRelease.runtimeVersion(getJdk().get().getAsFile());
+    }
+
+    @TaskAction
+    public final void link() throws IOException {
+        File jdk = getJdk().get().getAsFile();
+        int javaVersion = JavaRelease.majorVersion(jdk);
+        if (javaVersion < FIRST_SUPPORTED_VERSION) {
+            throw new GradleException(String.format(
+                    "A jlink runtime needs a JDK of java %d or later, but '%s' is java %d",
+                    FIRST_SUPPORTED_VERSION, jdk, javaVersion));
+        }
+        if (JavaVersion.toVersion(javaVersion) != getJavaVersion().get()) {
+            throw new GradleException(String.format(
+                    "The distribution runs on java %s, but the jlink runtime would be java %d from '%s'. Set "
+                            + "distribution.jlinkRuntime.jdk to a java %s JDK.",
+                    getJavaVersion().get().getMajorVersion(),
+                    javaVersion,
+                    jdk,
+                    getJavaVersion().get().getMajorVersion()));
+        }
+
+        Set<String> modules = new TreeSet<>(alwaysLinkedModules);
+        modules.addAll(requiredModules(jdk));
+        modules.addAll(getAddModules().get());
+        getLogger().info("Linking the modules {} of '{}'", modules, jdk);
+
+        File runtime = getRuntimeDirectory().get().getAsFile();
+        // jlink refuses to write into an existing directory
+        getProject().delete(runtime);
+        ImmutableList.Builder<String> jlink = ImmutableList.<String>builder()
+                .add(new File(jdk, "bin/jlink").getAbsolutePath(), "--add-modules", String.join(",", modules));
+        File jmods = new File(jdk, "jmods");
+        if (jmods.isDirectory()) {
+            // Without jmods, JDKs that support it link from their own runtime image, https://openjdk.org/jeps/493
+            jlink.add("--module-path", jmods.getAbsolutePath());
+        }
+        jlink.add(
+                "--strip-debug",
+                "--no-header-files",
+                "--no-man-pages",
+                // The numbered levels are deprecated from java 21, https://bugs.openjdk.org/browse/JDK-8293667
+                javaVersion >= 21 ? "--compress=zip-6" : "--compress=2",
+                "--output",
+                runtime.getAbsolutePath());
+        getExecOperations().exec(spec -> spec.commandLine(jlink.build()));
+
+        // jlink images have no CDS archive of the JDK's own classes, https://openjdk.org/jeps/341
+        String java = new File(runtime, "bin/java").getAbsolutePath();
+        getExecOperations().exec(spec -> {
+            spec.commandLine(java, "-Xshare:dump");
+            spec.setStandardOutput(new ByteArrayOutputStream());
+        });
+    }
+
+    /**
+     * The modules of the JDK with the packages of the classes that the classpath refers to, see
+     * {@link ClassGraph#externalReferences()}.
+     */
+    private Set<String> requiredModules(File jdk) throws IOException {
+        Map<String, String> packageModules = packageModules(jdk);
+        Set<String> modules = new TreeSet<>();
+        int javaVersion = Integer.parseInt(getJavaVersion().get().getMajorVersion());
+        try (ClassGraph graph = ClassGraph.open(getClasspath().getFiles(), javaVersion)) {
+            for (String reference : graph.externalReferences()) {
+                int separator = reference.lastIndexOf('/');
+                if (separator > 0) {
+                    String module = packageModules.get(reference.substring(0, separator).replace('/', '.'));
+                    if (module != null) {
+                        modules.add(module);
+                    }
+                }
+            }
+        }
+        return modules;
+    }
+
+    /** The module of each package of the JDK, from the {@code /packages} directory of its jrt file system. */
+    private static Map<String, String> packageModules(File jdk) throws IOException {
+        // The jrt-fs.jar of the JDK reads its image when gradle runs on java 8, later versions have their own provider
+        try (URLClassLoader jrtFs =
+                        new URLClassLoader(new URL[] {new File(jdk, "lib/jrt-fs.jar").toURI().toURL()});
+                FileSystem jrt = FileSystems.newFileSystem(
+                        URI.create("jrt:/"), ImmutableMap.of("java.home", jdk.getAbsolutePath()), jrtFs);
+                Stream<Path> packages = Files.list(jrt.getPath("/packages"))) {
+            Map<String, String> packageModules = new HashMap<>();
+            for (Path packageDirectory : packages.collect(Collectors.toList())) {
+                try (Stream<Path> modules = Files.list(packageDirectory)) {
+                    modules.findFirst()
+                            .ifPresent(module -> packageModules.put(
+                                    packageDirectory.getFileName().toString(),
+                                    module.getFileName().toString()));
+                }
+            }
+            return packageModules;
+        }
+    }
+}
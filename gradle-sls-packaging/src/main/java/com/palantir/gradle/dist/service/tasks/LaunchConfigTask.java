@@ -22,11 +22,18 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.palantir.gradle.dist.ObjectMappers;
+import com.palantir.gradle.dist.service.JitProfile;
+import com.palantir.gradle.dist.service.LibraryPool;
+import com.palantir.gradle.dist.service.MemoryBudget;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
@@ -39,9 +46,12 @@ import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 import org.immutables.value.Value;
 
@@ -161,6 +171,49 @@ public abstract class LaunchConfigTask extends DefaultTask {
     @InputFiles
     public abstract ConfigurableFileCollection getJavaAgents();
 
+    /**
+     * Jars of the {@link #getClasspath() classpath} that are loaded from the {@link LibraryPool library pool} at
+     * {@link #getLibraryPoolPath()} rather than from {@code service/lib}. Empty unless this configures a thin
+     * distribution.
+     */
+    @InputFiles
+    public abstract ConfigurableFileCollection getLibraryPoolJars();
+
+    @Input
+    @Optional
+    public abstract Property<String> getLibraryPoolPath();
+
+    /**
+     * The {@link MergeJarsTask.JarMerging} of the jars of {@code service/lib}. The classpath lists each merged jar in
+     * place of the first jar it replaces. Absent unless jar merging is enabled.
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getJarMerging();
+
+    /**
+     * The class data sharing archive of {@code service/lib} that {@link TrainClassDataSharingTask} wrote, which the
+     * static launcher maps into the JVM if the {@link #getJavaVersion() java version} supports it. The check launcher
+     * runs with other arguments, so it does not use the archive. Absent unless class data sharing is enabled.
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract RegularFileProperty getClassDataSharingArchive();
+
+    /**
+     * The {@link MemoryBudget} of the service, whose options {@code launcher-static.yml} has ahead of the
+     * {@link #getDefaultJvmOpts() default JVM options}. Absent unless the distribution has a memory budget.
+     */
+    @Input
+    @Optional
+    public abstract Property<MemoryBudget.Budget> getMemoryBudget();
+
+    /** The options of the {@link JitProfile}, which {@code launcher-static.yml} has after the GC options. */
+    @Input
+    public abstract ListProperty<String> getJitJvmOptions();
+
     @OutputFile
     public final RegularFileProperty getStaticLauncher() {
         return staticLauncher;
@@ -173,13 +226,21 @@ public abstract class LaunchConfigTask extends DefaultTask {
 
     @TaskAction
     public final void createConfig() throws IOException {
+        List<String> classpath = relativizeToServiceLibDirectory(getClasspath());
+        List<String> memoryBudgetJvmOpts = ImmutableList.of();
+        Map<String, String> staticEnvironment = new LinkedHashMap<>(defaultEnvironment);
+        if (getMemoryBudget().isPresent()) {
+            MemoryBudget.Budget budget = effectiveMemoryBudget();
+            memoryBudgetJvmOpts = budget.jvmOpts();
+            staticEnvironment.put("MALLOC_ARENA_MAX", Integer.toString(budget.mallocArenaMax()));
+        }
         writeConfig(
                 LaunchConfig.builder()
                         .mainClass(mainClass.get())
                         .serviceName(serviceName.get())
                         .javaHome(javaHome.getOrElse(""))
                         .args(args.get())
-                        .classpath(relativizeToServiceLibDirectory(getClasspath()))
+                        .classpath(classpath)
                         .addAllJvmOpts(javaAgentArgs())
                         .addAllJvmOpts(alwaysOnJvmOptions)
                         .addAllJvmOpts(addJava8GcLogging.get() ? java8gcLoggingOptions : ImmutableList.of())
@@ -204,8 +265,11 @@ public abstract class LaunchConfigTask extends DefaultTask {
                                         ? java16PlusOptions
                                         : ImmutableList.of())
                         .addAllJvmOpts(gcJvmOptions.get())
+                        .addAllJvmOpts(getJitJvmOptions().get())
+                        .addAllJvmOpts(classDataSharingArgs())
+                        .addAllJvmOpts(memoryBudgetJvmOpts)
                         .addAllJvmOpts(defaultJvmOpts.get())
-                        .putAllEnv(defaultEnvironment)
+                        .putAllEnv(staticEnvironment)
                         .putAllEnv(env.get())
                         .build(),
                 getStaticLauncher().get().getAsFile());
@@ -216,7 +280,7 @@ public abstract class LaunchConfigTask extends DefaultTask {
                         .serviceName(serviceName.get())
                         .javaHome(javaHome.getOrElse(""))
                         .args(checkArgs.get())
-                        .classpath(relativizeToServiceLibDirectory(getClasspath()))
+                        .classpath(classpath)
                         .addAllJvmOpts(javaAgentArgs())
                         .addAllJvmOpts(alwaysOnJvmOptions)
                         .addAllJvmOpts(defaultJvmOpts.get())
@@ -237,6 +301,36 @@ public abstract class LaunchConfigTask extends DefaultTask {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * The memory budget with the parts that the GC, JIT and default JVM options set explicitly, whose options the
+     * launcher has, so that {@code -Xms} never exceeds an explicit {@code -Xmx}.
+     */
+    private MemoryBudget.Budget effectiveMemoryBudget() {
+        MemoryBudget.Budget budget = getMemoryBudget()
+                .get()
+                .withExplicitOptions(ImmutableList.<String>builder()
+                        .addAll(gcJvmOptions.get())
+                        .addAll(getJitJvmOptions().get())
+                        .addAll(defaultJvmOpts.get())
+                        .build());
+        budget.check(serviceName.get());
+        return budget;
+    }
+
+    private List<String> classDataSharingArgs() {
+        if (!getClassDataSharingArchive().isPresent()) {
+            return ImmutableList.of();
+        }
+        String archive = getClassDataSharingArchive().getAsFile().get().getName();
+        if (!TrainClassDataSharingTask.supports(javaVersion.get(), archive)) {
+            return ImmutableList.of();
+        }
+        // The JVM warns and loads classes from the jars if the archive does not match the java runtime or the jars
+        return archive.endsWith(".aot")
+                ? ImmutableList.of("-XX:AOTCache=service/lib/" + archive)
+                : ImmutableList.of("-XX:SharedArchiveFile=service/lib/" + archive);
+    }
+
     /** Returns the input file. An exception is thrown if the {@code agentFile} is not a java agent. */
     private static File validateJavaAgent(File agentFile) {
         try {
@@ -251,9 +345,20 @@ public abstract class LaunchConfigTask extends DefaultTask {
         }
     }
 
-    private static List<String> relativizeToServiceLibDirectory(FileCollection files) {
+    private List<String> relativizeToServiceLibDirectory(FileCollection files) throws IOException {
+        Set<File> poolJars = getLibraryPoolJars().getFiles();
+        Map<String, String> mergedInto = new HashMap<>();
+        if (getJarMerging().isPresent()) {
+            ObjectMappers.jsonMapper
+                    .readValue(getJarMerging().getAsFile().get(), MergeJarsTask.JarMerging.class)
+                    .merged()
+                    .forEach((mergedJar, jars) -> jars.forEach(jar -> mergedInto.put(jar, mergedJar)));
+        }
         return files.getFiles().stream()
-                .map(file -> "service/lib/" + file.getName())
+                .map(file -> poolJars.contains(file)
+                        ? getLibraryPoolPath().get() + "/" + LibraryPool.pathOf(file)
+                        : "service/lib/" + mergedInto.getOrDefault(file.getName(), file.getName()))
+                .distinct()
                 .collect(Collectors.toList());
     }
 
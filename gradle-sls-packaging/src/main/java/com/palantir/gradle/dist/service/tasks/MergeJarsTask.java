@@ -0,0 +1,341 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.ByteStreams;
+import com.palantir.gradle.dist.ObjectMappers;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.immutables.value.Value;
+
+/**
+ * Merges small jars into a few larger ones, so that the classpath has fewer entries for the JVM to search and keep
+ * open. A jar is only merged if the merged jar loads exactly what it would have: it must not be signed or
+ * multi-release, have a {@code Class-Path} or seal packages, or share a class or resource with any other jar of the
+ * classpath. The {@code META-INF/services} files of merged jars are concatenated, and their {@code Implementation-*}
+ * and {@code Specification-*} manifest attributes move to a section for each of their packages, where
+ * {@link Package#getImplementationVersion()} still finds them. License and notice files may clash, so copies after the
+ * first move to {@code META-INF/merged/<jar>/}.
+ */
+public abstract class MergeJarsTask extends DefaultTask {
+    static final String MERGED_JAR_PREFIX = "merged-dependencies-";
+
+    private static final String SERVICES = "META-INF/services/";
+
+    private static final Pattern INFORMATIONAL_FILE = Pattern.compile(
+            "(?i)(META-INF/)?(LICENSE|NOTICE|DEPENDENCIES|README|COPYRIGHT|AUTHORS)[^/]*|META-INF/maven/.+");
+
+    private static final List<Attributes.Name> PACKAGE_ATTRIBUTES = ImmutableList.of(
+            Attributes.Name.IMPLEMENTATION_TITLE,
+            Attributes.Name.IMPLEMENTATION_VERSION,
+            Attributes.Name.IMPLEMENTATION_VENDOR,
+            Attributes.Name.SPECIFICATION_TITLE,
+            Attributes.Name.SPECIFICATION_VERSION,
+            Attributes.Name.SPECIFICATION_VENDOR);
+
+    // The earliest time a zip entry can have, so that merging the same jars gives the same merged jar
+    private static final long CONSTANT_TIME_FOR_ZIP_ENTRIES =
+            new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
+    @SuppressWarnings("PublicConstructorForAbstractClass")
+    public MergeJarsTask() {
+        getThreshold().convention(512L * 1024);
+        getMaxMergedSize().convention(16L * 1024 * 1024);
+    }
+
+    /** The jars to merge, in classpath order. */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getJars();
+
+    /** The other jars of the classpath, which are not merged but whose classes and resources must not clash. */
+    @Classpath
+    public abstract ConfigurableFileCollection getClasspath();
+
+    /** Jars of at least this many bytes are left as they are, defaults to 512 KiB. */
+    @Input
+    public abstract Property<Long> getThreshold();
+
+    /** Merged jars are started anew once they reach this many bytes, defaults to 16 MiB. */
+    @Input
+    public abstract Property<Long> getMaxMergedSize();
+
+    /** Gets the merged jars and a copy of each of the {@link #getJars()} that was not merged. */
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    /** Describes which jars each merged jar replaces, see {@link JarMerging}. */
+    @OutputFile
+    public abstract RegularFileProperty getMergingFile();
+
+    @TaskAction
+    final void mergeJars() throws IOException {
+        File outputDirectory = getOutputDirectory().getAsFile().get();
+        getProject().delete(outputDirectory);
+        Files.createDirectories(outputDirectory.toPath());
+
+        SetMultimap<String, File> owners = HashMultimap.create();
+        for (File jar : Iterables.concat(getClasspath(), getJars())) {
+            if (jar.isFile()) {
+                for (String entry : entryNames(jar)) {
+                    if (!isMergeable(entry)) {
+                        owners.put(entry, jar);
+                    }
+                }
+            }
+        }
+
+        JarMerging.Builder merging = JarMerging.builder();
+        List<List<File>> groups = new ArrayList<>();
+        List<File> group = new ArrayList<>();
+        long groupSize = 0;
+        for (File jar : getJars()) {
+            if (jar.length() < getThreshold().get()) {
+                String reason = unmergeableReason(jar, owners);
+                if (reason == null) {
+                    if (!group.isEmpty() && groupSize + jar.length() > getMaxMergedSize().get()) {
+                        groups.add(group);
+                        group = new ArrayList<>();
+                        groupSize = 0;
+                    }
+                    group.add(jar);
+                    groupSize += jar.length();
+                    continue;
+                }
+                merging.putSkipped(jar.getName(), reason);
+            }
+            Files.copy(jar.toPath(), new File(outputDirectory, jar.getName()).toPath());
+        }
+        groups.add(group);
+
+        int mergedJars = 0;
+        for (List<File> jars : groups) {
+            if (jars.size() == 1) {
+                File jar = jars.get(0);
+                Files.copy(jar.toPath(), new File(outputDirectory, jar.getName()).toPath());
+            } else if (jars.size() > 1) {
+                String name = MERGED_JAR_PREFIX + ++mergedJars + ".jar";
+                merge(jars, new File(outputDirectory, name));
+                merging.putMerged(name, jars.stream().map(File::getName).collect(Collectors.toList()));
+            }
+        }
+        ObjectMappers.jsonMapper.writeValue(getMergingFile().getAsFile().get(), merging.build());
+    }
+
+    /** Why the jar cannot be merged, or null if it can. */
+    @Nullable
+    private static String unmergeableReason(File jar, SetMultimap<String, File> owners) throws IOException {
+        try (JarFile jarFile = new JarFile(jar, false)) {
+            Manifest manifest = jarFile.getManifest();
+            if (manifest != null) {
+                Attributes attributes = manifest.getMainAttributes();
+                if (Boolean.parseBoolean(attributes.getValue("Multi-Release"))) {
+                    return "multi-release";
+                }
+                if (attributes.containsKey(Attributes.Name.CLASS_PATH)) {
+                    return "has a Class-Path";
+                }
+                if (attributes.containsKey(Attributes.Name.SEALED)
+                        || manifest.getEntries().values().stream()
+                                .anyMatch(section -> section.containsKey(Attributes.Name.SEALED))) {
+                    return "seals packages";
+                }
+            }
+        }
+        List<String> entries = entryNames(jar);
+        if (entries.stream().anyMatch(entry -> ShakeDependenciesTask.SIGNATURE_FILE.matcher(entry).matches())) {
+            return "signed";
+        }
+        for (String entry : entries) {
+            Set<File> jars = owners.get(entry);
+            if (jars.size() > 1) {
+                File other = jars.stream().filter(owner -> !owner.equals(jar)).findFirst().get();
+                return "shares " + entry + " with " + other.getName();
+            }
+        }
+        return null;
+    }
+
+    /** Whether merged jars can hold the entry of more than one jar. */
+    private static boolean isMergeable(String entry) {
+        return entry.endsWith("/")
+                || entry.equals(JarFile.MANIFEST_NAME)
+                || entry.equals("META-INF/INDEX.LIST")
+                || entry.equals("module-info.class")
+                || (entry.startsWith(SERVICES) && !ShakeDependenciesTask.SIGNATURE_FILE.matcher(entry).matches())
+                || INFORMATIONAL_FILE.matcher(entry).matches();
+    }
+
+    private static void merge(List<File> jars, File output) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        Map<String, ByteArrayOutputStream> services = new LinkedHashMap<>();
+        for (File jar : jars) {
+            try (ZipFile zipFile = new ZipFile(jar)) {
+                for (ZipArchiveEntry entry : Collections.list(zipFile.getEntriesInPhysicalOrder())) {
+                    String name = entry.getName();
+                    if (name.equals(JarFile.MANIFEST_NAME)) {
+                        try (InputStream in = zipFile.getInputStream(entry)) {
+                            addPackageAttributes(manifest, new Manifest(in), zipFile);
+                        }
+                    } else if (name.startsWith(SERVICES) && !entry.isDirectory()) {
+                        ByteArrayOutputStream providers =
+                                services.computeIfAbsent(name, _name -> new ByteArrayOutputStream());
+                        try (InputStream in = zipFile.getInputStream(entry)) {
+                            ByteStreams.copy(in, providers);
+                        }
+                        providers.write('\n');
+                    }
+                }
+            }
+        }
+
+        Set<String> written = new HashSet<>();
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(output)) {
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            manifest.write(manifestBytes);
+            write(out, "META-INF/", new byte[0], written);
+            write(out, JarFile.MANIFEST_NAME, manifestBytes.toByteArray(), written);
+            for (Map.Entry<String, ByteArrayOutputStream> service : services.entrySet()) {
+                write(out, service.getKey(), service.getValue().toByteArray(), written);
+            }
+            for (File jar : jars) {
+                try (ZipFile zipFile = new ZipFile(jar)) {
+                    for (ZipArchiveEntry entry : Collections.list(zipFile.getEntriesInPhysicalOrder())) {
+                        String name = entry.getName();
+                        if (name.equals("META-INF/INDEX.LIST") || name.equals("module-info.class")) {
+                            continue;
+                        }
+                        if (written.add(name)) {
+                            out.addRawArchiveEntry(entry, zipFile.getRawInputStream(entry));
+                        } else if (INFORMATIONAL_FILE.matcher(name).matches()) {
+                            ZipArchiveEntry moved =
+                                    new ZipArchiveEntry("META-INF/merged/" + jar.getName() + "/" + name);
+                            moved.setMethod(entry.getMethod());
+                            moved.setCrc(entry.getCrc());
+                            moved.setSize(entry.getSize());
+                            moved.setCompressedSize(entry.getCompressedSize());
+                            moved.setTime(entry.getTime());
+                            out.addRawArchiveEntry(moved, zipFile.getRawInputStream(entry));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the manifest sections of a merged jar, and turns its main {@code Implementation-*} and
+     * {@code Specification-*} attributes into sections for each of its packages.
+     */
+    private static void addPackageAttributes(Manifest merged, Manifest manifest, ZipFile zipFile) {
+        manifest.getEntries().forEach(merged.getEntries()::putIfAbsent);
+        Attributes packageAttributes = new Attributes();
+        for (Attributes.Name name : PACKAGE_ATTRIBUTES) {
+            String value = manifest.getMainAttributes().getValue(name);
+            if (value != null) {
+                packageAttributes.put(name, value);
+            }
+        }
+        if (packageAttributes.isEmpty()) {
+            return;
+        }
+        for (ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+            String name = entry.getName();
+            if (name.endsWith(".class") && name.contains("/")) {
+                Attributes section = merged.getEntries()
+                        .computeIfAbsent(name.substring(0, name.lastIndexOf('/') + 1), _name -> new Attributes());
+                packageAttributes.forEach(section::putIfAbsent);
+            }
+        }
+    }
+
+    private static void write(ZipArchiveOutputStream out, String name, byte[] content, Set<String> written)
+            throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(CONSTANT_TIME_FOR_ZIP_ENTRIES);
+        out.putArchiveEntry(entry);
+        out.write(content);
+        out.closeArchiveEntry();
+        written.add(name);
+    }
+
+    private static List<String> entryNames(File jar) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            return Collections.list(zipFile.getEntries()).stream()
+                    .map(ZipArchiveEntry::getName)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableJarMerging.class)
+    @JsonDeserialize(as = ImmutableJarMerging.class)
+    public interface JarMerging {
+        /** The jars that each merged jar replaces, in classpath order. */
+        Map<String, List<String>> merged();
+
+        /** Jars small enough to merge that were left as they are, and why. */
+        Map<String, String> skipped();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableJarMerging.Builder {}
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.palantir.gradle.dist.ObjectMappers;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.immutables.value.Value;
+
+/**
+ * Writes an <a href="https://github.com/opencontainers/image-spec/blob/main/image-layout.md">OCI image layout</a>:
+ * content addressed blobs under {@code blobs/sha256}, an {@code index.json} pointing at the image manifest and the
+ * {@code oci-layout} marker. Blobs are named by the SHA-256 of their bytes, so a layer whose archive did not change
+ * keeps its digest and registries and hosts that already have it skip it.
+ */
+final class OciImageLayout {
+    static final String INDEX_MEDIA_TYPE = "application/vnd.oci.image.index.v1+json";
+    static final String MANIFEST_MEDIA_TYPE = "application/vnd.oci.image.manifest.v1+json";
+    static final String CONFIG_MEDIA_TYPE = "application/vnd.oci.image.config.v1+json";
+    static final String REF_NAME_ANNOTATION = "org.opencontainers.image.ref.name";
+
+    private static final String LAYER_MEDIA_TYPE = "application/vnd.oci.image.layer.v1.tar";
+
+    private final Path directory;
+
+    OciImageLayout(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory.resolve("blobs/sha256"));
+    }
+
+    /**
+     * Adds a layer archive, which may be a plain, gzipped or zstd compressed tar, and returns its descriptor along with
+     * the digest of the uncompressed tar, which the image config lists as the layer's {@code diff_id}.
+     */
+    LayerBlob addLayer(File archive) throws IOException {
+        String compression = compressionOf(archive);
+        Hasher uncompressed = Hashing.sha256().newHasher();
+        HashingInputStream compressed;
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(archive.toPath()))) {
+            compressed = new HashingInputStream(Hashing.sha256(), file);
+            InputStream tar = decompress(compressed, compression);
+            ByteStreams.copy(tar, Funnels.asOutputStream(uncompressed));
+            // Anything after the compressed stream is still part of the blob
+            ByteStreams.exhaust(compressed);
+        }
+        String digest = "sha256:" + compressed.hash();
+        Files.copy(archive.toPath(), blob(digest), StandardCopyOption.REPLACE_EXISTING);
+        return LayerBlob.builder()
+                .descriptor(Descriptor.builder()
+                        .mediaType(compression.isEmpty() ? LAYER_MEDIA_TYPE : LAYER_MEDIA_TYPE + "+" + compression)
+                        .digest(digest)
+                        .size(archive.length())
+                        .build())
+                .diffId("sha256:" + uncompressed.hash())
+                .build();
+    }
+
+    /** Adds {@code value} as a JSON blob and returns its descriptor. */
+    Descriptor addJson(String mediaType, Object value) throws IOException {
+        byte[] json = ObjectMappers.jsonMapper.writeValueAsBytes(value);
+        String digest = "sha256:" + Hashing.sha256().hashBytes(json);
+        Files.write(blob(digest), json);
+        return Descriptor.builder()
+                .mediaType(mediaType)
+                .digest(digest)
+                .size(json.length)
+                .build();
+    }
+
+    /** Writes {@code index.json} with the given manifests, and the {@code oci-layout} marker. */
+    void writeIndex(List<Descriptor> manifests) throws IOException {
+        ObjectMappers.jsonMapper.writeValue(
+                directory.resolve("index.json").toFile(),
+                Index.builder()
+                        .schemaVersion(2)
+                        .mediaType(INDEX_MEDIA_TYPE)
+                        .manifests(manifests)
+                        .build());
+        ObjectMappers.jsonMapper.writeValue(
+                directory.resolve("oci-layout").toFile(),
+                Layout.builder().imageLayoutVersion("1.0.0").build());
+    }
+
+    private Path blob(String digest) {
+        return directory.resolve("blobs/sha256").resolve(digest.substring("sha256:".length()));
+    }
+
+    /** The suffix of the layer media type, told apart by magic bytes rather than by file name. */
+    private static String compressionOf(File archive) throws IOException {
+        byte[] magic = new byte[4];
+        try (InputStream in = Files.newInputStream(archive.toPath())) {
+            int read = ByteStreams.read(in, magic, 0, magic.length);
+            if (read >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+                return "gzip";
+            }
+            if (read == 4
+                    && (magic[0] & 0xff) == 0x28
+                    && (magic[1] & 0xff) == 0xb5
+                    && (magic[2] & 0xff) == 0x2f
+                    && (magic[3] & 0xff) == 0xfd) {
+                return "zstd";
+            }
+            return "";
+        }
+    }
+
+    private static InputStream decompress(InputStream in, String compression) throws IOException {
+        switch (compression) {
+            case "gzip":
+                // Parallel and cached gzip archives consist of many members
+                return new GzipCompressorInputStream(in, true);
+            case "zstd":
+                return new ZstdInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    @Value.Immutable
+    interface LayerBlob {
+        Descriptor descriptor();
+
+        String diffId();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableLayerBlob.Builder {}
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableDescriptor.class)
+    @JsonDeserialize(as = ImmutableDescriptor.class)
+    interface Descriptor {
+        @JsonProperty("mediaType")
+        String mediaType();
+
+        @JsonProperty("digest")
+        String digest();
+
+        @JsonProperty("size")
+        long size();
+
+        @JsonProperty("annotations")
+        @JsonInclude(JsonInclude.Include.NON_EMPTY)
+        Map<String, String> annotations();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableDescriptor.Builder {}
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableIndex.class)
+    @JsonDeserialize(as = ImmutableIndex.class)
+    interface Index {
+        @JsonProperty("schemaVersion")
+        int schemaVersion();
+
+        @JsonProperty("mediaType")
+        String mediaType();
+
+        @JsonProperty("manifests")
+        List<Descriptor> manifests();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableIndex.Builder {}
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableManifest.class)
+    @JsonDeserialize(as = ImmutableManifest.class)
+    interface Manifest {
+        @JsonProperty("schemaVersion")
+        int schemaVersion();
+
+        @JsonProperty("mediaType")
+        String mediaType();
+
+        @JsonProperty("config")
+        Descriptor config();
+
+        /** From the bottom of the file system up. */
+        @JsonProperty("layers")
+        List<Descriptor> layers();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableManifest.Builder {}
+    }
+
+    /** The image config, without a creation time so that building the same layers gives the same image. */
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableImageConfig.class)
+    @JsonDeserialize(as = ImmutableImageConfig.class)
+    interface ImageConfig {
+        @JsonProperty("architecture")
+        String architecture();
+
+        @JsonProperty("os")
+        String os();
+
+        @JsonProperty("config")
+        ContainerConfig config();
+
+        @JsonProperty("rootfs")
+        RootFs rootfs();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableImageConfig.Builder {}
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableContainerConfig.class)
+    @JsonDeserialize(as = ImmutableContainerConfig.class)
+    interface ContainerConfig {
+        /** {@code NAME=value} pairs. */
+        @JsonProperty("Env")
+        List<String> env();
+
+        @JsonProperty("Entrypoint")
+        List<String> entrypoint();
+
+        @JsonProperty("WorkingDir")
+        String workingDir();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableContainerConfig.Builder {}
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableRootFs.class)
+    @JsonDeserialize(as = ImmutableRootFs.class)
+    interface RootFs {
+        @JsonProperty("type")
+        String type();
+
+        /** Digests of the uncompressed layer tars, in the order of the manifest's layers. */
+        @JsonProperty("diff_ids")
+        List<String> diffIds();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableRootFs.Builder {}
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableLayout.class)
+    @JsonDeserialize(as = ImmutableLayout.class)
+    interface Layout {
+        @JsonProperty("imageLayoutVersion")
+        String imageLayoutVersion();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableLayout.Builder {}
+    }
+}
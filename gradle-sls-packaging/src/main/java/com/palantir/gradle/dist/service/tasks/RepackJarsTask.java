@@ -0,0 +1,118 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Rewrites jars with stored rather than deflated entries, so that loading a class reads it without inflating it. The
+ * classes that a recorded {@link #getClassLoadOrder() class load order} names come first and in that order, so that
+ * startup reads each jar mostly from front to back. The contents of every entry stay the same, so signed jars remain
+ * valid.
+ */
+public abstract class RepackJarsTask extends DefaultTask {
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getJars();
+
+    /**
+     * The output of {@code -verbose:class} or {@code -Xlog:class+load} of a run of the service, or a list of class
+     * names. Without it, entries keep their order.
+     */
+    @InputFile
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getClassLoadOrder();
+
+    /** Gets a repacked copy of each of {@link #getJars()}, with the same file name. */
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    @TaskAction
+    final void repackJars() throws IOException {
+        File outputDirectory = getOutputDirectory().getAsFile().get();
+        getProject().delete(outputDirectory);
+        Files.createDirectories(outputDirectory.toPath());
+
+        ClassLoadOrder order = getClassLoadOrder().isPresent()
+                ? ClassLoadOrder.read(getClassLoadOrder().getAsFile().get())
+                : ClassLoadOrder.NONE;
+        for (File jar : getJars()) {
+            repack(jar, new File(outputDirectory, jar.getName()), order);
+        }
+    }
+
+    static void repack(File jar, File output, ClassLoadOrder order) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jar);
+                ZipArchiveOutputStream out = new ZipArchiveOutputStream(output)) {
+            List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+            // A stable sort, so entries of the same rank keep their order
+            entries.sort(Comparator.comparingInt(entry -> rank(entry.getName(), order)));
+            for (ZipArchiveEntry entry : entries) {
+                ZipArchiveEntry stored = new ZipArchiveEntry(entry);
+                stored.setMethod(ZipEntry.STORED);
+                stored.setCompressedSize(entry.getSize());
+                out.putArchiveEntry(stored);
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    ByteStreams.copy(in, out);
+                }
+                out.closeArchiveEntry();
+            }
+        }
+    }
+
+    /**
+     * The manifest and signature files come first, as {@link java.util.jar.JarInputStream} expects, then the loaded
+     * classes in load order, then everything else.
+     */
+    private static int rank(String path, ClassLoadOrder order) {
+        if (path.equals("META-INF/")) {
+            return -3;
+        }
+        if (path.equals(JarFile.MANIFEST_NAME)) {
+            return -2;
+        }
+        if (path.startsWith("META-INF/") && !path.startsWith("META-INF/versions/")) {
+            return -1;
+        }
+        String className = ClassGraph.classNameOf(path);
+        return className == null ? Integer.MAX_VALUE : order.position(className);
+    }
+}
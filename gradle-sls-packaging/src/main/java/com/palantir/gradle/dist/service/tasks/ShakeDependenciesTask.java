@@ -0,0 +1,216 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.palantir.gradle.dist.ObjectMappers;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.JavaVersion;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.immutables.value.Value;
+
+/**
+ * Writes copies of the third-party jars without the classes that the service cannot reach, along with a report of what
+ * it removed. Reachability starts from the main class, every class of the project and of the java agents, the
+ * {@code META-INF/services} providers and the classes that the keep rules or reflection configuration name, and
+ * follows every class that a reached class file refers to, see {@link ClassReferences}. The versioned classes of
+ * multi-release jars count up to {@link #getJavaVersion()}, see {@link ClassGraph}. Resources and signed jars are
+ * always kept as they are.
+ */
+public abstract class ShakeDependenciesTask extends DefaultTask {
+    // Signature files of signed jars, whose digests would no longer match a changed jar
+    static final Pattern SIGNATURE_FILE = Pattern.compile("META-INF/[^/]+\\.(SF|RSA|DSA|EC)");
+
+    @Input
+    public abstract Property<String> getMainClass();
+
+    /** The java version that the service runs on, which picks the versioned classes of multi-release jars. */
+    @Input
+    public abstract Property<JavaVersion> getJavaVersion();
+
+    /** The project's own jars, which are kept as they are. */
+    @Classpath
+    public abstract ConfigurableFileCollection getProjectClasspath();
+
+    /** The third-party jars to slim down. */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getDependencies();
+
+    @Classpath
+    public abstract ConfigurableFileCollection getJavaAgents();
+
+    /** Class names, {@code package.*} or {@code package.**} patterns of classes to keep. */
+    @Input
+    public abstract ListProperty<String> getKeep();
+
+    /** Gets a slimmed copy of each of {@link #getDependencies()}, with the same file name. */
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDirectory();
+
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    @TaskAction
+    final void shakeDependencies() throws IOException {
+        File outputDirectory = getOutputDirectory().getAsFile().get();
+        getProject().delete(outputDirectory);
+        Files.createDirectories(outputDirectory.toPath());
+
+        Iterable<File> classpath = Iterables.concat(getProjectClasspath(), getDependencies(), getJavaAgents());
+        TreeShakingReport.Builder report = TreeShakingReport.builder();
+        int javaVersion = Integer.parseInt(getJavaVersion().get().getMajorVersion());
+        try (ClassGraph graph = ClassGraph.open(classpath, javaVersion)) {
+            Set<String> roots = new HashSet<>();
+            roots.add(getMainClass().get().replace('.', '/'));
+            for (File file : Iterables.concat(getProjectClasspath(), getJavaAgents())) {
+                roots.addAll(graph.classesOf(file));
+            }
+            roots.addAll(graph.reflectedClasses());
+            List<Pattern> keep = getKeep().get().stream()
+                    .map(ShakeDependenciesTask::keepPattern)
+                    .collect(Collectors.toList());
+            graph.allClasses().stream()
+                    .filter(name -> keep.stream().anyMatch(pattern -> pattern.matcher(name).matches()))
+                    .forEach(roots::add);
+
+            Set<String> reachable = graph.reachableFrom(roots);
+            for (File jar : getDependencies()) {
+                report.addJars(shake(jar, new File(outputDirectory, jar.getName()), reachable));
+            }
+        }
+        ObjectMappers.jsonMapper.writeValue(getReportFile().getAsFile().get(), report.build());
+    }
+
+    private static ShakenJar shake(File jar, File output, Set<String> reachable) throws IOException {
+        ShakenJar.Builder result = ShakenJar.builder().file(jar.getName()).originalSize(jar.length());
+        List<String> removed;
+        boolean signed;
+        try (ZipFile zipFile = new ZipFile(jar)) {
+            List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+            signed = entries.stream()
+                    .anyMatch(entry -> SIGNATURE_FILE.matcher(entry.getName()).matches());
+            removed = signed
+                    ? ImmutableList.of()
+                    : entries.stream()
+                            .map(entry -> ClassGraph.classNameOf(entry.getName()))
+                            .filter(name -> name != null && !isKept(name, reachable))
+                            .distinct()
+                            .sorted()
+                            .collect(Collectors.toList());
+            if (!removed.isEmpty()) {
+                try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(output)) {
+                    for (ZipArchiveEntry entry : entries) {
+                        String name = ClassGraph.classNameOf(entry.getName());
+                        if (name == null || isKept(name, reachable)) {
+                            // Copies the compressed bytes, so kept entries are not compressed again
+                            out.addRawArchiveEntry(entry, zipFile.getRawInputStream(entry));
+                        }
+                    }
+                }
+            }
+        }
+        if (removed.isEmpty()) {
+            Files.copy(jar.toPath(), output.toPath());
+        }
+        return result.signed(signed)
+                .removedClasses(removed.stream()
+                        .map(name -> name.replace('/', '.'))
+                        .collect(Collectors.toList()))
+                .size(output.length())
+                .build();
+    }
+
+    private static boolean isKept(String className, Set<String> reachable) {
+        return reachable.contains(className)
+                || className.equals("module-info")
+                || className.endsWith("/package-info");
+    }
+
+    /** Matches internal class names against {@code a.B}, {@code a.*} or {@code a.**}. */
+    private static Pattern keepPattern(String rule) {
+        if (rule.endsWith(".**")) {
+            return Pattern.compile(Pattern.quote(rule.substring(0, rule.length() - 2).replace('.', '/')) + ".+");
+        }
+        if (rule.endsWith(".*")) {
+            return Pattern.compile(Pattern.quote(rule.substring(0, rule.length() - 1).replace('.', '/')) + "[^/]+");
+        }
+        return Pattern.compile(Pattern.quote(rule.replace('.', '/')));
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableTreeShakingReport.class)
+    @JsonDeserialize(as = ImmutableTreeShakingReport.class)
+    public interface TreeShakingReport {
+        List<ShakenJar> jars();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableTreeShakingReport.Builder {}
+    }
+
+    @Value.Immutable
+    @JsonSerialize(as = ImmutableShakenJar.class)
+    @JsonDeserialize(as = ImmutableShakenJar.class)
+    public interface ShakenJar {
+        String file();
+
+        long originalSize();
+
+        long size();
+
+        /** Signed jars are never changed, as their signatures would no longer match. */
+        boolean signed();
+
+        List<String> removedClasses();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        final class Builder extends ImmutableShakenJar.Builder {}
+    }
+}
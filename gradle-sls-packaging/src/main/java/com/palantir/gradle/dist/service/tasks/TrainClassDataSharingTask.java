@@ -0,0 +1,208 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.tasks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.JavaVersion;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+/**
+ * Runs the service from an {@link #getInstallation() installed distribution} as its {@code launcher-static.yml}
+ * configures it, with the {@link #getTrainingArgs() training args}, and writes an archive of the classes that it
+ * loaded: a dynamic class data sharing archive ({@code .jsa}) when the training java runtime is java 13 to 23, or an
+ * ahead-of-time cache ({@code .aot}) from java 24, see {@link #archiveExtension(File)}.
+ *
+ * <p>The JVM only uses the archive with the same build of java and the same jars, which it recognises by path, size
+ * and modification time, and otherwise loads the classes from the jars as usual.
+ */
+public abstract class TrainClassDataSharingTask extends DefaultTask {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper(new YAMLFactory());
+    private static final int FIRST_AOT_CACHE_VERSION = 24;
+    private static final int FIRST_DYNAMIC_ARCHIVE_VERSION = 13;
+
+    /** The root directory of the installed distribution, with {@code service/bin/launcher-static.yml}. */
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract DirectoryProperty getInstallation();
+
+    @Input
+    public abstract ListProperty<String> getTrainingArgs();
+
+    @Internal
+    public abstract DirectoryProperty getJavaHome();
+
+    /** The java version of the distribution, which the training java runtime must have. */
+    @Input
+    public abstract Property<JavaVersion> getJavaVersion();
+
+    @Internal
+    public abstract Property<Duration> getTrainingTimeout();
+
+    @OutputFile
+    public abstract RegularFileProperty getArchiveFile();
+
+    /** The version of the training java runtime, so that another build of java trains again. */
+    @Input
+    public final String getJavaRuntimeVersion() {
+        return JavaRelease.runtimeVersion(getJavaHome().get().getAsFile());
+    }
+
+    @TaskAction
+    public final void train() throws IOException, InterruptedException {
+        File javaHome = getJavaHome().get().getAsFile();
+        int javaVersion = JavaRelease.majorVersion(javaHome);
+        if (JavaVersion.toVersion(javaVersion) != getJavaVersion().get()) {
+            throw new GradleException(String.format(
+                    "The distribution runs on java %s, but class data sharing trains with java %d from '%s', whose "
+                            + "archive it could not use. Set distribution.classDataSharing.trainingJavaHome to a java "
+                            + "%s runtime.",
+                    getJavaVersion().get().getMajorVersion(),
+                    javaVersion,
+                    javaHome,
+                    getJavaVersion().get().getMajorVersion()));
+        }
+
+        File root = getInstallation().get().getAsFile();
+        LaunchConfigTask.LaunchConfig config = OBJECT_MAPPER.readValue(
+                new File(root, "service/bin/launcher-static.yml"), LaunchConfigTask.LaunchConfig.class);
+        for (String dir : config.dirs()) {
+            Files.createDirectories(root.toPath().resolve(dir));
+        }
+
+        File archive = getArchiveFile().get().getAsFile();
+        Files.deleteIfExists(archive.toPath());
+        Files.createDirectories(archive.getParentFile().toPath());
+        File log = new File(getTemporaryDir(), "training.log");
+        Files.deleteIfExists(log.toPath());
+
+        if (javaVersion >= FIRST_AOT_CACHE_VERSION) {
+            // https://openjdk.org/jeps/483: a training run records the configuration, which a second run turns into
+            // the cache without running the service
+            File aotConfiguration = new File(getTemporaryDir(), "training.aotconf");
+            run(
+                    root,
+                    config,
+                    log,
+                    ImmutableList.of("-XX:AOTMode=record", "-XX:AOTConfiguration=" + aotConfiguration),
+                    true);
+            run(
+                    root,
+                    config,
+                    log,
+                    ImmutableList.of(
+                            "-XX:AOTMode=create",
+                            "-XX:AOTConfiguration=" + aotConfiguration,
+                            "-XX:AOTCache=" + archive),
+                    false);
+        } else {
+            // https://openjdk.org/jeps/350
+            run(root, config, log, ImmutableList.of("-XX:ArchiveClassesAtExit=" + archive), true);
+        }
+
+        if (!archive.isFile()) {
+            throw new GradleException(String.format(
+                    "The training run of the service did not write '%s', see '%s'", archive.getName(), log));
+        }
+    }
+
+    /** Runs the JVM, with the main class and the training args if {@code training}. */
+    private void run(
+            File root, LaunchConfigTask.LaunchConfig config, File log, List<String> archiveOptions, boolean training)
+            throws IOException, InterruptedException {
+        ImmutableList.Builder<String> command = ImmutableList.<String>builder()
+                .add(new File(getJavaHome().get().getAsFile(), "bin/java").getAbsolutePath())
+                .addAll(config.jvmOpts())
+                .addAll(archiveOptions)
+                .add("-cp", String.join(File.pathSeparator, config.classpath()));
+        if (training) {
+            command.add(config.mainClass()).addAll(getTrainingArgs().get());
+        }
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command.build())
+                .directory(root)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+        // go-java-launcher expands {{CWD}} in the environment of the launcher configuration
+        config.env()
+                .forEach((name, value) -> processBuilder
+                        .environment()
+                        .put(name, value.replace("{{CWD}}", root.getAbsolutePath())));
+
+        Process process = processBuilder.start();
+        Duration timeout = getTrainingTimeout().get();
+        if (process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            if (process.exitValue() != 0) {
+                throw new GradleException(String.format(
+                        "The %s run of the service failed with exit code %d, see '%s'",
+                        training ? "training" : "archive creation",
+                        process.exitValue(),
+                        log));
+            }
+            return;
+        }
+
+        getLogger().lifecycle("Stopping the training run of the service after {}", timeout);
+        // SIGTERM, on which the JVM still writes the archive as it exits
+        process.destroy();
+        if (!process.waitFor(1, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+            throw new GradleException(
+                    String.format("The training run of the service did not exit when stopped, see '%s'", log));
+        }
+    }
+
+    /**
+     * The file extension of the archive that trains with the java runtime at {@code javaHome}: {@code aot} from java
+     * 24 and {@code jsa} before.
+     */
+    public static String archiveExtension(File javaHome) {
+        int javaVersion = JavaRelease.majorVersion(javaHome);
+        if (javaVersion < FIRST_DYNAMIC_ARCHIVE_VERSION) {
+            throw new GradleException(String.format(
+                    "Class data sharing needs java %d or later to train, but '%s' is java %d",
+                    FIRST_DYNAMIC_ARCHIVE_VERSION, javaHome, javaVersion));
+        }
+        return javaVersion >= FIRST_AOT_CACHE_VERSION ? "aot" : "jsa";
+    }
+
+    /** Whether a distribution on {@code javaVersion} can use an archive with the given file name. */
+    static boolean supports(JavaVersion javaVersion, String archiveName) {
+        return javaVersion.compareTo(JavaVersion.toVersion(
+                        archiveName.endsWith(".aot") ? FIRST_AOT_CACHE_VERSION : FIRST_DYNAMIC_ARCHIVE_VERSION))
+                >= 0;
+    }
+}
@@ -18,23 +18,25 @@ package com.palantir.gradle.dist.tasks;
 
 import com.palantir.gradle.dist.BaseDistributionExtension;
 import com.palantir.gradle.dist.ObjectMappers;
+import com.palantir.gradle.dist.ProductType;
+import com.palantir.gradle.dist.archive.ArchiveCompression;
+import com.palantir.gradle.dist.archive.SlsTarTask;
 import com.palantir.gradle.dist.service.JavaServiceDistributionPlugin;
 import java.io.File;
 import java.io.IOException;
 import org.gradle.api.Project;
 import org.gradle.api.tasks.TaskProvider;
-import org.gradle.api.tasks.bundling.Compression;
-import org.gradle.api.tasks.bundling.Tar;
+import org.gradle.api.tasks.bundling.AbstractArchiveTask;
 
 public final class ConfigTarTask {
     private ConfigTarTask() {}
 
-    public static TaskProvider<Tar> createConfigTarTask(Project project, BaseDistributionExtension ext) {
-        TaskProvider<Tar> configTar = project.getTasks().register("configTar", Tar.class, task -> {
+    public static TaskProvider<SlsTarTask> createConfigTarTask(Project project, BaseDistributionExtension ext) {
+        TaskProvider<SlsTarTask> configTar = project.getTasks().register("configTar", SlsTarTask.class, task -> {
             task.setGroup(JavaServiceDistributionPlugin.GROUP_NAME);
             task.setDescription(
-                    "Creates a compressed, gzipped tar file that contains the sls configuration files for the product");
-            task.setCompression(Compression.GZIP);
+                    "Creates a compressed tar file that contains the sls configuration files for the product");
+            SlsTarTask.configureCompression(task, ext);
 
             task.from(new File(project.getProjectDir(), "deployment"));
             task.from(new File(project.getBuildDir(), "deployment"));
@@ -43,16 +45,9 @@ public final class ConfigTarTask {
             task.getArchiveBaseName().set(ext.getDistributionServiceName());
             task.getArchiveVersion()
                     .set(project.provider(() -> project.getVersion().toString()));
-            task.getArchiveExtension().set(ext.getProductType().map(productType -> {
-                try {
-                    String productTypeString = ObjectMappers.jsonMapper.writeValueAsString(productType);
-                    return productTypeString
-                            .substring(1, productTypeString.lastIndexOf('.'))
-                            .concat(".config.tgz");
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }));
+            task.getArchiveExtension()
+                    .set(ext.getProductType().flatMap(productType -> ext.getCompression()
+                            .map(compression -> configExtension(productType, compression))));
         });
 
         // TODO(forozco): make this lazy since into does not support providers, but does support callable
@@ -63,4 +58,43 @@ public final class ConfigTarTask {
 
         return configTar;
     }
+
+    /**
+     * When single pass archives are enabled, has {@code distTar} write the config archive while it writes the
+     * distribution, which contains the same {@code deployment} files, into a temporary directory of its own.
+     * {@code configTar} then copies it to the config archive, which keeps its name and location, so consumers of
+     * {@code configTar} get the same file, and each file has a single task that writes it.
+     */
+    public static void configureSinglePass(
+            Project project,
+            BaseDistributionExtension ext,
+            TaskProvider<SlsTarTask> configTar,
+            TaskProvider<SlsTarTask> distTar) {
+        project.afterEvaluate(_p -> {
+            if (!ext.getEnableSinglePassArchives().get()) {
+                return;
+            }
+            distTar.configure(task -> task.getConfigArchiveFile()
+                    .set(project.getLayout()
+                            .getBuildDirectory()
+                            .file(configTar.flatMap(AbstractArchiveTask::getArchiveFileName)
+                                    .map(name -> String.format("tmp/%s/%s", task.getName(), name)))));
+            configTar.configure(task -> {
+                task.setDescription("Creates a compressed tar file of the sls configuration files, written by distTar");
+                task.getPrebuiltArchiveFile().set(distTar.flatMap(SlsTarTask::getConfigArchiveFile));
+            });
+        });
+    }
+
+    private static String configExtension(ProductType productType, ArchiveCompression compression) {
+        try {
+            String productTypeString = ObjectMappers.jsonMapper.writeValueAsString(productType);
+            return productTypeString
+                    .substring(1, productTypeString.lastIndexOf('.'))
+                    .concat(".config.")
+                    .concat(compression.getFileExtension());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive
+
+import com.google.common.hash.Hashing
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.time.Duration
+import java.time.Instant
+import java.util.zip.Deflater
+import java.util.zip.GZIPInputStream
+import spock.lang.Specification
+
+class CachingGzipOutputStreamTest extends Specification {
+    private static final int BLOCK_SIZE = 64 * 1024
+    private static final byte[] HEADER = 'header'.bytes
+
+    Path cacheDir
+
+    def setup() {
+        cacheDir = Files.createTempDirectory('gzip-cache')
+    }
+
+    def cleanup() {
+        cacheDir.toFile().deleteDir()
+    }
+
+    def 'output round trips and does not depend on the state of the cache'() {
+        given:
+        List<byte[]> entries = (0..<5).collect { sampleData(it, 3 * BLOCK_SIZE + it) }
+
+        when:
+        byte[] cold = compress(cacheDir, entries)
+        byte[] warm = compress(cacheDir, entries)
+
+        then:
+        cold == warm
+        new GZIPInputStream(new ByteArrayInputStream(warm)).bytes == uncompressed(entries)
+        cacheFiles() == 5
+    }
+
+    def 'identical content is only compressed once'() {
+        given:
+        byte[] shared = sampleData(1, BLOCK_SIZE)
+
+        when:
+        compress(cacheDir, [shared, sampleData(2, BLOCK_SIZE), shared])
+
+        then:
+        cacheFiles() == 2
+    }
+
+    def 'empty stream produces a valid gzip file'() {
+        when:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        new CachingGzipOutputStream(out, cacheDir, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, 2).close()
+        byte[] compressed = out.toByteArray()
+
+        then:
+        new GZIPInputStream(new ByteArrayInputStream(compressed)).bytes.length == 0
+    }
+
+    def 'segments are compressed at their own level, also without a cache'() {
+        given:
+        byte[] entry = sampleData(1, 3 * BLOCK_SIZE)
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        def stream = new CachingGzipOutputStream(out, null, Deflater.BEST_COMPRESSION, BLOCK_SIZE, 2)
+
+        when:
+        stream.write(HEADER)
+        stream.startSegment(Hashing.sha256().hashBytes(entry), Deflater.NO_COMPRESSION)
+        stream.write(entry)
+        stream.endSegment()
+        stream.write(HEADER)
+        stream.close()
+
+        then:
+        // stored deflate blocks add a few bytes per 64 KiB, while deflating this data would halve it
+        stream.lastSegmentSize() > entry.length
+        stream.lastSegmentSize() < entry.length + 1024
+        new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())).bytes == uncompressed([entry])
+        cacheFiles() == 0
+    }
+
+    def 'incremental rebuild only compresses the changed entry'() {
+        given:
+        List<byte[]> entries = (0..<40).collect { sampleData(it, BLOCK_SIZE) }
+
+        when:
+        CachingGzipOutputStream cold = write(cacheDir, entries)
+        entries[7] = sampleData(1000, BLOCK_SIZE)
+        CachingGzipOutputStream incremental = write(cacheDir, entries)
+
+        then:
+        cold.cacheHits() == 0
+        cold.cacheMisses() == 40
+        incremental.cacheHits() == 39
+        incremental.cacheMisses() == 1
+        cacheFiles() == 41
+    }
+
+    def 'closing the stream prunes segments that were not used recently'() {
+        given:
+        byte[] used = sampleData(1, BLOCK_SIZE)
+        byte[] unused = sampleData(2, BLOCK_SIZE)
+        compress(cacheDir, [used, unused])
+        Path abandoned = Files.createFile(cacheDir.resolve('v1-abandoned.gz.tmp'))
+        FileTime stale = FileTime.from(Instant.now() - CachingGzipOutputStream.MAX_UNUSED_AGE - Duration.ofDays(1))
+        cacheDir.toFile().listFiles().each { Files.setLastModifiedTime(it.toPath(), stale) }
+
+        when:
+        CachingGzipOutputStream stream = write(cacheDir, [used])
+
+        then:
+        stream.cacheHits() == 1
+        cacheFiles() == 1
+        !Files.exists(abandoned)
+        write(cacheDir, [used, unused]).cacheMisses() == 1
+    }
+
+    private int cacheFiles() {
+        return cacheDir.toFile().listFiles().count { it.isFile() }
+    }
+
+    private static byte[] compress(Path cacheDir, List<byte[]> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        write(out, cacheDir, entries)
+        return out.toByteArray()
+    }
+
+    private static CachingGzipOutputStream write(Path cacheDir, List<byte[]> entries) {
+        return write(new ByteArrayOutputStream(), cacheDir, entries)
+    }
+
+    private static CachingGzipOutputStream write(OutputStream out, Path cacheDir, List<byte[]> entries) {
+        def stream = new CachingGzipOutputStream(out, cacheDir, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, 2)
+        stream.withCloseable {
+            entries.each { entry ->
+                stream.write(HEADER)
+                stream.startSegment(Hashing.sha256().hashBytes(entry))
+                stream.write(entry)
+                stream.endSegment()
+            }
+            stream.write(HEADER)
+        }
+        return stream
+    }
+
+    private static byte[] uncompressed(List<byte[]> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        entries.each { entry ->
+            out.write(HEADER)
+            out.write(entry)
+        }
+        out.write(HEADER)
+        return out.toByteArray()
+    }
+
+    private static byte[] sampleData(int seed, int length) {
+        Random random = new Random(seed)
+        byte[] data = new byte[length]
+        String alphabet = "abcdefghij\n"
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) alphabet.charAt(random.nextInt(alphabet.length()))
+        }
+        return data
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive
+
+import com.google.common.hash.Hashing
+import com.palantir.gradle.dist.ObjectMappers
+import java.nio.file.Files
+import java.nio.file.Path
+import spock.lang.Specification
+
+class ChecksumVerifierTest extends Specification {
+    Path dist
+
+    def setup() {
+        dist = Files.createTempDirectory('checksums')
+        Map<String, String> files = [:]
+        ['service/lib/a.jar', 'service/lib/b.jar', 'service/bin/init.sh', 'var/conf/svc.yml'].eachWithIndex { path, i ->
+            byte[] content = new byte[100_000 * i + 10]
+            new Random(i).nextBytes(content)
+            Path file = dist.resolve(path)
+            Files.createDirectories(file.parent)
+            Files.write(file, content)
+            files.put(path, Hashing.sha256().hashBytes(content).toString())
+        }
+        Files.createDirectories(dist.resolve('deployment'))
+        ObjectMappers.jsonMapper.writeValue(
+                dist.resolve(Checksums.PATH).toFile(),
+                Checksums.builder().algorithm(Checksums.ALGORITHM).files(files).build())
+    }
+
+    def cleanup() {
+        dist.toFile().deleteDir()
+    }
+
+    def 'intact distribution verifies'() {
+        expect:
+        ChecksumVerifier.verify(dist, 4).isEmpty()
+    }
+
+    def 'changed and missing files are reported in checksum order'() {
+        given:
+        dist.resolve('var/conf/svc.yml').toFile() << 'extra'
+        Files.delete(dist.resolve('service/lib/a.jar'))
+        // files without a checksum are not checked
+        dist.resolve('var/conf/other.yml').toFile() << 'other'
+
+        expect:
+        ChecksumVerifier.verify(dist, 4) == ['service/lib/a.jar', 'var/conf/svc.yml']
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive
+
+import com.google.common.hash.Hashing
+import com.palantir.gradle.dist.ObjectMappers
+import com.palantir.logsafe.exceptions.SafeIllegalStateException
+import java.nio.file.Files
+import java.nio.file.Path
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import spock.lang.Specification
+
+class ChunkReassemblerTest extends Specification {
+    Path tempDir
+
+    def setup() {
+        tempDir = Files.createTempDirectory('chunk-store')
+    }
+
+    def cleanup() {
+        tempDir.toFile().deleteDir()
+    }
+
+    def 'reconstructs version N+1 from version N and the missing chunks'() {
+        given:
+        Map<String, byte[]> entriesN = distribution('1.0.0')
+        Map<String, byte[]> entriesN1 = new LinkedHashMap<>(entriesN)
+        entriesN1['service/lib/lib-7.jar'] = sampleData(1007, 300 * 1024)
+        entriesN1['service/lib/new-lib.jar'] = sampleData(2000, 100 * 1024)
+        entriesN1['deployment/manifest.yml'] = 'product-version: 1.0.1\n'.bytes
+        def (byte[] tarN, ChunkIndex indexN) = tar(entriesN)
+        def (byte[] tarN1, ChunkIndex indexN1) = tar(entriesN1)
+
+        Path agentStore = tempDir.resolve('agent')
+        Path serverStore = tempDir.resolve('server')
+        ChunkReassembler.storeChunks(new ByteArrayInputStream(tarN), indexN, agentStore)
+        ChunkReassembler.storeChunks(new ByteArrayInputStream(tarN1), indexN1, serverStore)
+
+        when:
+        List<ChunkIndex.Chunk> missing = ChunkReassembler.missingChunks(indexN1, agentStore)
+        missing.each { chunk -> Files.copy(serverStore.resolve(chunk.sha256()), agentStore.resolve(chunk.sha256())) }
+        ByteArrayOutputStream reassembled = new ByteArrayOutputStream()
+        ChunkReassembler.reassemble(indexN1, agentStore, reassembled)
+
+        then:
+        reassembled.toByteArray() == tarN1
+        ChunkReassembler.missingChunks(indexN1, agentStore).isEmpty()
+        // Only the chunks around the changed, added and shifted entries have to be fetched
+        long fetched = missing.sum { it.size() } as long
+        fetched * 4 < tarN1.length
+    }
+
+    def 'chunk boundaries realign after an insertion'() {
+        given:
+        byte[] data = sampleData(1, 2 * 1024 * 1024)
+        byte[] shifted = new byte[data.length + 100]
+        System.arraycopy(data, 0, shifted, 100, data.length)
+
+        when:
+        Set<String> before = chunk(data).chunks()*.sha256() as Set
+        List<String> after = chunk(shifted).chunks()*.sha256()
+
+        then:
+        after.count { !before.contains(it) } <= 2
+    }
+
+    def 'index describes the whole stream and round trips through json'() {
+        given:
+        byte[] data = sampleData(2, 1024 * 1024 + 17)
+        Path indexFile = tempDir.resolve('index.json')
+
+        when:
+        ChunkIndex index = chunk(data)
+        ObjectMappers.jsonMapper.writeValue(indexFile.toFile(), index)
+
+        then:
+        ChunkReassembler.readIndex(indexFile) == index
+        index.size() == data.length
+        index.sha256() == Hashing.sha256().hashBytes(data).toString()
+        index.chunks().sum { it.size() } == data.length
+        index.chunks().every { it.size() <= ChunkingOutputStream.MAX_CHUNK_SIZE }
+        index.chunks().dropRight(1).every { it.size() >= ChunkingOutputStream.MIN_CHUNK_SIZE }
+    }
+
+    def 'rejects chunks that do not match their hash'() {
+        given:
+        byte[] data = sampleData(3, 512 * 1024)
+        ChunkIndex index = chunk(data)
+        Path store = tempDir.resolve('store')
+        ChunkReassembler.storeChunks(new ByteArrayInputStream(data), index, store)
+        store.resolve(index.chunks()[1].sha256()).toFile().bytes = sampleData(4, 10)
+
+        when:
+        ChunkReassembler.reassemble(index, store, new ByteArrayOutputStream())
+
+        then:
+        thrown(SafeIllegalStateException)
+    }
+
+    private static Map<String, byte[]> distribution(String version) {
+        Map<String, byte[]> entries = new LinkedHashMap<>()
+        entries['deployment/manifest.yml'] = "product-version: ${version}\n".bytes
+        (0..<20).each { entries["service/lib/lib-${it}.jar".toString()] = sampleData(it, 300 * 1024) }
+        return entries
+    }
+
+    private static List<Object> tar(Map<String, byte[]> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        ChunkingOutputStream chunker = new ChunkingOutputStream(out)
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(chunker)
+        entries.each { name, content ->
+            TarArchiveEntry entry = new TarArchiveEntry(name)
+            entry.setSize(content.length)
+            tar.putArchiveEntry(entry)
+            tar.write(content)
+            tar.closeArchiveEntry()
+        }
+        tar.finish()
+        return [out.toByteArray(), chunker.finish()]
+    }
+
+    private static ChunkIndex chunk(byte[] data) {
+        ChunkingOutputStream chunker = new ChunkingOutputStream(new ByteArrayOutputStream())
+        // Uneven writes, so that boundaries are found across write calls
+        for (int offset = 0; offset < data.length; offset += 10_000) {
+            chunker.write(data, offset, Math.min(10_000, data.length - offset))
+        }
+        return chunker.finish()
+    }
+
+    private static byte[] sampleData(int seed, int length) {
+        byte[] data = new byte[length]
+        new Random(seed).nextBytes(data)
+        return data
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.GZIPOutputStream
+import org.gradle.api.file.FileCopyDetails
+import org.gradle.api.file.RelativePath
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class CompressedContentTest extends Specification {
+    Path dir
+
+    def setup() {
+        dir = Files.createTempDirectory('compressed-content')
+    }
+
+    def cleanup() {
+        dir.toFile().deleteDir()
+    }
+
+    @Unroll
+    def '#path is recognized by its extension'() {
+        expect:
+        CompressedContent.isCompressed(entry(path, 'plain text'.bytes)) == compressed
+
+        where:
+        path                                  | compressed
+        'svc-1.0.0/service/lib/guava.jar'     | true
+        'svc-1.0.0/var/data/dump.tar.GZ'      | true
+        'svc-1.0.0/var/static/logo.png'       | true
+        'svc-1.0.0/var/conf/launcher.yml'     | false
+        'svc-1.0.0/service/bin/init.sh'       | false
+        'svc-1.0.0/var/data/classes.jsa'      | false
+    }
+
+    def 'large files without an extension are recognized by their content'() {
+        given:
+        byte[] text = ('line\n' * 2000).bytes
+        byte[] random = new byte[8192]
+        new Random(1).nextBytes(random)
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream()
+        new GZIPOutputStream(gzipped).withCloseable { it.write(random) }
+
+        expect:
+        CompressedContent.isCompressed(entry('svc-1.0.0/service/bin/linux-amd64/blob', gzipped.toByteArray()))
+        !CompressedContent.isCompressed(entry('svc-1.0.0/service/bin/linux-amd64/script', text))
+        // too small to be worth reading
+        !CompressedContent.isCompressed(entry('svc-1.0.0/service/bin/small', [0x1f, 0x8b, 0, 0] as byte[]))
+    }
+
+    private PendingEntry entry(String path, byte[] content) {
+        File file = dir.resolve(path.replace('/', '_')).toFile()
+        file.bytes = content
+        FileCopyDetails details = Stub(FileCopyDetails) {
+            getRelativePath() >> RelativePath.parse(true, path)
+            isDirectory() >> false
+            getSize() >> content.length
+            getMode() >> 0644
+            getFile() >> file
+        }
+        return PendingEntry.of(details)
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive
+
+import org.gradle.api.file.FileCopyDetails
+import org.gradle.api.file.RelativePath
+import spock.lang.Specification
+
+class EntryOrderTest extends Specification {
+
+    def 'manifest and launcher configuration come first and jars last by size'() {
+        given:
+        List<PendingEntry> entries = [
+                directory('svc-1.0.0/var'),
+                file('svc-1.0.0/var/conf/svc.yml', 10),
+                file('svc-1.0.0/var/conf/launcher-custom.yml', 10),
+                file('svc-1.0.0/service/lib/large.jar', 3000),
+                file('svc-1.0.0/service/lib/small.jar', 100),
+                file('svc-1.0.0/service/lib/b-medium.jar', 2000),
+                file('svc-1.0.0/service/lib/a-medium.jar', 2000),
+                file('svc-1.0.0/service/lib/agent/agent.jar', 500),
+                file('svc-1.0.0/service/bin/svc', 10),
+                file('svc-1.0.0/service/bin/launcher-static.yml', 10),
+                file('svc-1.0.0/service/bin/init.sh', 10),
+                file('svc-1.0.0/service/bin/linux-amd64/go-java-launcher', 5000),
+                file('svc-1.0.0/service/bin/launcher-check.yml', 10),
+                file('svc-1.0.0/service/monitoring/bin/check.sh', 10),
+                file('svc-1.0.0/deployment/configuration.yml', 10),
+                file('svc-1.0.0/deployment/manifest.yml', 10),
+        ]
+
+        when:
+        EntryOrder.sort(entries)
+
+        then:
+        entries*.path() == [
+                'svc-1.0.0/deployment/manifest.yml',
+                'svc-1.0.0/var/conf/launcher-custom.yml',
+                'svc-1.0.0/service/bin/launcher-static.yml',
+                'svc-1.0.0/service/bin/launcher-check.yml',
+                'svc-1.0.0/deployment/configuration.yml',
+                'svc-1.0.0/service/bin/svc',
+                'svc-1.0.0/service/bin/init.sh',
+                'svc-1.0.0/service/monitoring/bin/check.sh',
+                'svc-1.0.0/var',
+                'svc-1.0.0/var/conf/svc.yml',
+                'svc-1.0.0/service/bin/linux-amd64/go-java-launcher',
+                'svc-1.0.0/service/lib/small.jar',
+                'svc-1.0.0/service/lib/agent/agent.jar',
+                'svc-1.0.0/service/lib/a-medium.jar',
+                'svc-1.0.0/service/lib/b-medium.jar',
+                'svc-1.0.0/service/lib/large.jar',
+        ]
+    }
+
+    def 'order does not depend on the order gradle visits jars in'() {
+        given:
+        List<PendingEntry> entries = (0..<20).collect { file("svc-1.0.0/service/lib/lib-${it}.jar", it % 7) }
+        List<PendingEntry> shuffled = new ArrayList<>(entries)
+        Collections.shuffle(shuffled, new Random(1))
+
+        when:
+        EntryOrder.sort(entries)
+        EntryOrder.sort(shuffled)
+
+        then:
+        shuffled*.path() == entries*.path()
+    }
+
+    private PendingEntry file(String path, long size) {
+        FileCopyDetails details = Stub(FileCopyDetails) {
+            getRelativePath() >> RelativePath.parse(true, path)
+            isDirectory() >> false
+            getSize() >> size
+            getMode() >> 0644
+            getFile() >> new File(path)
+        }
+        return PendingEntry.of(details)
+    }
+
+    private PendingEntry directory(String path) {
+        FileCopyDetails details = Stub(FileCopyDetails) {
+            getRelativePath() >> RelativePath.parse(false, path)
+            isDirectory() >> true
+            getMode() >> 0755
+        }
+        return PendingEntry.of(details)
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.zip.Deflater
+import java.util.zip.GZIPInputStream
+import java.util.zip.Inflater
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+import spock.lang.Specification
+
+class ParallelGzipOutputStreamTest extends Specification {
+    private static final int BLOCK_SIZE = 64 * 1024
+
+    def 'output is a multi-member gzip file that round trips'() {
+        given:
+        byte[] data = sampleData(10 * BLOCK_SIZE + 123)
+
+        when:
+        byte[] compressed = compress(data, 4, BLOCK_SIZE)
+
+        then:
+        new GZIPInputStream(new ByteArrayInputStream(compressed)).bytes == data
+        countMembers(compressed) == 11
+    }
+
+    def 'output does not depend on the number of threads'() {
+        given:
+        byte[] data = sampleData(7 * BLOCK_SIZE + 5)
+
+        expect:
+        compress(data, 1, BLOCK_SIZE) == compress(data, 2, BLOCK_SIZE)
+        compress(data, 1, BLOCK_SIZE) == compress(data, 8, BLOCK_SIZE)
+    }
+
+    def 'empty input produces a valid gzip file'() {
+        when:
+        byte[] compressed = compress(new byte[0], 2, BLOCK_SIZE)
+
+        then:
+        new GZIPInputStream(new ByteArrayInputStream(compressed)).bytes.length == 0
+    }
+
+    def 'can be extracted by decoders of concatenated gzip members'() {
+        given:
+        byte[] data = sampleData(3 * BLOCK_SIZE)
+        byte[] compressed = compress(data, 4, BLOCK_SIZE)
+
+        expect:
+        new GzipCompressorInputStream(new ByteArrayInputStream(compressed), true).bytes == data
+    }
+
+    def 'compresses several blocks at once'() {
+        given:
+        byte[] data = sampleData(16 * BLOCK_SIZE)
+        int threads = 4
+        CountDownLatch started = new CountDownLatch(threads)
+        AtomicBoolean overlapped = new AtomicBoolean(true)
+        // Each of the first blocks waits for the others to start, which only happens if they are in flight together
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            protected void beforeExecute(Thread thread, Runnable task) {
+                started.countDown()
+                if (!started.await(10, TimeUnit.SECONDS)) {
+                    overlapped.set(false)
+                }
+            }
+        }
+
+        when:
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        new ParallelGzipOutputStream(out, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, threads, executor).withCloseable {
+            it.write(data)
+        }
+
+        then:
+        overlapped.get()
+        out.toByteArray() == compress(data, 1, BLOCK_SIZE)
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    private static byte[] compress(byte[] data, int threads, int blockSize) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        new ParallelGzipOutputStream(out, Deflater.DEFAULT_COMPRESSION, blockSize, threads).withCloseable {
+            // odd sized writes so that writes straddle block boundaries
+            for (int offset = 0; offset < data.length; offset += 1000) {
+                it.write(data, offset, Math.min(1000, data.length - offset))
+            }
+        }
+        return out.toByteArray()
+    }
+
+    /** Walks the members written by {@link java.util.zip.GZIPOutputStream}, which have a fixed 10 byte header. */
+    private static int countMembers(byte[] compressed) {
+        int members = 0
+        int offset = 0
+        while (offset < compressed.length) {
+            Inflater inflater = new Inflater(true)
+            inflater.setInput(compressed, offset + 10, compressed.length - offset - 10)
+            byte[] sink = new byte[BLOCK_SIZE]
+            while (!inflater.finished()) {
+                inflater.inflate(sink)
+            }
+            offset = compressed.length - inflater.remaining + 8
+            inflater.end()
+            members++
+        }
+        return members
+    }
+
+    private static byte[] sampleData(int length) {
+        Random random = new Random(42)
+        byte[] data = new byte[length]
+        String alphabet = "abcdefghij\n"
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) alphabet.charAt(random.nextInt(alphabet.length()))
+        }
+        return data
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive
+
+import com.github.luben.zstd.ZstdInputStream
+import com.github.luben.zstd.ZstdOutputStream
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException
+import java.nio.ByteBuffer
+import java.nio.channels.SeekableByteChannel
+import java.util.zip.Deflater
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class SeekableArchiveReaderTest extends Specification {
+    private static final Map<String, byte[]> FILES = [
+            'service-1.0.0/deployment/manifest.yml': 'product-type: service.v1\n'.bytes,
+            'service-1.0.0/service/lib/large.jar': sampleData(1, 3 * 1024 * 1024),
+            ('service-1.0.0/service/lib/' + 'long-name-' * 20 + '.jar'): sampleData(2, 1000),
+            'service-1.0.0/service/bin/launcher-static.yml': 'mainClass: test.Test\n'.bytes,
+    ]
+
+    @Unroll
+    def '#compression archive is valid and each file is read from its own frames'() {
+        given:
+        def (byte[] archive, ArchiveIndex index) = write(compression)
+        CountingChannel channel = new CountingChannel(new SeekableInMemoryByteChannel(archive))
+        SeekableArchiveReader reader = new SeekableArchiveReader(channel, index)
+
+        expect:
+        entries(decompress(compression, new ByteArrayInputStream(archive))) == FILES.keySet() as List
+        reader.paths() == FILES.keySet()
+        index.entries().every { entry ->
+            channel.bytesRead = 0
+            boolean matches = reader.readEntry(entry.path()) == FILES[entry.path()]
+            matches && channel.bytesRead <= entry.length() && entry.size() == FILES[entry.path()].length
+        }
+
+        where:
+        compression << ArchiveCompression.values()
+    }
+
+    def 'hard links are read from the frames of the file they link to'() {
+        given:
+        def (byte[] archive, ArchiveIndex index) = write(ArchiveCompression.GZIP)
+        ArchiveIndex.Entry target = index.entries().find { it.path() == 'service-1.0.0/service/lib/large.jar' }
+        ArchiveIndex withLink = ArchiveIndex.builder()
+                .from(index)
+                .addEntries(ArchiveIndex.Entry.builder()
+                        .from(target)
+                        .path('service-1.0.0/service/lib/agent/large.jar')
+                        .linkTarget(target.path())
+                        .build())
+                .build()
+        SeekableArchiveReader reader = new SeekableArchiveReader(new SeekableInMemoryByteChannel(archive), withLink)
+
+        expect:
+        reader.readEntry('service-1.0.0/service/lib/agent/large.jar') == FILES['service-1.0.0/service/lib/large.jar']
+    }
+
+    def 'unknown files are rejected'() {
+        given:
+        def (byte[] archive, ArchiveIndex index) = write(ArchiveCompression.GZIP)
+        SeekableArchiveReader reader = new SeekableArchiveReader(new SeekableInMemoryByteChannel(archive), index)
+
+        when:
+        reader.readEntry('service-1.0.0/var/conf/missing.yml')
+
+        then:
+        thrown(SafeIllegalArgumentException)
+    }
+
+    /** Writes the archive the way SlsTarCopyAction does when it has an archive index. */
+    private static List<Object> write(ArchiveCompression compression) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        FramedOutputStream framed = new FramedOutputStream(out, { sink ->
+            compression == ArchiveCompression.GZIP
+                    ? new ParallelGzipOutputStream(sink, Deflater.DEFAULT_COMPRESSION, 1024 * 1024, 1)
+                    : new ZstdOutputStream(sink, 3)
+        } as FramedOutputStream.FrameCompressor)
+        TarArchiveOutputStream tar = new TarArchiveOutputStream(framed)
+        tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX)
+        ArchiveIndex.Builder index = ArchiveIndex.builder().compression(compression.getName())
+
+        tar.putArchiveEntry(new TarArchiveEntry('service-1.0.0/'))
+        tar.closeArchiveEntry()
+        FILES.each { path, content ->
+            long offset = framed.endFrame()
+            TarArchiveEntry entry = new TarArchiveEntry(path)
+            entry.setSize(content.length)
+            tar.putArchiveEntry(entry)
+            tar.write(content)
+            tar.closeArchiveEntry()
+            long end = framed.endFrame()
+            index.addEntries(ArchiveIndex.Entry.builder()
+                    .path(path)
+                    .offset(offset)
+                    .length(end - offset)
+                    .size(content.length)
+                    .build())
+        }
+        tar.finish()
+        framed.close()
+        return [out.toByteArray(), index.build()]
+    }
+
+    private static InputStream decompress(ArchiveCompression compression, InputStream input) {
+        return compression == ArchiveCompression.GZIP
+                ? new GzipCompressorInputStream(input, true)
+                : new ZstdInputStream(input)
+    }
+
+    private static List<String> entries(InputStream decompressed) {
+        List<String> files = []
+        TarArchiveInputStream tar = new TarArchiveInputStream(decompressed)
+        TarArchiveEntry entry
+        while ((entry = tar.nextTarEntry) != null) {
+            if (!entry.isDirectory()) {
+                files.add(entry.name)
+            }
+        }
+        return files
+    }
+
+    private static byte[] sampleData(int seed, int length) {
+        byte[] data = new byte[length]
+        new Random(seed).nextBytes(data)
+        return data
+    }
+
+    private static final class CountingChannel implements SeekableByteChannel {
+        @Delegate
+        private final SeekableByteChannel delegate
+        long bytesRead = 0
+
+        CountingChannel(SeekableByteChannel delegate) {
+            this.delegate = delegate
+        }
+
+        @Override
+        int read(ByteBuffer dst) {
+            int read = delegate.read(dst)
+            bytesRead += Math.max(read, 0)
+            return read
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive
+
+import com.palantir.gradle.dist.ObjectMappers
+import java.nio.file.Files
+import java.nio.file.Path
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class ShardExtractorTest extends Specification {
+    Path directory
+    Map<String, byte[]> files = [:]
+
+    def setup() {
+        directory = Files.createTempDirectory('shards')
+        files['svc-1.0.0/deployment/manifest.yml'] = 'product-type: service.v1\n'.bytes
+        files['svc-1.0.0/service/bin/init.sh'] = '#!/bin/sh\n'.bytes
+        (1..6).each { i ->
+            byte[] content = new byte[100_000 * i]
+            new Random(i).nextBytes(content)
+            files["svc-1.0.0/var/models/model-${i}.bin".toString()] = content
+        }
+        files['svc-1.0.0/var/models/copy.bin'] = files['svc-1.0.0/var/models/model-6.bin']
+    }
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    @Unroll
+    def '#compression shards of about the same size extract to every file'() {
+        when:
+        Path manifest = writeShards(compression, 3)
+        ShardManifest shards = ShardExtractor.readManifest(manifest)
+        List<String> problems = ShardExtractor.extract(manifest, directory.resolve('out'), 3)
+
+        then:
+        problems.isEmpty()
+        files.every { path, content -> Files.readAllBytes(directory.resolve('out').resolve(path)) == content }
+        Files.isExecutable(directory.resolve('out/svc-1.0.0/service/bin/init.sh'))
+        shards.shards().collectMany { it.files().keySet() } as Set == files.keySet()
+        // model-6 is stored once, and linked from its copy in the same shard
+        shards.shards().find { it.files().containsKey('svc-1.0.0/var/models/copy.bin') }
+                .files().containsKey('svc-1.0.0/var/models/model-6.bin')
+        shards.shards().collect { Files.size(directory.resolve(it.file())) }.max() < 800_000
+
+        where:
+        compression << ArchiveCompression.values()
+    }
+
+    def 'files of the manifest that the shards do not have are reported'() {
+        given:
+        Path manifest = writeShards(ArchiveCompression.GZIP, 2)
+        ShardManifest shards = ShardExtractor.readManifest(manifest)
+        ObjectMappers.jsonMapper.writeValue(manifest.toFile(), ShardManifest.builder()
+                .from(shards)
+                .addShards(ShardManifest.Shard.builder()
+                        .file(shards.shards()[0].file())
+                        .size(10)
+                        .putFiles('svc-1.0.0/var/models/missing.bin', 10)
+                        .build())
+                .build())
+
+        expect:
+        ShardExtractor.extract(manifest, directory.resolve('out'), 2) == ['svc-1.0.0/var/models/missing.bin']
+    }
+
+    def 'corrupt shards fail extraction'() {
+        given:
+        Path manifest = writeShards(ArchiveCompression.GZIP, 2)
+        Files.write(directory.resolve(ShardExtractor.readManifest(manifest).shards()[1].file()), 'corrupt'.bytes)
+
+        when:
+        ShardExtractor.extract(manifest, directory.resolve('out'), 2)
+
+        then:
+        thrown(IOException)
+    }
+
+    private Path writeShards(ArchiveCompression compression, int count) {
+        Path manifest = directory.resolve('svc-1.0.0-shards.json')
+        ArchiveSettings settings = ArchiveSettings.builder()
+                .compression(compression)
+                .compressionLevel(compression.getDefaultLevel())
+                .compressedEntryLevel(1)
+                .longWindow(false)
+                .blockSize(1024 * 1024)
+                .threads(2)
+                .preserveFileTimestamps(false)
+                .manifestFirst(true)
+                .hardLinkDuplicates(true)
+                .shardFiles((1..count).collect { directory.resolve("svc-1.0.0-shards-${it}.sls.tar").toFile() })
+                .build()
+        List<PendingEntry> entries = files.collect { path, content ->
+            PendingEntry.ofContent(path, path.endsWith('.sh') ? 0755 : 0644, 0, content)
+        }
+        new SlsTarCopyAction(manifest.toFile(), settings).write(entries)
+        return manifest
+    }
+}
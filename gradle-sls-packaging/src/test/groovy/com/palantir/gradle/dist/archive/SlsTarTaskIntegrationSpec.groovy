@@ -0,0 +1,391 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.archive
+
+import com.github.luben.zstd.ZstdInputStream
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import java.nio.file.Files
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.gradle.testkit.runner.TaskOutcome
+
+class SlsTarTaskIntegrationSpec extends GradleIntegrationSpec {
+
+    def setup() {
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            repositories {
+                mavenCentral()
+            }
+
+            version '0.0.1'
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+            }
+
+            task untarWithGradle(type: Copy) {
+                from { tarTree(distTar.outputs.files.singleFile) }
+                into 'gradle-dist'
+                dependsOn distTar
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << "package test;\npublic class Test {}"
+        file('var/conf/large.txt').text = (1..20_000).collect { "line ${it}" }.join('\n')
+    }
+
+    def 'multi-block distTar extracts with stock tar to the same tree as gradle'() {
+        given:
+        buildFile << '''
+            distTar {
+                compressionBlockSize = 4096
+                compressionThreads = 4
+            }
+        '''.stripIndent()
+
+        when:
+        runTasks(':distTar', ':untarWithGradle')
+        File tarDir = directory('tar-dist')
+        Process process = new ProcessBuilder(
+                'tar', 'xzf', file('build/distributions/service-name-0.0.1.sls.tgz').absolutePath)
+                .directory(tarDir)
+                .start()
+
+        then:
+        process.waitFor() == 0
+        relativeFiles(tarDir) == relativeFiles(directory('gradle-dist'))
+        relativeFiles(tarDir).containsKey('service-name-0.0.1/service/bin/launcher-static.yml')
+        file('tar-dist/service-name-0.0.1/var/conf/large.txt').text == file('var/conf/large.txt').text
+    }
+
+    def 'archive contents do not depend on the number of compression threads'() {
+        when:
+        // generated scripts are rewritten by --rerun-tasks, so ignore their timestamps
+        buildFile << 'distTar { preserveFileTimestamps = false }\n'
+        buildFile << 'distTar { compressionThreads = 1 }\n'
+        runTasks(':distTar')
+        byte[] singleThreaded = file('build/distributions/service-name-0.0.1.sls.tgz').bytes
+
+        buildFile << 'distTar { compressionThreads = 3 }\n'
+        runTasks(':distTar', '--rerun-tasks')
+        byte[] multiThreaded = file('build/distributions/service-name-0.0.1.sls.tgz').bytes
+
+        then:
+        singleThreaded == multiThreaded
+    }
+
+    def 'rebuilding after a change only compresses the changed entry'() {
+        given:
+        buildFile << 'distTar { preserveFileTimestamps = false }\n'
+        File cacheDir = file('build/sls-compression-cache')
+
+        when:
+        runTasks(':distTar')
+        byte[] coldCache = file('build/distributions/service-name-0.0.1.sls.tgz').bytes
+        List<String> cached = cacheDir.list().toList()
+
+        runTasks(':distTar', '--rerun-tasks')
+        byte[] warmCache = file('build/distributions/service-name-0.0.1.sls.tgz').bytes
+
+        file('var/conf/large.txt') << '\nanother line'
+        runTasks(':distTar', ':untarWithGradle')
+
+        then:
+        // large.txt and the launcher binaries are above the caching threshold
+        cached.size() >= 2
+        warmCache == coldCache
+        cacheDir.list().size() == cached.size() + 1
+        file('gradle-dist/service-name-0.0.1/var/conf/large.txt').text == file('var/conf/large.txt').text
+    }
+
+    def 'zstd distribution and config archives contain the same files as gzip ones'() {
+        when:
+        runTasks(':distTar', ':configTar')
+        Map<String, Long> gzipDist = gzipEntries(file('build/distributions/service-name-0.0.1.sls.tgz'))
+        Map<String, Long> gzipConfig = gzipEntries(file('build/distributions/service-name-0.0.1.service.config.tgz'))
+
+        buildFile << """
+            distribution {
+                compression 'zstd'
+                compressionLevel 10
+                compressionLongWindow true
+            }
+        """.stripIndent()
+        runTasks(':distTar', ':configTar')
+
+        then:
+        zstdEntries(file('build/distributions/service-name-0.0.1.sls.tzst')) == gzipDist
+        zstdEntries(file('build/distributions/service-name-0.0.1.service.config.tzst')) == gzipConfig
+        gzipDist.containsKey('service-name-0.0.1/var/conf/large.txt')
+    }
+
+    def 'chunk index describes the uncompressed distribution, also when entries come from the cache'() {
+        given:
+        buildFile << 'distribution { enableChunkIndex true }\n'
+        File archive = file('build/distributions/service-name-0.0.1.sls.tgz')
+        File indexFile = file('build/distributions/service-name-0.0.1.sls.tgz.chunks.json')
+
+        when:
+        runTasks(':distTar')
+        ChunkIndex coldCache = ChunkReassembler.readIndex(indexFile.toPath())
+        runTasks(':distTar', '--rerun-tasks')
+        ChunkIndex warmCache = ChunkReassembler.readIndex(indexFile.toPath())
+        byte[] uncompressed = new java.util.zip.GZIPInputStream(new FileInputStream(archive)).bytes
+
+        then:
+        warmCache == coldCache
+        warmCache.size() == uncompressed.length
+        warmCache.sha256() == com.google.common.hash.Hashing.sha256().hashBytes(uncompressed).toString()
+    }
+
+    def 'seekable archive has the same files and single files can be read through its index'() {
+        given:
+        File archive = file('build/distributions/service-name-0.0.1.sls.tgz')
+
+        when:
+        runTasks(':distTar', ':untarWithGradle')
+        Map<String, Long> regular = gzipEntries(archive)
+
+        buildFile << 'distribution { enableSeekableArchive true }\n'
+        runTasks(':distTar')
+        SeekableArchiveReader reader = SeekableArchiveReader.open(
+                archive.toPath(), file('build/distributions/service-name-0.0.1.sls.tgz.index.json').toPath())
+
+        then:
+        gzipEntries(archive) == regular
+        reader.paths().contains('service-name-0.0.1/deployment/manifest.yml')
+        new String(reader.readEntry('service-name-0.0.1/deployment/manifest.yml')) ==
+                file('gradle-dist/service-name-0.0.1/deployment/manifest.yml').text
+        new String(reader.readEntry('service-name-0.0.1/var/conf/large.txt')) == file('var/conf/large.txt').text
+
+        cleanup:
+        reader?.close()
+    }
+
+    def 'distTar writes the manifest and launcher configuration first and jars last by size'() {
+        given:
+        buildFile << '''
+            dependencies {
+                implementation 'com.google.guava:guava:19.0'
+                implementation 'javax.inject:javax.inject:1'
+            }
+        '''.stripIndent()
+
+        when:
+        runTasks(':distTar')
+        List<TarArchiveEntry> files = orderedEntries(file('build/distributions/service-name-0.0.1.sls.tgz'))
+                .findAll { !it.isDirectory() }
+        List<TarArchiveEntry> jars = files.findAll { it.name.startsWith('service-name-0.0.1/service/lib/') }
+
+        then:
+        files[0].name == 'service-name-0.0.1/deployment/manifest.yml'
+        files[1..2]*.name as Set == [
+                'service-name-0.0.1/service/bin/launcher-static.yml',
+                'service-name-0.0.1/service/bin/launcher-check.yml',
+        ] as Set
+        jars.size() == 3
+        files.takeRight(3) == jars
+        jars*.size == jars*.size.sort(false)
+        jars.last().name == 'service-name-0.0.1/service/lib/guava-19.0.jar'
+    }
+
+    def 'entries follow the copy specs when manifestFirst is disabled'() {
+        given:
+        buildFile << 'distTar { manifestFirst = false }\n'
+
+        when:
+        runTasks(':distTar')
+        List<String> names = orderedEntries(file('build/distributions/service-name-0.0.1.sls.tgz'))*.name
+
+        then:
+        // var is registered first and deployment last
+        names.indexOf('service-name-0.0.1/var/conf/large.txt') <
+                names.indexOf('service-name-0.0.1/deployment/manifest.yml')
+    }
+
+    def 'jars are stored at their own gzip level and each class of entry is reported'() {
+        given:
+        buildFile << '''
+            dependencies {
+                implementation 'com.google.guava:guava:19.0'
+            }
+            distTar { compressionCacheDirectory = null }
+        '''.stripIndent()
+        File archive = file('build/distributions/service-name-0.0.1.sls.tgz')
+
+        when:
+        buildFile << 'distTar { compressedEntryLevel = 9 }\n'
+        runTasks(':distTar')
+        long deflated = archive.length()
+        Map<String, Long> deflatedEntries = gzipEntries(archive)
+
+        buildFile << 'distTar { compressedEntryLevel = 0 }\n'
+        def result = runTasks(':distTar', '--info')
+
+        then:
+        gzipEntries(archive) == deflatedEntries
+        // guava is 2.2 MiB, of which deflating again saves a few percent
+        archive.length() > deflated + 20_000
+        result.output.contains('already compressed: 2 files')
+        result.output.contains('other: ')
+    }
+
+    def 'checksums are added to the distribution and written next to it, and verify the extracted files'() {
+        given:
+        buildFile << 'distribution { enableChecksums true }\n'
+
+        when:
+        runTasks(':untarWithGradle')
+        File dist = file('gradle-dist/service-name-0.0.1')
+        Checksums embedded = ChecksumVerifier.readChecksums(dist.toPath())
+        List<String> names = orderedEntries(file('build/distributions/service-name-0.0.1.sls.tgz'))*.name
+
+        then:
+        names.last() == 'service-name-0.0.1/deployment/checksums.json'
+        embedded.files().containsKey('var/conf/large.txt')
+        embedded.files().containsKey('deployment/manifest.yml')
+        !embedded.files().containsKey(Checksums.PATH)
+        file('build/distributions/service-name-0.0.1.sls.tgz.checksums.json').text ==
+                new File(dist, 'deployment/checksums.json').text
+        ChecksumVerifier.verify(dist.toPath(), 4).isEmpty()
+
+        when:
+        new File(dist, 'var/conf/large.txt') << 'tampered'
+
+        then:
+        ChecksumVerifier.verify(dist.toPath(), 4) == ['var/conf/large.txt']
+    }
+
+    def 'identical files are written as hard links that stock tar extracts to one file'() {
+        given:
+        buildFile << 'distribution { enableHardLinkDuplicates true }\n'
+        file('var/conf/copy.txt').text = file('var/conf/large.txt').text
+
+        when:
+        runTasks(':distTar')
+        File archive = file('build/distributions/service-name-0.0.1.sls.tgz')
+        List<TarArchiveEntry> links = orderedEntries(archive).findAll { it.isLink() }
+        File tarDir = directory('tar-dist')
+        Process process = new ProcessBuilder('tar', 'xzf', archive.absolutePath).directory(tarDir).start()
+
+        then:
+        links.size() == 1
+        [links[0].name, links[0].linkName] as Set ==
+                ['service-name-0.0.1/var/conf/large.txt', 'service-name-0.0.1/var/conf/copy.txt'] as Set
+        process.waitFor() == 0
+        ['large.txt', 'copy.txt'].every { name ->
+            File extracted = file("tar-dist/service-name-0.0.1/var/conf/${name}")
+            extracted.text == file('var/conf/large.txt').text
+                    && Files.getAttribute(extracted.toPath(), 'unix:nlink') == 2
+        }
+    }
+
+    def 'distTarShards writes archives that extract concurrently to the same tree as distTar'() {
+        given:
+        buildFile << 'distribution { archiveShards 3 }\n'
+        file('var/data/model.bin').bytes = new byte[200_000]
+
+        when:
+        runTasks(':distTarShards', ':untarWithGradle')
+        File manifest = file('build/distributions/service-name-0.0.1-shards.json')
+        ShardManifest shards = ShardExtractor.readManifest(manifest.toPath())
+        File shardsDir = directory('shards-dist')
+
+        then:
+        shards.shards()*.file() == (1..3).collect { "service-name-0.0.1-shards-${it}.sls.tgz".toString() }
+        ShardExtractor.extract(manifest.toPath(), shardsDir.toPath(), 3).isEmpty()
+        relativeFiles(shardsDir) == relativeFiles(directory('gradle-dist'))
+    }
+
+    def 'single pass archives write the same config archive from distTar'() {
+        given:
+        File configArchive = file('build/distributions/service-name-0.0.1.service.config.tgz')
+        file('deployment/configuration.yml') << 'key: value\n'
+
+        when:
+        runTasks(':configTar')
+        Map<String, Long> separate = gzipEntries(configArchive)
+
+        buildFile << 'distribution { enableSinglePassArchives true }\n'
+        def result = runTasks(':configTar', '--rerun-tasks')
+
+        then:
+        result.task(':distTar').outcome == TaskOutcome.SUCCESS
+        result.task(':configTar').outcome == TaskOutcome.SUCCESS
+        // distTar writes its own copy, so that no file is the output of both tasks
+        file('build/tmp/distTar/service-name-0.0.1.service.config.tgz').bytes == configArchive.bytes
+        gzipEntries(configArchive) == separate
+        separate.containsKey('service-name-0.0.1/deployment/manifest.yml')
+        separate.containsKey('service-name-0.0.1/deployment/configuration.yml')
+        !separate.keySet().any { !it.startsWith('service-name-0.0.1/deployment/') }
+    }
+
+    def 'unknown compression fails with the supported ones'() {
+        when:
+        buildFile << "distribution { compression 'bzip2' }\n"
+        def result = runTasksAndFail(':distTar')
+
+        then:
+        result.output.contains('Unknown compression')
+        result.output.contains('[gzip, zstd]')
+    }
+
+    private static Map<String, Long> gzipEntries(File archive) {
+        return tarEntries(new java.util.zip.GZIPInputStream(new FileInputStream(archive)))
+    }
+
+    private static Map<String, Long> zstdEntries(File archive) {
+        return tarEntries(new ZstdInputStream(new FileInputStream(archive)))
+    }
+
+    private static Map<String, Long> tarEntries(InputStream decompressed) {
+        Map<String, Long> entries = new TreeMap<>()
+        new TarArchiveInputStream(decompressed).withCloseable { tar ->
+            TarArchiveEntry entry
+            while ((entry = tar.nextTarEntry) != null) {
+                entries.put(entry.name, entry.size)
+            }
+        }
+        return entries
+    }
+
+    private static List<TarArchiveEntry> orderedEntries(File archive) {
+        List<TarArchiveEntry> entries = []
+        def tar = new TarArchiveInputStream(new java.util.zip.GZIPInputStream(new FileInputStream(archive)))
+        tar.withCloseable {
+            TarArchiveEntry entry
+            while ((entry = tar.nextTarEntry) != null) {
+                entries.add(entry)
+            }
+        }
+        return entries
+    }
+
+    private static Map<String, Long> relativeFiles(File root) {
+        Map<String, Long> files = new TreeMap<>()
+        root.eachFileRecurse { file ->
+            if (file.isFile()) {
+                files.put(root.toPath().relativize(file.toPath()).toString(), file.length())
+            }
+        }
+        return files
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory
+import com.fasterxml.jackson.datatype.guava.GuavaModule
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import com.palantir.gradle.dist.service.tasks.LaunchConfigTask
+import spock.lang.IgnoreIf
+
+// Dynamic class data sharing archives need java 13, and the training run uses the java runtime of the build
+@IgnoreIf({ ClassDataSharingIntegrationSpec.JAVA_VERSION < 13 })
+class ClassDataSharingIntegrationSpec extends GradleIntegrationSpec {
+    private static final int JAVA_VERSION =
+            Integer.parseInt(System.getProperty('java.specification.version').replaceFirst(/^1\./, ''))
+    private static final YAML_MAPPER = new ObjectMapper(new YAMLFactory())
+            .registerModule(new GuavaModule())
+
+    def setup() {
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            version '0.0.1'
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+                javaVersion JavaVersion.current()
+                classDataSharing {
+                    trainingArgs 'train'
+                }
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << '''
+            package test;
+            public class Test {
+                public static void main(String[] args) {
+                    System.out.println(new java.util.concurrent.ConcurrentSkipListMap<>(java.util.Map.of(args[0], 1)));
+                }
+            }
+        '''.stripIndent()
+    }
+
+    def 'the trained archive ships in service/lib and only the static launcher maps it'() {
+        when:
+        runTasks(':installDist')
+        File root = file('build/install/service-name-0.0.1')
+        String archive = JAVA_VERSION >= 24 ? 'service-name.aot' : 'service-name.jsa'
+        String option = JAVA_VERSION >= 24 ? '-XX:AOTCache=' : '-XX:SharedArchiveFile='
+
+        then:
+        new File(root, "service/lib/${archive}").isFile()
+        launchConfig(root, 'launcher-static.yml').jvmOpts().contains("${option}service/lib/${archive}".toString())
+        !launchConfig(root, 'launcher-check.yml').jvmOpts().any { it.startsWith(option) }
+        !launchConfig(file('build/class-data-sharing/install/service-name-0.0.1'), 'launcher-static.yml')
+                .jvmOpts().any { it.startsWith(option) }
+    }
+
+    def 'training fails when the distribution runs on another java version'() {
+        buildFile << '''
+            distribution {
+                javaVersion 11
+            }
+        '''.stripIndent()
+
+        when:
+        def buildResult = runTasksWithFailure(':trainClassDataSharing')
+
+        then:
+        buildResult.output.contains('Set distribution.classDataSharing.trainingJavaHome to a java 11 runtime')
+    }
+
+    private static LaunchConfigTask.LaunchConfig launchConfig(File root, String name) {
+        return YAML_MAPPER.readValue(new File(root, "service/bin/${name}"), LaunchConfigTask.LaunchConfig)
+    }
+}
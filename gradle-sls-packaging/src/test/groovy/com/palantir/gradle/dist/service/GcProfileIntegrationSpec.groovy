@@ -22,6 +22,7 @@ import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
 import org.awaitility.Awaitility
+import org.gradle.api.JavaVersion
 import spock.lang.Unroll
 
 class GcProfileIntegrationSpec extends GradleIntegrationSpec {
@@ -83,6 +84,30 @@ class GcProfileIntegrationSpec extends GradleIntegrationSpec {
         println file("touch-service-1.0.0/var/log/startup.log").text
 
         where:
-        gc << GcProfile.PROFILE_NAMES.keySet().toArray()
+        // The distribution runs on the java version that runs the build
+        gc << GcProfile.PROFILE_NAMES
+                .findAll { _name, type ->
+                    JavaVersion.current() >= JavaVersion.toVersion(type.newInstance().minimumJavaVersion())
+                }
+                .keySet()
+                .toArray()
+    }
+
+    def 'fails when the java version does not support the gc profile'() {
+        setup:
+        buildFile << """
+        distribution {
+            javaVersion 17
+            gc 'zgc', {
+                allocationSpikeTolerance 5
+            }
+        }
+        """.stripIndent()
+
+        when:
+        def buildResult = runTasksWithFailure(':createLaunchConfig')
+
+        then:
+        buildResult.output.contains("The gc profile 'zgc' needs java 21 or later, but the distribution runs on java 17")
     }
 }
@@ -0,0 +1,142 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import java.nio.file.Files
+import java.nio.file.Path
+import org.gradle.testkit.runner.TaskOutcome
+
+class InstallDistIntegrationSpec extends GradleIntegrationSpec {
+
+    def setup() {
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            repositories {
+                mavenCentral()
+            }
+
+            version '0.0.1'
+
+            dependencies {
+                implementation 'com.google.guava:guava:19.0'
+            }
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+            }
+
+            task untarWithGradle(type: Copy) {
+                from { tarTree(distTar.outputs.files.singleFile) }
+                into 'gradle-dist'
+                dependsOn distTar
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << "package test;\npublic class Test {}"
+        file('var/conf/service.yml') << 'port: 8080\n'
+    }
+
+    def 'installs the same files as distTar'() {
+        when:
+        runTasks(':installDist', ':untarWithGradle')
+
+        then:
+        relativeFiles(directory('build/install')) == relativeFiles(directory('gradle-dist'))
+        file('build/install/service-name-0.0.1/service/bin/init.sh').canExecute()
+    }
+
+    def 'links build outputs and only replaces changed files on later runs'() {
+        given:
+        Path install = projectDir.toPath().resolve('build/install/service-name-0.0.1')
+
+        when:
+        runTasks(':installDist')
+        Object guava = fileKey(install.resolve('service/lib/guava-19.0.jar'))
+
+        file('var/conf/service.yml').text = 'port: 8081\n'
+        file('var/conf/extra.yml') << 'extra: true\n'
+        runTasks(':installDist')
+        Path projectJar = install.resolve('service/lib').toFile().listFiles()
+                .find { it.name != 'guava-19.0.jar' }.toPath()
+
+        then:
+        // The jar of the project stays linked to the build directory, while the gradle cache and sources are copied
+        Files.getAttribute(projectJar, 'unix:nlink') > 1
+        Files.getAttribute(install.resolve('service/lib/guava-19.0.jar'), 'unix:nlink') == 1
+        Files.getAttribute(install.resolve('var/conf/service.yml'), 'unix:nlink') == 1
+        fileKey(install.resolve('service/lib/guava-19.0.jar')) == guava
+        install.resolve('var/conf/service.yml').text == 'port: 8081\n'
+        install.resolve('var/conf/extra.yml').text == 'extra: true\n'
+        file('var/conf/service.yml').text == 'port: 8081\n'
+
+        when:
+        file('var/conf/extra.yml').delete()
+        runTasks(':installDist')
+
+        then:
+        !Files.exists(install.resolve('var/conf/extra.yml'))
+        fileKey(install.resolve('service/lib/guava-19.0.jar')) == guava
+    }
+
+    def 'consumers that request the exploded variant get a copy of the distribution'() {
+        given:
+        helper.addSubproject('consumer', '''
+            configurations {
+                exploded {
+                    attributes { attribute(Attribute.of('com.palantir.sls.layer', String), 'exploded') }
+                }
+            }
+            dependencies {
+                exploded project(path: ':', configuration: 'sls')
+            }
+            task copyExploded(type: Copy) {
+                from configurations.exploded
+                into 'exploded'
+            }
+        ''')
+
+        when:
+        def result = runTasks(':consumer:copyExploded')
+        runTasks(':untarWithGradle')
+
+        then:
+        result.task(':installExplodedDist').outcome == TaskOutcome.SUCCESS
+        result.task(':installDist') == null
+        result.task(':distTar') == null
+        relativeFiles(directory('consumer/exploded')) == relativeFiles(directory('gradle-dist/service-name-0.0.1'))
+        Files.walk(directory('build/exploded').toPath()).filter { Files.isRegularFile(it) }
+                .allMatch { Files.getAttribute(it, 'unix:nlink') == 1 }
+    }
+
+    private static Object fileKey(Path path) {
+        return Files.readAttributes(path, 'unix:ino')['ino']
+    }
+
+    private static Map<String, Long> relativeFiles(File root) {
+        Map<String, Long> files = new TreeMap<>()
+        root.eachFileRecurse { file ->
+            if (file.isFile()) {
+                files.put(root.toPath().relativize(file.toPath()).toString(), file.length())
+            }
+        }
+        return files
+    }
+}
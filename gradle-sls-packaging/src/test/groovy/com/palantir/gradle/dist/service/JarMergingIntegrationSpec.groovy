@@ -0,0 +1,108 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory
+import com.fasterxml.jackson.datatype.guava.GuavaModule
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import com.palantir.gradle.dist.ObjectMappers
+import com.palantir.gradle.dist.service.tasks.LaunchConfigTask
+import java.util.jar.JarFile
+
+class JarMergingIntegrationSpec extends GradleIntegrationSpec {
+    private static final YAML_MAPPER = new ObjectMapper(new YAMLFactory())
+            .registerModule(new GuavaModule())
+
+    def setup() {
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            repositories {
+                mavenCentral()
+            }
+
+            version '0.0.1'
+
+            dependencies {
+                implementation 'com.google.guava:guava:30.1.1-jre'
+                implementation 'com.fasterxml.jackson.core:jackson-core:2.11.1'
+                implementation 'com.fasterxml.jackson.core:jackson-annotations:2.11.1'
+                implementation 'javax.inject:javax.inject:1'
+            }
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+                enableJarMerging true
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << "package test;\npublic class Test {}"
+    }
+
+    def 'small jars are merged and the launcher classpath lists the merged jar'() {
+        when:
+        runTasks(':installDist')
+        File lib = file('build/install/service-name-0.0.1/service/lib')
+        LaunchConfigTask.LaunchConfig launchConfig = YAML_MAPPER.readValue(
+                new File(lib.parentFile, 'bin/launcher-static.yml'), LaunchConfigTask.LaunchConfig)
+
+        then:
+        lib.list().contains('merged-dependencies-1.jar')
+        !lib.list().contains('javax.inject-1.jar')
+        !lib.list().contains('failureaccess-1.0.1.jar')
+        // guava is larger than the threshold
+        lib.list().contains('guava-30.1.1-jre.jar')
+        launchConfig.classpath().contains('service/lib/merged-dependencies-1.jar')
+        launchConfig.classpath().every { new File(lib.parentFile.parentFile, it).exists() }
+        launchConfig.classpath().size() == lib.list().size()
+    }
+
+    def 'merged jars keep service files and package versions'() {
+        when:
+        runTasks(':mergeDependencyJars')
+        File merged = file('build/merged-libs/merged-dependencies-1.jar')
+
+        then:
+        new JarFile(merged).withCloseable { jar ->
+            jar.getInputStream(jar.getEntry('META-INF/services/com.fasterxml.jackson.core.JsonFactory')).text
+                    .contains('com.fasterxml.jackson.core.JsonFactory')
+                    && jar.manifest.getAttributes('com/fasterxml/jackson/core/')
+                            .getValue('Implementation-Version') == '2.11.1'
+        }
+    }
+
+    def 'jars that share classes are not merged'() {
+        buildFile << '''
+            dependencies {
+                implementation 'javax.inject:javax.inject:1'
+                implementation 'jakarta.inject:jakarta.inject-api:1.0'
+            }
+        '''.stripIndent()
+
+        when:
+        runTasks(':mergeDependencyJars')
+        Map<String, Object> merging = ObjectMappers.jsonMapper.readValue(file('build/merged-libs.json'), Map)
+
+        then:
+        merging.skipped['javax.inject-1.jar'].startsWith('shares javax/inject/')
+        merging.skipped['jakarta.inject-api-1.0.jar'].startsWith('shares javax/inject/')
+        file('build/merged-libs/javax.inject-1.jar').exists()
+    }
+}
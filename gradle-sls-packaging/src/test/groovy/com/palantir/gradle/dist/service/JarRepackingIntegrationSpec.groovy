@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import java.util.zip.ZipEntry
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry
+import org.apache.commons.compress.archivers.zip.ZipFile
+
+class JarRepackingIntegrationSpec extends GradleIntegrationSpec {
+
+    def setup() {
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            repositories {
+                mavenCentral()
+            }
+
+            version '0.0.1'
+
+            dependencies {
+                implementation 'com.google.guava:guava:19.0'
+            }
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+                enableJarRepacking true
+                classLoadOrder file('class-load.log')
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << "package test;\npublic class Test {}"
+        file('class-load.log') << '''\
+            [0.010s][info][class,load] java.lang.Object source: jrt:/java.base
+            [0.120s][info][class,load] test.Test source: file:/opt/services/service-name/service/lib/test.jar
+            [0.150s][info][class,load] com.google.common.collect.ImmutableList source: file:/opt/guava-19.0.jar
+            [0.151s][info][class,load] com.google.common.base.Strings source: file:/opt/guava-19.0.jar
+        '''.stripIndent()
+    }
+
+    def 'jars in the distribution are stored and in class load order'() {
+        when:
+        runTasks(':installDist')
+        File lib = file('build/install/service-name-0.0.1/service/lib')
+        List<ZipArchiveEntry> guava = entries(new File(lib, 'guava-19.0.jar'))
+        List<ZipArchiveEntry> project = entries(lib.listFiles().find { it.name != 'guava-19.0.jar' })
+
+        then:
+        (guava + project).every { it.method == ZipEntry.STORED }
+        guava[0].name == 'META-INF/'
+        guava[1].name == 'META-INF/MANIFEST.MF'
+        guava.findAll { !it.name.startsWith('META-INF/') }*.name.take(2) == [
+                'com/google/common/collect/ImmutableList.class',
+                'com/google/common/base/Strings.class']
+        project*.name.contains('test/Test.class')
+    }
+
+    def 'repacked jars have the same contents'() {
+        buildFile << '''
+            task copyOriginals(type: Copy) {
+                from configurations.runtimeClasspath
+                into 'build/originals'
+            }
+        '''.stripIndent()
+
+        when:
+        runTasks(':repackDependencyJars', ':copyOriginals')
+
+        then:
+        contents(file('build/repacked-libs/dependencies/guava-19.0.jar'))
+                == contents(file('build/originals/guava-19.0.jar'))
+    }
+
+    private static List<ZipArchiveEntry> entries(File jar) {
+        new ZipFile(jar).withCloseable { zip ->
+            return Collections.list(zip.entriesInPhysicalOrder)
+        }
+    }
+
+    private static Map<String, Long> contents(File jar) {
+        new ZipFile(jar).withCloseable { zip ->
+            return Collections.list(zip.entries).collectEntries { [(it.name): it.crc] }
+        }
+    }
+}
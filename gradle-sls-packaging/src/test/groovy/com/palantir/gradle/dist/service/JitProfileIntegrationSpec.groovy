@@ -0,0 +1,120 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory
+import com.fasterxml.jackson.datatype.guava.GuavaModule
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import com.palantir.gradle.dist.service.tasks.LaunchConfigTask
+
+class JitProfileIntegrationSpec extends GradleIntegrationSpec {
+    private static final YAML_MAPPER = new ObjectMapper(new YAMLFactory())
+            .registerModule(new GuavaModule())
+
+    def setup() {
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            version '0.0.1'
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+                javaVersion 11
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << '''
+            package test;
+            public class Test {
+                public static void main(String[] args) {}
+            }
+        '''.stripIndent()
+    }
+
+    def 'the static launcher has the options of the profile and its overrides'() {
+        buildFile << '''
+            distribution {
+                jit {
+                    profile 'startup'
+                    alwaysPreTouch true
+                }
+            }
+        '''.stripIndent()
+
+        when:
+        runTasks(':createLaunchConfig')
+        def staticConfig = launchConfig('launcher-static.yml')
+        def checkConfig = launchConfig('launcher-check.yml')
+
+        then:
+        staticConfig.jvmOpts().containsAll([
+                '-XX:TieredStopAtLevel=1',
+                '-XX:ReservedCodeCacheSize=64m',
+                '-XX:-UseCodeCacheFlushing',
+                '-XX:+AlwaysPreTouch'])
+        !checkConfig.jvmOpts().contains('-XX:TieredStopAtLevel=1')
+    }
+
+    def 'the memory budget has the code cache of the profile'() {
+        buildFile << '''
+            distribution {
+                jit {
+                    profile 'peak'
+                }
+                memory {
+                    containerLimit '4g'
+                }
+            }
+        '''.stripIndent()
+
+        when:
+        runTasks(':createLaunchConfig', ':createManifest')
+        def staticConfig = launchConfig('launcher-static.yml')
+        Map manifest = YAML_MAPPER.readValue(file('build/deployment/manifest.yml'), Map)
+
+        then:
+        staticConfig.jvmOpts().findAll { it.startsWith('-XX:ReservedCodeCacheSize=') }
+                .every { it == '-XX:ReservedCodeCacheSize=512m' }
+        manifest['extensions']['memory-budget']['code-cache'] == 512 * 1024 * 1024
+    }
+
+    def 'fails on code heap sizes before java 9'() {
+        buildFile << '''
+            distribution {
+                javaVersion 8
+                jit {
+                    nonMethodCodeHeapSize '8m'
+                    profiledCodeHeapSize '60m'
+                    nonProfiledCodeHeapSize '60m'
+                }
+            }
+        '''.stripIndent()
+
+        when:
+        def buildResult = runTasksWithFailure(':createLaunchConfig')
+
+        then:
+        buildResult.output.contains('The code heap sizes need the segmented code cache of java 9 or later')
+    }
+
+    private LaunchConfigTask.LaunchConfig launchConfig(String name) {
+        return YAML_MAPPER.readValue(file("build/scripts/${name}"), LaunchConfigTask.LaunchConfig)
+    }
+}
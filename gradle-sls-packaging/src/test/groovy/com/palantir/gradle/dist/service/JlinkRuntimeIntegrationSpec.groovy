@@ -0,0 +1,99 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory
+import com.fasterxml.jackson.datatype.guava.GuavaModule
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import com.palantir.gradle.dist.service.tasks.LaunchConfigTask
+import spock.lang.IgnoreIf
+
+// Links from the JDK that runs the build
+@IgnoreIf({ JlinkRuntimeIntegrationSpec.JAVA_VERSION < 11 })
+class JlinkRuntimeIntegrationSpec extends GradleIntegrationSpec {
+    private static final int JAVA_VERSION =
+            Integer.parseInt(System.getProperty('java.specification.version').replaceFirst(/^1\./, ''))
+    private static final YAML_MAPPER = new ObjectMapper(new YAMLFactory())
+            .registerModule(new GuavaModule())
+
+    def setup() {
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            version '0.0.1'
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+                javaVersion JavaVersion.current()
+                jlinkRuntime {
+                    addModules 'jdk.crypto.cryptoki'
+                }
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << '''
+            package test;
+            public class Test {
+                public static void main(String[] args) {
+                    java.util.logging.Logger.getLogger("test").info("started");
+                }
+            }
+        '''.stripIndent()
+    }
+
+    def 'the distribution ships a linked runtime that the launchers use'() {
+        when:
+        runTasks(':installDist')
+        File root = file('build/install/service-name-0.0.1')
+        Properties release = new Properties()
+        new File(root, 'service/jre/release').withInputStream { release.load(it) }
+        List<String> modules = release.getProperty('MODULES').replace('"', '').split(' ')
+
+        then:
+        modules.containsAll(['java.base', 'java.logging', 'java.management', 'jdk.crypto.cryptoki'])
+        !modules.contains('java.desktop')
+        new File(root, 'service/jre/bin/java').canExecute()
+        new File(root, 'service/jre/lib/server/classes.jsa').isFile()
+        launchConfig(root, 'launcher-static.yml').javaHome() == 'service/jre'
+        launchConfig(root, 'launcher-check.yml').javaHome() == 'service/jre'
+        new ProcessBuilder('service/jre/bin/java', '-cp', 'service/lib/*', 'test.Test')
+                .directory(root)
+                .start()
+                .waitFor() == 0
+    }
+
+    def 'linking fails when the distribution runs on another java version'() {
+        buildFile << '''
+            distribution {
+                javaVersion 8
+            }
+        '''.stripIndent()
+
+        when:
+        def buildResult = runTasksWithFailure(':jlinkRuntime')
+
+        then:
+        buildResult.output.contains('Set distribution.jlinkRuntime.jdk to a java 8 JDK')
+    }
+
+    private static LaunchConfigTask.LaunchConfig launchConfig(File root, String name) {
+        return YAML_MAPPER.readValue(new File(root, "service/bin/${name}"), LaunchConfigTask.LaunchConfig)
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.google.common.hash.Hashing
+import com.google.common.io.Files
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import java.util.zip.GZIPInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+
+class LayeredDistributionIntegrationSpec extends GradleIntegrationSpec {
+
+    File service
+
+    def setup() {
+        helper.addSubproject('lib', '''
+            apply plugin: 'java'
+            version '0.0.1'
+        ''')
+        service = helper.addSubproject('service', '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            repositories {
+                mavenCentral()
+            }
+
+            version '0.0.1'
+
+            dependencies {
+                implementation project(':lib')
+                implementation 'com.google.guava:guava:19.0'
+            }
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+                enableLayers true
+            }
+        ''')
+        file('service/src/main/java/test/Test.java') << "package test;\npublic class Test {}"
+        file('lib/src/main/java/lib/Lib.java') << "package lib;\npublic class Lib {}"
+    }
+
+    def 'layers partition the full distribution'() {
+        when:
+        runTasks(':service:distTar', ':service:createLayerManifest')
+        Set<String> full = tarEntries(new File(service, 'build/distributions/service-name-0.0.1.sls.tgz'))
+        Set<String> dependencies = tarEntries(
+                new File(service, 'build/distributions/service-name-0.0.1-dependencies.sls.tgz'))
+        Set<String> project = tarEntries(new File(service, 'build/distributions/service-name-0.0.1-project.sls.tgz'))
+        Set<String> application = tarEntries(
+                new File(service, 'build/distributions/service-name-0.0.1-application.sls.tgz'))
+
+        then:
+        dependencies == ['service-name-0.0.1/service/lib/guava-19.0.jar'] as Set
+        project == ['service-name-0.0.1/service/lib/service-0.0.1.jar',
+                    'service-name-0.0.1/service/lib/lib-0.0.1.jar'] as Set
+        application.contains('service-name-0.0.1/deployment/manifest.yml')
+        application.contains('service-name-0.0.1/service/bin/launcher-static.yml')
+        application.contains('service-name-0.0.1/service/bin/init.sh')
+
+        (dependencies + project + application) == full
+        dependencies.size() + project.size() + application.size() == full.size()
+    }
+
+    def 'layer manifest lists the layers in extraction order with their checksums'() {
+        when:
+        runTasks(':service:createLayerManifest')
+        File manifestFile = new File(service, 'build/distributions/service-name-0.0.1.layers.json')
+        Map<String, Object> manifest = new ObjectMapper().readValue(manifestFile, Map)
+
+        then:
+        manifest['manifest-version'] == '1.0'
+        manifest['root-directory'] == 'service-name-0.0.1'
+        manifest['layers']*.name == ['dependencies', 'project', 'application']
+        manifest['layers']*.file == [
+                'service-name-0.0.1-dependencies.sls.tgz',
+                'service-name-0.0.1-project.sls.tgz',
+                'service-name-0.0.1-application.sls.tgz']
+        manifest['layers'].every { layer ->
+            File archive = new File(service, "build/distributions/${layer.file}")
+            layer.size == archive.length() && layer.sha256 == sha256(archive)
+        }
+    }
+
+    def 'consumers select layers through the sls configuration'() {
+        given:
+        helper.addSubproject('consumer', '''
+            configurations {
+                full
+                dependencyLayer {
+                    attributes { attribute(Attribute.of('com.palantir.sls.layer', String), 'dependencies') }
+                }
+                layerManifest {
+                    attributes { attribute(Attribute.of('com.palantir.sls.layer', String), 'layer-manifest') }
+                }
+            }
+            dependencies {
+                full project(path: ':service', configuration: 'sls')
+                dependencyLayer project(path: ':service', configuration: 'sls')
+                layerManifest project(path: ':service', configuration: 'sls')
+            }
+            task printFiles {
+                dependsOn configurations.full, configurations.dependencyLayer, configurations.layerManifest
+                doLast {
+                    println "full: ${configurations.full.singleFile.name}"
+                    println "dependencyLayer: ${configurations.dependencyLayer.singleFile.name}"
+                    println "layerManifest: ${configurations.layerManifest.singleFile.name}"
+                }
+            }
+        ''')
+
+        when:
+        def result = runTasks(':consumer:printFiles')
+
+        then:
+        result.output.contains('full: service-name-0.0.1.sls.tgz')
+        result.output.contains('dependencyLayer: service-name-0.0.1-dependencies.sls.tgz')
+        result.output.contains('layerManifest: service-name-0.0.1.layers.json')
+    }
+
+    private static Set<String> tarEntries(File archive) {
+        Set<String> entries = new TreeSet<>()
+        new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(archive))).withCloseable { tar ->
+            TarArchiveEntry entry
+            while ((entry = tar.nextTarEntry) != null) {
+                if (!entry.isDirectory()) {
+                    entries.add(entry.name)
+                }
+            }
+        }
+        return entries
+    }
+
+    private static String sha256(File file) {
+        return Files.asByteSource(file).hash(Hashing.sha256()).toString()
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import java.util.zip.GZIPInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.utils.IOUtils
+
+class LibraryPoolIntegrationSpec extends GradleIntegrationSpec {
+
+    def setup() {
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-library-pool'
+            }
+            version '0.0.1'
+        '''.stripIndent()
+        service('service-a', "implementation 'javax.inject:javax.inject:1'")
+        service('service-b', '')
+    }
+
+    def 'pool holds each third-party jar once, and thin distributions load them from it'() {
+        when:
+        runTasks(':libraryPoolTar', ':service-a:distTarThin')
+        Map<String, byte[]> pool = tarFiles(file('build/distributions/library-pool-0.0.1.tgz'))
+        Map<String, byte[]> thin = tarFiles(file('service-a/build/distributions/service-a-0.0.1-thin.sls.tgz'))
+        Map<String, Object> launcher = new ObjectMapper(new YAMLFactory())
+                .readValue(thin['service-a-0.0.1/service/bin/launcher-static.yml'], Map)
+        String guava = pool.keySet().find { it.endsWith('/guava-19.0.jar') }
+
+        then:
+        pool.size() == 2
+        guava ==~ /library-pool\/[0-9a-f]{64}\/guava-19.0.jar/
+        pool.keySet().any { it.endsWith('/javax.inject-1.jar') }
+
+        thin.keySet().findAll { it.contains('/service/lib/') } ==
+                ['service-a-0.0.1/service/lib/service-a-0.0.1.jar'] as Set
+        launcher['classpath'].contains('service/lib/service-a-0.0.1.jar')
+        launcher['classpath'].contains('../' + guava)
+        launcher['classpath'].size() == 3
+    }
+
+    def 'thin distribution is published on the sls configuration when enabled'() {
+        given:
+        file('service-b/build.gradle') << 'distribution { enableThinDistribution true }\n'
+        helper.addSubproject('consumer', '''
+            configurations {
+                thin {
+                    attributes { attribute(Attribute.of('com.palantir.sls.layer', String), 'thin') }
+                }
+            }
+            dependencies {
+                thin project(path: ':service-b', configuration: 'sls')
+            }
+            task printFiles {
+                dependsOn configurations.thin
+                doLast {
+                    println "thin: ${configurations.thin.singleFile.name}"
+                }
+            }
+        ''')
+
+        when:
+        def result = runTasks(':consumer:printFiles')
+
+        then:
+        result.output.contains('thin: service-b-0.0.1-thin.sls.tgz')
+    }
+
+    private void service(String name, String extraDependency) {
+        helper.addSubproject(name, """
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            repositories {
+                mavenCentral()
+            }
+
+            version '0.0.1'
+
+            dependencies {
+                implementation 'com.google.guava:guava:19.0'
+                ${extraDependency}
+            }
+
+            distribution {
+                serviceName '${name}'
+                mainClass 'test.Test'
+            }
+        """)
+        file("${name}/src/main/java/test/Test.java") << "package test;\npublic class Test {}"
+    }
+
+    private static Map<String, byte[]> tarFiles(File archive) {
+        Map<String, byte[]> files = new TreeMap<>()
+        new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(archive))).withCloseable { tar ->
+            TarArchiveEntry entry
+            while ((entry = tar.nextTarEntry) != null) {
+                if (!entry.isDirectory()) {
+                    files.put(entry.name, IOUtils.toByteArray(tar))
+                }
+            }
+        }
+        return files
+    }
+}
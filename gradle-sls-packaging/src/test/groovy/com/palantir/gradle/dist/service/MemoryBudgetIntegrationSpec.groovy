@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory
+import com.fasterxml.jackson.datatype.guava.GuavaModule
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import com.palantir.gradle.dist.service.tasks.LaunchConfigTask
+
+class MemoryBudgetIntegrationSpec extends GradleIntegrationSpec {
+    private static final long MIB = 1024 * 1024
+    private static final YAML_MAPPER = new ObjectMapper(new YAMLFactory())
+            .registerModule(new GuavaModule())
+
+    def setup() {
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            version '0.0.1'
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+                memory {
+                    containerLimit '8g'
+                    heapFraction 0.6
+                    threads 100
+                }
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << '''
+            package test;
+            public class Test {
+                public static void main(String[] args) {}
+            }
+        '''.stripIndent()
+    }
+
+    def 'the static launcher caps each part of the budget'() {
+        when:
+        runTasks(':installDist')
+        File root = file('build/install/service-name-0.0.1')
+        def staticConfig = launchConfig(root, 'launcher-static.yml')
+        def checkConfig = launchConfig(root, 'launcher-check.yml')
+
+        then:
+        staticConfig.jvmOpts().containsAll([
+                '-Xmx4915m',
+                '-Xms4915m',
+                '-XX:MaxDirectMemorySize=819m',
+                '-XX:MaxMetaspaceSize=256m',
+                '-XX:ReservedCodeCacheSize=240m',
+                '-Xss1024k'])
+        staticConfig.env().get('MALLOC_ARENA_MAX') == '2'
+        !checkConfig.jvmOpts().any { it.startsWith('-Xmx') }
+        checkConfig.env().get('MALLOC_ARENA_MAX') == '4'
+    }
+
+    def 'the manifest has the budget with the explicit options'() {
+        buildFile << '''
+            distribution {
+                defaultJvmOpts '-Xmx4g', '-XX:MaxMetaspaceSize=512m'
+            }
+        '''.stripIndent()
+
+        when:
+        runTasks(':installDist')
+        File root = file('build/install/service-name-0.0.1')
+        Map manifest = YAML_MAPPER.readValue(new File(root, 'deployment/manifest.yml'), Map)
+        Map budget = manifest['extensions']['memory-budget']
+        def staticConfig = launchConfig(root, 'launcher-static.yml')
+
+        then:
+        budget['container-limit'] == 8192 * MIB
+        budget['heap'] == 4096 * MIB
+        budget['metaspace'] == 512 * MIB
+        budget['threads'] == 100
+        budget['malloc-arena-max'] == 2
+        budget['committed'] <= 8192 * MIB
+        staticConfig.jvmOpts().containsAll(['-Xmx4096m', '-Xms4096m', '-XX:MaxMetaspaceSize=512m'])
+    }
+
+    def 'fails when the explicit options overcommit the container limit'() {
+        buildFile << '''
+            distribution {
+                defaultJvmOpts '-Xmx7g'
+            }
+        '''.stripIndent()
+
+        when:
+        def buildResult = runTasksWithFailure(':createLaunchConfig')
+
+        then:
+        buildResult.output.contains(
+                'The memory budget of service-name overcommits the container limit of 8192m by 1211m: heap 7168m')
+    }
+
+    def 'fails without a container limit'() {
+        buildFile.text = buildFile.text.replace("containerLimit '8g'", '')
+
+        when:
+        def buildResult = runTasksWithFailure(':createLaunchConfig')
+
+        then:
+        buildResult.output.contains('set distribution.memory.containerLimit')
+    }
+
+    private static LaunchConfigTask.LaunchConfig launchConfig(File root, String name) {
+        return YAML_MAPPER.readValue(new File(root, "service/bin/${name}"), LaunchConfigTask.LaunchConfig)
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.palantir.gradle.dist.ObjectMappers
+import org.gradle.api.GradleException
+import org.gradle.testfixtures.ProjectBuilder
+import spock.lang.Specification
+
+class MemoryBudgetTest extends Specification {
+    private static final long MIB = 1024 * 1024
+
+    def 'parses sizes as JVM options take them'() {
+        expect:
+        MemoryBudget.parseSize(size) == bytes
+
+        where:
+        size    | bytes
+        '1024'  | 1024
+        '512k'  | 512 * 1024
+        '512M'  | 512 * MIB
+        '8g'    | 8192 * MIB
+        '1t'    | 1024 * 1024 * MIB
+    }
+
+    def 'fails on sizes that are not sizes'() {
+        when:
+        MemoryBudget.parseSize('1.5g')
+
+        then:
+        GradleException exception = thrown()
+        exception.message.contains("'1.5g' is not a size")
+    }
+
+    def 'fails on heap fractions outside of 0 and 1'() {
+        given:
+        MemoryBudget memoryBudget = ProjectBuilder.builder().build().objects.newInstance(MemoryBudget)
+
+        when:
+        memoryBudget.heapFraction(fraction)
+
+        then:
+        GradleException exception = thrown()
+        exception.message.contains('The heap fraction must be greater than 0 and less than 1')
+
+        where:
+        fraction << [0, -0.5, 1, 1.5, Double.NaN]
+    }
+
+    def 'caps each part with its option'() {
+        expect:
+        budget().jvmOpts() == [
+                '-Xmx4096m',
+                '-Xms4096m',
+                '-XX:MaxDirectMemorySize=819m',
+                '-XX:MaxMetaspaceSize=256m',
+                '-XX:ReservedCodeCacheSize=240m',
+                '-Xss1024k']
+        budget().committed() == 8192 * MIB / 2 + 2 * (8192 * MIB / 10 as long) + (256 + 240 + 200) * MIB
+    }
+
+    def 'later explicit options replace the parts they set'() {
+        when:
+        def budget = budget().withExplicitOptions([
+                '-Xmx2g', '-XX:+UseG1GC', '-Xmx3g', '-XX:ThreadStackSize=512', '-XX:MaxDirectMemorySize=1g'])
+
+        then:
+        budget.heap() == 3072 * MIB
+        budget.threadStackSize() == 512 * 1024
+        budget.directMemory() == 1024 * MIB
+        budget.metaspace() == 256 * MIB
+        budget.jvmOpts().subList(0, 2) == ['-Xmx3072m', '-Xms3072m']
+    }
+
+    def 'fails when the parts overcommit the container limit'() {
+        when:
+        budget().withExplicitOptions(['-Xmx7g']).check('service-name')
+
+        then:
+        GradleException exception = thrown()
+        exception.message.contains(
+                'The memory budget of service-name overcommits the container limit of 8192m by 1311m: heap 7168m')
+    }
+
+    def 'serializes the budget in bytes'() {
+        when:
+        def json = ObjectMappers.jsonMapper.readTree(ObjectMappers.jsonMapper.writeValueAsString(budget()))
+
+        then:
+        json.get('container-limit').asLong() == 8192 * MIB
+        json.get('heap').asLong() == 4096 * MIB
+        json.get('mallocArenaMax') == null
+        json.get('malloc-arena-max').asInt() == 2
+        json.get('committed').asLong() == budget().committed()
+    }
+
+    private static MemoryBudget.Budget budget() {
+        long limit = 8192 * MIB
+        return new MemoryBudget.Budget.Builder()
+                .containerLimit(limit)
+                .heap(limit / 2 as long)
+                .directMemory(limit / 10 as long)
+                .metaspace(256 * MIB)
+                .codeCache(240 * MIB)
+                .threads(200)
+                .threadStackSize(MIB)
+                .nativeOverhead(limit / 10 as long)
+                .mallocArenaMax(2)
+                .build()
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.google.common.hash.Hashing
+import com.google.common.io.Files
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import java.util.zip.GZIPInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+
+class OciImageIntegrationSpec extends GradleIntegrationSpec {
+
+    def setup() {
+        helper.addSubproject('lib', '''
+            apply plugin: 'java'
+            version '0.0.1'
+        ''')
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            repositories {
+                mavenCentral()
+            }
+
+            version '0.0.1'
+
+            dependencies {
+                implementation project(':lib')
+                implementation 'com.google.guava:guava:19.0'
+            }
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+                javaVersion 11
+                ociJdk file('jdk')
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << "package test;\npublic class Test {}"
+        file('lib/src/main/java/lib/Lib.java') << "package lib;\npublic class Lib {}"
+        file('jdk/bin/java') << '#!/bin/sh\n'
+        file('jdk/release') << 'JAVA_VERSION="11"\n'
+    }
+
+    def 'image has a layer for the jdk and each distribution layer, and runs go-java-launcher'() {
+        when:
+        runTasks(':createOciImage')
+        Map<String, Object> manifest = manifest()
+        Map<String, Object> config = blobJson(manifest.config.digest)
+        List<Map<String, Object>> layers = manifest.layers
+
+        then:
+        layers.size() == 4
+        layers.every { layer ->
+            File blob = blob(layer.digest)
+            layer.mediaType == 'application/vnd.oci.image.layer.v1.tar+gzip'
+                    && layer.size == blob.length()
+                    && layer.digest == 'sha256:' + Files.asByteSource(blob).hash(Hashing.sha256())
+        }
+        config.rootfs.diff_ids.size() == 4
+        tarEntries(blob(layers[0].digest)).contains('opt/java/bin/java')
+        tarEntries(blob(layers[1].digest)) ==
+                ['opt/services/service-name-0.0.1/service/lib/guava-19.0.jar'] as Set
+        tarEntries(blob(layers[2].digest)).contains('opt/services/service-name-0.0.1/service/lib/lib-0.0.1.jar')
+        tarEntries(blob(layers[3].digest)).contains('opt/services/service-name-0.0.1/deployment/manifest.yml')
+
+        config.architecture == 'amd64'
+        config.config.WorkingDir == '/opt/services/service-name-0.0.1'
+        config.config.Entrypoint == [
+                '/opt/services/service-name-0.0.1/service/bin/linux-amd64/go-java-launcher',
+                'service/bin/launcher-static.yml',
+                'var/conf/launcher-custom.yml']
+        config.config.Env as Set == ['JAVA_HOME=/opt/java', 'JAVA_11_HOME=/opt/java'] as Set
+        new ObjectMapper().readValue(file('build/oci-image/oci-layout'), Map).imageLayoutVersion == '1.0.0'
+    }
+
+    def 'rebuilding gives the same image, and a change only changes its layer'() {
+        when:
+        runTasks(':createOciImage')
+        Map<String, Object> first = manifest()
+        // Rebuilds the layers, but not the jars, whose entries have timestamps
+        new File(projectDir, 'build/oci-layers').deleteDir()
+        new File(projectDir, 'build/oci-image').deleteDir()
+        runTasks(':createOciImage')
+        Map<String, Object> rebuilt = manifest()
+
+        file('var/conf/service.yml') << 'port: 8080\n'
+        runTasks(':createOciImage')
+        Map<String, Object> changed = manifest()
+
+        then:
+        rebuilt == first
+        changed.layers[0..2] == first.layers[0..2]
+        changed.layers[3] != first.layers[3]
+    }
+
+    def 'image tar contains the layout'() {
+        when:
+        runTasks(':ociImageTar')
+        Set<String> entries = new TreeSet<>()
+        new TarArchiveInputStream(new FileInputStream(file('build/distributions/service-name-0.0.1.oci.tar')))
+                .withCloseable { tar ->
+                    TarArchiveEntry entry
+                    while ((entry = tar.nextTarEntry) != null) {
+                        entries.add(entry.name)
+                    }
+                }
+
+        then:
+        entries.containsAll(['index.json', 'oci-layout'])
+        entries.count { it.startsWith('blobs/sha256/') && !it.endsWith('/') } == 6
+    }
+
+    private Map<String, Object> manifest() {
+        Map<String, Object> index = new ObjectMapper().readValue(file('build/oci-image/index.json'), Map)
+        assert index.manifests*.annotations == [['org.opencontainers.image.ref.name': '0.0.1']]
+        return blobJson(index.manifests[0].digest)
+    }
+
+    private Map<String, Object> blobJson(String digest) {
+        return new ObjectMapper().readValue(blob(digest), Map)
+    }
+
+    private File blob(String digest) {
+        return file("build/oci-image/blobs/sha256/${digest.substring('sha256:'.length())}")
+    }
+
+    private static Set<String> tarEntries(File archive) {
+        Set<String> entries = new TreeSet<>()
+        new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(archive))).withCloseable { tar ->
+            TarArchiveEntry entry
+            while ((entry = tar.nextTarEntry) != null) {
+                if (!entry.isDirectory()) {
+                    entries.add(entry.name)
+                }
+            }
+        }
+        return entries
+    }
+}
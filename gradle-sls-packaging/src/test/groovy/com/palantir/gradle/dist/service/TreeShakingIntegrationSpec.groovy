@@ -0,0 +1,188 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.palantir.gradle.dist.GradleIntegrationSpec
+import java.util.zip.ZipFile
+
+class TreeShakingIntegrationSpec extends GradleIntegrationSpec {
+
+    def setup() {
+        helper.addSubproject('lib', '''
+            apply plugin: 'java'
+            version '0.0.1'
+
+            repositories {
+                mavenCentral()
+            }
+
+            dependencies {
+                implementation 'com.google.guava:guava:19.0'
+            }
+        ''')
+        buildFile << '''
+            plugins {
+                id 'com.palantir.sls-java-service-distribution'
+            }
+
+            repositories {
+                mavenCentral()
+            }
+
+            version '0.0.1'
+
+            dependencies {
+                implementation project(':lib')
+                implementation 'com.google.guava:guava:19.0'
+            }
+
+            distribution {
+                serviceName 'service-name'
+                mainClass 'test.Test'
+                enableTreeShaking true
+                treeShakingKeep 'com.google.common.net.*'
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java') << '''
+            package test;
+            public class Test {
+                public static void main(String[] args) {
+                    System.out.println(com.google.common.base.Strings.repeat("a", 2));
+                }
+            }
+        '''.stripIndent()
+        file('lib/src/main/java/lib/Lib.java') << '''
+            package lib;
+            public class Lib {
+                public static Object list() {
+                    return com.google.common.collect.ImmutableList.of();
+                }
+            }
+        '''.stripIndent()
+    }
+
+    def 'distribution gets a slimmed copy of third-party jars'() {
+        when:
+        runTasks(':installDist')
+        Set<String> classes = jarClasses('build/install/service-name-0.0.1/service/lib/guava-19.0.jar')
+
+        then:
+        classes.contains('com/google/common/base/Strings.class')
+        // Reachable from the project's other jars, and kept by the keep rule
+        classes.contains('com/google/common/collect/ImmutableList.class')
+        classes.contains('com/google/common/net/HostAndPort.class')
+        !classes.contains('com/google/common/cache/LocalCache.class')
+        file('build/install/service-name-0.0.1/service/lib/lib-0.0.1.jar').exists()
+    }
+
+    def 'report lists the removed classes'() {
+        when:
+        runTasks(':shakeDependencies')
+        Map<String, Object> report = new ObjectMapper().readValue(file('build/reports/tree-shaking.json'), Map)
+        Map<String, Object> guava = report.jars.find { it.file == 'guava-19.0.jar' }
+
+        then:
+        report.jars*.file == ['guava-19.0.jar']
+        guava.'removed-classes'.contains('com.google.common.cache.LocalCache')
+        !guava.'removed-classes'.contains('com.google.common.base.Strings')
+        guava.size < guava.'original-size'
+        guava.size == file('build/shaken-libs/guava-19.0.jar').length()
+    }
+
+    def 'keeps what the versioned classes of multi-release jars reach'() {
+        given:
+        helper.addSubproject('mr', '''
+            apply plugin: 'java'
+
+            sourceSets {
+                java11 {
+                    compileClasspath += main.output
+                }
+            }
+
+            jar {
+                archiveFileName = 'mr.jar'
+                manifest.attributes('Multi-Release': 'true')
+                into('META-INF/versions/11') {
+                    from sourceSets.java11.output
+                }
+            }
+        ''')
+        file('mr/src/main/java/mr/Versioned.java') << '''
+            package mr;
+            public class Versioned {
+                public static String name() {
+                    return "base";
+                }
+            }
+        '''.stripIndent()
+        file('mr/src/java11/java/mr/Versioned.java') << '''
+            package mr;
+            public class Versioned {
+                public static String name() {
+                    return Helper.name();
+                }
+            }
+        '''.stripIndent()
+        file('mr/src/java11/java/mr/Helper.java') << '''
+            package mr;
+            class Helper {
+                static String name() {
+                    return "java 11";
+                }
+            }
+        '''.stripIndent()
+        file('mr/src/main/java/mr/Unused.java') << '''
+            package mr;
+            public class Unused {}
+        '''.stripIndent()
+        buildFile << '''
+            dependencies {
+                implementation files('mr/build/libs/mr.jar')
+            }
+            distribution {
+                javaVersion 11
+            }
+        '''.stripIndent()
+        file('src/main/java/test/Test.java').text = '''
+            package test;
+            public class Test {
+                public static void main(String[] args) {
+                    System.out.println(mr.Versioned.name());
+                }
+            }
+        '''.stripIndent()
+
+        when:
+        runTasks(':mr:jar')
+        runTasks(':shakeDependencies')
+        Set<String> classes = jarClasses('build/shaken-libs/mr.jar')
+
+        then:
+        classes.contains('mr/Versioned.class')
+        classes.contains('META-INF/versions/11/mr/Versioned.class')
+        classes.contains('META-INF/versions/11/mr/Helper.class')
+        !classes.contains('mr/Unused.class')
+    }
+
+    private Set<String> jarClasses(String path) {
+        new ZipFile(file(path)).withCloseable { jar ->
+            return jar.entries().collect { it.name }.findAll { it.endsWith('.class') } as Set
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * (c) Copyright 2021 Palantir Technologies Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.palantir.gradle.dist.service.gc
+
+import org.gradle.api.GradleException
+import org.gradle.api.JavaVersion
+import spock.lang.Specification
+
+class GcProfileTest extends Specification {
+    def 'g1 sets the pause target, a fixed occupancy and the region size'() {
+        given:
+        def g1 = new GcProfile.G1()
+        g1.maxGcPauseMillis(100)
+        g1.initiatingHeapOccupancyPercent(40)
+        g1.regionSize('16m')
+
+        expect:
+        g1.gcJvmOpts(JavaVersion.VERSION_1_8) == [
+                '-XX:+UseG1GC',
+                '-XX:MaxGCPauseMillis=100',
+                '-XX:InitiatingHeapOccupancyPercent=40',
+                '-XX:G1HeapRegionSize=16m']
+        g1.gcJvmOpts(JavaVersion.VERSION_11) == [
+                '-XX:+UseG1GC',
+                '-XX:MaxGCPauseMillis=100',
+                '-XX:InitiatingHeapOccupancyPercent=40',
+                '-XX:-G1UseAdaptiveIHOP',
+                '-XX:G1HeapRegionSize=16m']
+    }
+
+    def 'g1 fails on region sizes that the JVM does not support'() {
+        given:
+        def g1 = new GcProfile.G1()
+        g1.regionSize(regionSize)
+
+        when:
+        g1.gcJvmOpts(JavaVersion.VERSION_17)
+
+        then:
+        GradleException exception = thrown()
+        exception.message.contains("The G1 region size must be a power of two from 1m to 32m, but is '${regionSize}'")
+
+        where:
+        regionSize << ['512k', '24m', '64m']
+    }
+
+    def 'zgc is generational'() {
+        given:
+        def zgc = new GcProfile.Zgc()
+        zgc.allocationSpikeTolerance(5)
+        zgc.softMaxHeapSize('6g')
+
+        expect:
+        zgc.gcJvmOpts(JavaVersion.toVersion(21)) == [
+                '-XX:+UseZGC',
+                '-XX:+ZGenerational',
+                '-XX:ZAllocationSpikeTolerance=5.0',
+                '-XX:SoftMaxHeapSize=6g']
+    }
+
+    def 'shenandoah sets the mode and heuristics'() {
+        given:
+        def shenandoah = new GcProfile.Shenandoah()
+        shenandoah.mode('satb')
+        shenandoah.heuristics('compact')
+
+        expect:
+        shenandoah.gcJvmOpts(JavaVersion.VERSION_14) == [
+                '-XX:+UnlockExperimentalVMOptions',
+                '-XX:+UseShenandoahGC',
+                '-XX:ShenandoahGCMode=satb',
+                '-XX:ShenandoahGCHeuristics=compact',
+                '-XX:+ExplicitGCInvokesConcurrent']
+        shenandoah.gcJvmOpts(JavaVersion.VERSION_17) == [
+                '-XX:+UseShenandoahGC',
+                '-XX:ShenandoahGCMode=satb',
+                '-XX:ShenandoahGCHeuristics=compact',
+                '-XX:+ExplicitGCInvokesConcurrent']
+    }
+
+    def 'shenandoah fails on unknown heuristics'() {
+        given:
+        def shenandoah = new GcProfile.Shenandoah()
+        shenandoah.heuristics('fast')
+
+        when:
+        shenandoah.gcJvmOpts(JavaVersion.VERSION_17)
+
+        then:
+        GradleException exception = thrown()
+        exception.message.contains("The Shenandoah heuristics must be one of [adaptive, static, compact]")
+    }
+
+    def 'fails on java versions older than the collector'() {
+        when:
+        GcProfile.checkJavaVersion(new GcProfile.Shenandoah(), JavaVersion.VERSION_11)
+
+        then:
+        GradleException exception = thrown()
+        exception.message == "The gc profile 'shenandoah' needs java 12 or later, but the distribution runs on java 11"
+    }
+
+    def 'supports every java version with the profiles of older collectors'() {
+        when:
+        GcProfile.checkJavaVersion(new GcProfile.Hybrid(), JavaVersion.VERSION_1_8)
+        GcProfile.checkJavaVersion(new GcProfile.G1(), JavaVersion.VERSION_1_8)
+        GcProfile.checkJavaVersion(new GcProfile.Zgc(), JavaVersion.toVersion(21))
+
+        then:
+        noExceptionThrown()
+    }
+}